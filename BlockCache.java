@@ -0,0 +1,480 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * BlockCache - Shared cache of file contents for RRQs, so a boot storm of clients pulling the same
+ * bootloader, kernel and initrd is served from memory and not from the disk once per client.
+ * Files are cached in CHUNK sized pieces, keyed by the file's canonical path, modification time and size,
+ * so a file that changes is read fresh and its old chunks just age out. Chunks live in direct buffers,
+ * off the heap, and are copied straight from there into a session's (direct) packet buffer.
+ * -Dtftp.cache=N (JVM option) caps the memory at N bytes, 64MB by default, 0 turns the cache off.
+ * Chunk buffers are made as they are needed up to the cap and reused after that, never freed.
+ * Eviction is a segmented LRU, which looks at how often a chunk is used and not only how lately:
+ * a new chunk goes on probation, and the next reader that uses it moves it to the protected segment (4/5 of the cache).
+ * Chunks are evicted from probation first, so one big file read once can't push out the hot ones.
+ * Sessions reading the same version of a file share it (single flight): open() gives them all one
+ * FileVersion with one channel, opened on the first miss and closed when the last reader lets go,
+ * and a chunk that several sessions miss at once is read by the first of them while the rest wait for it.
+ * A session so far behind that its chunks are gone just loads them again, on probation.
+ * A miss is read, or waited for, on the thread that asked for it. On the nio engine that is an event loop,
+ * which stops all of its sessions until the read is done (see SelectorEngine).
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class BlockCache {
+   static final int CHUNK = 64 * 1024;   // bigger than any block, so a block is in at most 2 chunks
+
+   // The cache every server session uses
+   private static final BlockCache SHARED = new BlockCache(Long.getLong("tftp.cache", 64L * 1024 * 1024));
+
+   // Attributes
+   private ReentrantLock lock = new ReentrantLock();
+   private LinkedHashMap<Key, ByteBuffer> probation = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);   // access order, eldest first
+   private LinkedHashMap<Key, ByteBuffer> protect = new LinkedHashMap<Key, ByteBuffer>(16, 0.75f, true);
+   private ArrayDeque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+   private HashMap<FileVersion, FileVersion> open = new HashMap<FileVersion, FileVersion>();   // files being read, one instance per version
+   private HashMap<Key, CountDownLatch> loading = new HashMap<Key, CountDownLatch>();           // chunks being read from the disk right now
+   private int maxChunks;
+   private int maxProtected;
+   private int allocated = 0;   // chunk buffers made so far, at most maxChunks
+
+   // Stats
+   private LongAdder hits = new LongAdder();
+   private LongAdder misses = new LongAdder();
+   private LongAdder evictions = new LongAdder();
+   private LongAdder shared = new LongAdder();
+
+   /**
+    * Parameterized constructor for BlockCache
+    * @param capacity the most direct memory to use, in bytes
+    */
+   public BlockCache(long capacity) {
+      maxChunks = (int)Math.min(Integer.MAX_VALUE, Math.max(0, capacity / CHUNK));
+      maxProtected = maxChunks * 4 / 5;
+   }
+
+   /** shared() method
+    *
+    * @return the cache sized by -Dtftp.cache
+    */
+   public static BlockCache shared() {
+      return SHARED;
+   }
+
+   /** isEnabled() method
+    *
+    * @return false if the cap is too small for even one chunk
+    */
+   public boolean isEnabled() {
+      return maxChunks > 0;
+   }
+
+   /** open() method
+    *
+    * Attaches a reader to a file. Every reader of the same version gets the same FileVersion
+    * @param file the file
+    * @return the file's shared FileVersion, give it back with release()
+    * @throws FileNotFoundException if it isn't a file or can't be read
+    */
+   public FileVersion open(File file) throws IOException {
+      FileVersion version = new FileVersion(file);
+      lock.lock();
+      try {
+         FileVersion same = open.get(version);
+         if(same == null) {
+            open.put(version, version);
+            same = version;
+         }
+         same.readers++;
+         return same;
+      }
+      finally {
+         lock.unlock();
+      }
+   } //open()
+
+   /** release() method
+    *
+    * Detaches a reader. The last one closes the file's channel
+    * @param version from open()
+    */
+   public void release(FileVersion version) throws IOException {
+      lock.lock();
+      try {
+         if(--version.readers > 0) {
+            return;
+         }
+         open.remove(version);
+      }
+      finally {
+         lock.unlock();
+      }
+      version.closeChannel();
+   } //release()
+
+   /** copy() method
+    *
+    * Copies from the cached chunk holding pos into dst, as much as dst has room for and the chunk has
+    * @param file the file and version
+    * @param pos where in the file to start
+    * @param dst where it goes, from its position on. The position is moved past what was copied
+    * @param newUse true the first time a reader goes to this chunk. Only that counts as a hit or a miss
+    *               and toward keeping the chunk, a chunk holds dozens of blocks
+    * @return the bytes copied, or -1 if the chunk isn't cached
+    */
+   public int copy(FileVersion file, long pos, ByteBuffer dst, boolean newUse) {
+      Key key = new Key(file, pos / CHUNK);
+      lock.lock();
+      try {
+         ByteBuffer chunk = protect.get(key);
+         if(chunk == null && !newUse) {
+            chunk = probation.get(key);
+         }
+         else if(chunk == null) {
+            chunk = probation.remove(key);
+            if(chunk == null) {
+               misses.increment();
+               return -1;
+            }
+            protect.put(key, chunk);   // second use, it's hot
+            while(protect.size() > maxProtected) {
+               Map.Entry<Key, ByteBuffer> eldest = protect.entrySet().iterator().next();
+               protect.remove(eldest.getKey());
+               probation.put(eldest.getKey(), eldest.getValue());   // back on probation, not evicted yet
+            }
+         }
+         if(chunk == null) {
+            return -1;
+         }
+         if(newUse) {
+            hits.increment();
+         }
+         int from = (int)(pos % CHUNK);
+         int n = Math.min(dst.remaining(), chunk.limit() - from);
+         if(n > 0) {
+            dst.put(dst.position(), chunk, from, n);   // direct to direct, the bytes never touch the heap
+            dst.position(dst.position() + n);
+         }
+         return Math.max(n, 0);
+      }
+      finally {
+         lock.unlock();
+      }
+   } //copy()
+
+   /** load() method
+    *
+    * Reads the chunk holding pos from the file and caches it. The read happens outside the lock.
+    * If another session is reading the same chunk already, this one waits for it instead of reading it too
+    * @param file the file and version, from open()
+    * @param pos any position in the chunk
+    */
+   public void load(FileVersion file, long pos) throws IOException {
+      Key key = new Key(file, pos / CHUNK);
+      CountDownLatch inFlight;
+      lock.lock();
+      try {
+         if(protect.containsKey(key) || probation.containsKey(key)) {
+            return;
+         }
+         inFlight = loading.get(key);
+         if(inFlight == null) {
+            loading.put(key, new CountDownLatch(1));
+         }
+      }
+      finally {
+         lock.unlock();
+      }
+
+      if(inFlight != null) {
+         shared.increment();
+         awaitLoad(inFlight);
+         return;
+      }
+      try {
+         read(key);
+      }
+      finally {
+         lock.lock();
+         try {
+            loading.remove(key).countDown();
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+   } //load()
+
+   /** getHits() method
+    *
+    * @return chunk uses that found the chunk cached
+    */
+   public long getHits() {
+      return hits.sum();
+   }
+
+   /** getMisses() method
+    *
+    * @return chunk uses that had to go to the file
+    */
+   public long getMisses() {
+      return misses.sum();
+   }
+
+   /** getEvictions() method
+    *
+    * @return chunks dropped to make room
+    */
+   public long getEvictions() {
+      return evictions.sum();
+   }
+
+   /** getShared() method
+    *
+    * @return misses that waited for another session's read instead of reading the chunk again
+    */
+   public long getShared() {
+      return shared.sum();
+   }
+
+   /** getUsed() method
+    *
+    * @return bytes of direct memory the cache holds, used or free
+    */
+   public long getUsed() {
+      lock.lock();
+      try {
+         return (long)allocated * CHUNK;
+      }
+      finally {
+         lock.unlock();
+      }
+   }
+
+   /** toString() method
+    *
+    * @return one line of stats for the log
+    */
+   public String toString() {
+      return "BlockCache: " + getUsed() / 1024 + "K of " + (long)maxChunks * CHUNK / 1024 + "K, " + getHits() + " hits, " + getMisses() + " misses ("
+         + getShared() + " shared a read), " + getEvictions() + " evictions";
+   }
+
+   /**
+   * read()
+   * reads one chunk from the disk into a buffer from take() and caches it.
+   * If the file changed since it was opened, what was read is not cached
+   */
+   private void read(Key key) throws IOException {
+      ByteBuffer chunk = take();
+      if(chunk == null) {
+         return;
+      }
+      boolean cached = false;
+      try {
+         long start = key.chunkNo * CHUNK;
+         FileChannel channel = key.file.channel();
+         chunk.clear().limit((int)Math.min(CHUNK, key.file.size - start));
+         while(chunk.hasRemaining()) {
+            if(channel.read(chunk, start + chunk.position()) < 0) {
+               break; //the file got shorter
+            }
+         }
+         if(chunk.hasRemaining() || !key.file.isCurrent()) {
+            return;
+         }
+         chunk.flip();
+         lock.lock();
+         try {
+            probation.put(key, chunk);
+            cached = true;
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+      finally {
+         if(!cached) {
+            give(chunk);
+         }
+      }
+   } //read()
+
+   /**
+   * awaitLoad()
+   * waits for another session's read of a chunk, it is one disk read at most
+   */
+   private void awaitLoad(CountDownLatch inFlight) {
+      boolean interrupted = false;
+      while(true) {
+         try {
+            inFlight.await();
+            break;
+         }
+         catch(InterruptedException ie) {
+            interrupted = true;
+         }
+      }
+      if(interrupted) {
+         Thread.currentThread().interrupt();
+      }
+   } //awaitLoad()
+
+   /**
+   * take()
+   * a chunk buffer to read into: a free one, a new one while under the cap, or the least valuable cached one
+   * @return the buffer, or null if the cache is off
+   */
+   private ByteBuffer take() {
+      lock.lock();
+      try {
+         if(!free.isEmpty()) {
+            return free.pop();
+         }
+         if(allocated < maxChunks) {
+            allocated++;
+            return ByteBuffer.allocateDirect(CHUNK);
+         }
+         LinkedHashMap<Key, ByteBuffer> from = !probation.isEmpty() ? probation : protect;
+         if(from.isEmpty()) {
+            return null;   // every chunk is being loaded right now
+         }
+         Iterator<ByteBuffer> eldest = from.values().iterator();
+         ByteBuffer chunk = eldest.next();
+         eldest.remove();
+         evictions.increment();
+         return chunk;
+      }
+      finally {
+         lock.unlock();
+      }
+   } //take()
+
+   /**
+   * give()
+   * puts a chunk buffer that didn't get cached back on the free list
+   */
+   private void give(ByteBuffer chunk) {
+      lock.lock();
+      try {
+         free.push(chunk);
+      }
+      finally {
+         lock.unlock();
+      }
+   } //give()
+
+   /**
+   * FileVersion
+   * INNER CLASS
+   * one version of a file: its canonical path, modification time and size when it was opened.
+   * The readers of a version share its channel, FileChannel's positional reads are thread safe
+   */
+   static class FileVersion {
+      private File file;
+      private String path;
+      private long modified;
+      private long size;
+      private int readers = 0;             // guarded by the cache's lock
+      private FileChannel channel = null;
+
+      /**
+       * Parameterized constructor for FileVersion
+       * @param _file the file
+       * @throws FileNotFoundException if it isn't a file or can't be read
+       */
+      public FileVersion(File _file) throws IOException {
+         file = _file;
+         if(!file.isFile() || !file.canRead()) {
+            throw new FileNotFoundException(file + (file.exists() ? " (Permission denied)" : " (No such file or directory)"));
+         }
+         path = file.getCanonicalPath();
+         modified = file.lastModified();
+         size = file.length();
+      }
+
+      /** getSize() method
+       *
+       * @return the size of the file when it was opened
+       */
+      public long getSize() {
+         return size;
+      }
+
+      /** isCurrent() method
+       *
+       * @return false if the file was changed since
+       */
+      public boolean isCurrent() {
+         return file.lastModified() == modified && file.length() == size;
+      }
+
+      /** channel() method
+       *
+       * @return the file's channel, opened by the first reader that needs it
+       */
+      public synchronized FileChannel channel() throws IOException {
+         if(channel == null) {
+            channel = new FileInputStream(file).getChannel();
+         }
+         return channel;
+      }
+
+      /**
+      * closeChannel()
+      * the last reader is gone
+      */
+      private synchronized void closeChannel() throws IOException {
+         if(channel != null) {
+            channel.close();
+            channel = null;
+         }
+      }
+
+      public boolean equals(Object o) {
+         if(!(o instanceof FileVersion)) {
+            return false;
+         }
+         FileVersion v = (FileVersion)o;
+         return modified == v.modified && size == v.size && path.equals(v.path);
+      }
+
+      public int hashCode() {
+         return path.hashCode() * 31 + Long.hashCode(modified ^ size);
+      }
+   } //FileVersion
+
+   /**
+   * Key
+   * INNER CLASS
+   * one chunk of one version of a file
+   */
+   private static class Key {
+      private FileVersion file;
+      private long chunkNo;
+
+      public Key(FileVersion _file, long _chunkNo) {
+         file = _file;
+         chunkNo = _chunkNo;
+      }
+
+      public boolean equals(Object o) {
+         if(!(o instanceof Key)) {
+            return false;
+         }
+         Key k = (Key)o;
+         return chunkNo == k.chunkNo && file.equals(k.file);
+      }
+
+      public int hashCode() {
+         return file.hashCode() * 31 + Long.hashCode(chunkNo);
+      }
+   } //Key
+
+} //class BlockCache
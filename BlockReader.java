@@ -0,0 +1,154 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * BlockReader - Reads a file one TFTP block at a time, by position, straight into a packet buffer.
+ * A block is one positional FileChannel read (usually one syscall), not a readByte() per byte,
+ * and going back to an earlier block for a retransmit needs no seek.
+ * Files of at least -Dtftp.mmap=N bytes (JVM option, 0 = never, the default) are memory-mapped
+ * instead, then a block is a copy out of the page cache with no syscall at all. That suits big
+ * read-only images that many clients download. A mapped file is a snapshot of its size at open.
+ * A reader given a BlockCache (the server's) copies blocks out of the cache, and shares one open
+ * file and every read from the disk with the other readers of the same file (see BlockCache).
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class BlockReader implements Closeable {
+   // Files this big or bigger are mapped, 0 = never
+   static final long MMAP_THRESHOLD = Long.getLong("tftp.mmap", 0);
+
+   // Attributes
+   private File file;
+   private FileChannel channel = null;          // this reader's own, when there is no cache
+   private MappedByteBuffer map = null;
+   private BlockCache cache = null;
+   private BlockCache.FileVersion version = null;   // shared with the other readers of the file, through the cache
+   private long lastChunk = -1;                 // the cache chunk the last block came from
+
+   /**
+    * Parameterized constructor for BlockReader, maps the file if it is past MMAP_THRESHOLD
+    * @param file the file to read
+    * @throws FileNotFoundException if it isn't there or can't be read
+    */
+   public BlockReader(File file) throws IOException {
+      this(file, MMAP_THRESHOLD > 0 && file.length() >= MMAP_THRESHOLD);
+   }
+
+   /**
+    * Parameterized constructor for BlockReader, maps the file if it is past MMAP_THRESHOLD, else reads through the cache
+    * @param _file the file to read
+    * @param _cache the cache to read through, if it is enabled
+    * @throws FileNotFoundException if it isn't there or can't be read
+    */
+   public BlockReader(File _file, BlockCache _cache) throws IOException {
+      file = _file;
+      boolean mapped = MMAP_THRESHOLD > 0 && file.length() >= MMAP_THRESHOLD;
+      if(mapped || !_cache.isEnabled()) {
+         open(mapped);
+      }
+      else {
+         cache = _cache;
+         version = cache.open(file);
+      }
+   } //constructor
+
+   /**
+    * Parameterized constructor for BlockReader
+    * @param _file the file to read
+    * @param mapped true to memory-map it. Files of 2GB or more can't be mapped in one piece and are read instead
+    * @throws FileNotFoundException if it isn't there or can't be read
+    */
+   public BlockReader(File _file, boolean mapped) throws IOException {
+      file = _file;
+      open(mapped);
+   } //constructor
+
+   /** read() method
+    *
+    * Reads up to len bytes from pos in the file into dst at off. Leaves dst's position and limit
+    * moved, the packet is encoded around the bytes afterwards anyway
+    * @param pos where in the file the block starts
+    * @param dst the packet buffer
+    * @param off where in dst the block goes, 4 to leave room for a DATA header
+    * @param len the block size
+    * @return how many bytes were read, less than len only at the end of the file
+    */
+   public int read(long pos, ByteBuffer dst, int off, int len) throws IOException {
+      dst.limit(off + len).position(off); // the last packet sent from dst may have left a short limit
+      if(map != null) {
+         int n = (int)Math.max(0, Math.min(len, map.capacity() - pos));
+         if(n > 0) {
+            dst.put(off, map, (int)pos, n);
+         }
+         return n;
+      }
+
+      while(cache != null && dst.hasRemaining()) {
+         long at = pos + dst.position() - off;
+         if(at >= version.getSize()) {
+            return dst.position() - off; //end of file
+         }
+         boolean newUse = at / BlockCache.CHUNK != lastChunk;
+         lastChunk = at / BlockCache.CHUNK;
+         if(cache.copy(version, at, dst, newUse) < 0) {
+            cache.load(version, at);
+            if(cache.copy(version, at, dst, false) < 0) {
+               break; //no room in the cache right now, read it from the file
+            }
+         }
+      }
+
+      while(dst.hasRemaining()) {
+         if(channel().read(dst, pos + dst.position() - off) < 0) {
+            break; //end of file
+         }
+      }
+      return dst.position() - off;
+   } //read()
+
+   /** isMapped() method
+    *
+    * @return true if the file is memory-mapped
+    */
+   public boolean isMapped() {
+      return map != null;
+   }
+
+   /** close() method
+    *
+    * Closes the channel, or lets go of the shared file. A mapping stays valid until it is garbage collected
+    */
+   public void close() throws IOException {
+      map = null;
+      if(channel != null) {
+         channel.close();
+      }
+      if(version != null) {
+         cache.release(version);
+         version = null;
+      }
+   }
+
+   /**
+   * open()
+   * opens the file, and maps it if asked to
+   */
+   private void open(boolean mapped) throws IOException {
+      channel = new FileInputStream(file).getChannel();
+      long size = channel.size();
+      if(mapped && size > 0 && size <= Integer.MAX_VALUE) {
+         map = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+   } //open()
+
+   /**
+   * channel()
+   * @return the channel to read from, the shared one if this reader goes through the cache
+   */
+   private FileChannel channel() throws IOException {
+      return version != null ? version.channel() : channel;
+   } //channel()
+
+} //class BlockReader
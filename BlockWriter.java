@@ -0,0 +1,237 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * BlockWriter - Writes a file one TFTP block at a time, each block at its own position, (blockNo-1) * blksize.
+ * Writing a block that came again only writes the same bytes over themselves, and a block can land
+ * before the ones ahead of it. Blocks that follow on from each other are gathered write-behind in one
+ * buffer of -Dtftp.writebuf=N bytes (JVM option, 64K by default, 0 writes every block straight through)
+ * and go to the file in one positional write when it is full, when a block lands somewhere else, or at the end.
+ * A writer for one range of a file (a segment of a parallel download) puts block 1 at the range's offset,
+ * leaves the rest of the file alone, and doesn't cut it at the end, the other segments are written alongside.
+ * -Dtftp.sync (JVM option) says when the file is forced to disk:
+ *    none   - never, the OS writes it when it likes (the default)
+ *    close  - once at the end, before the transfer is acknowledged as done
+ *    always - every block is written through and forced, slow but an ACKed block is on disk
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class BlockWriter implements Closeable {
+   // Sync policies
+   static final int SYNC_NONE = 0;
+   static final int SYNC_CLOSE = 1;
+   static final int SYNC_ALWAYS = 2;
+
+   // Defaults from the JVM options
+   static final int WRITE_BUFFER = Integer.getInteger("tftp.writebuf", 64 * 1024);
+   static final int SYNC = parseSync(System.getProperty("tftp.sync", "none"));
+
+   // Attributes
+   private FileChannel channel;
+   private int blksize;
+   private long offset = 0;             // where block 1 goes in the file
+   private boolean segment = false;     // one range of the file, the file isn't emptied or cut
+   private int sync;
+   private ByteBuffer pending = null;   // the blocks not written yet, they follow on from each other
+   private long pendingPos = 0;         // where in the file pending starts
+   private long end = 0;                // one past the last byte of any block written so far
+
+   /**
+    * Parameterized constructor for BlockWriter, with -Dtftp.writebuf and -Dtftp.sync
+    * @param file the file to write, emptied if it is there
+    * @param _blksize the block size of the transfer
+    * @throws FileNotFoundException if it can't be created
+    */
+   public BlockWriter(File file, int _blksize) throws IOException {
+      this(file, _blksize, WRITE_BUFFER, SYNC);
+   }
+
+   /**
+    * Parameterized constructor for BlockWriter
+    * @param file the file to write, emptied if it is there
+    * @param _blksize the block size of the transfer
+    * @param bufferSize bytes gathered before a write, less than one block writes every block straight through
+    * @param _sync SYNC_NONE, SYNC_CLOSE or SYNC_ALWAYS
+    * @throws FileNotFoundException if it can't be created
+    */
+   public BlockWriter(File file, int _blksize, int bufferSize, int _sync) throws IOException {
+      channel = new FileOutputStream(file, false).getChannel();
+      blksize = _blksize;
+      sync = _sync;
+      if(bufferSize >= blksize && sync != SYNC_ALWAYS) {   // with always, a block is on disk before it is ACKed
+         pending = ByteBuffer.allocateDirect(bufferSize);
+      }
+   } //constructor
+
+   /**
+    * Parameterized constructor for BlockWriter, for one range of a file, with -Dtftp.writebuf and -Dtftp.sync
+    * @param file the file to write, made if it isn't there, what is in it already stays
+    * @param _blksize the block size of the transfer
+    * @param _offset where in the file block 1 goes
+    * @throws FileNotFoundException if it can't be opened
+    */
+   public BlockWriter(File file, int _blksize, long _offset) throws IOException {
+      channel = new RandomAccessFile(file, "rw").getChannel();
+      blksize = _blksize;
+      sync = SYNC;
+      offset = _offset;
+      segment = true;
+      if(WRITE_BUFFER >= blksize && sync != SYNC_ALWAYS) {
+         pending = ByteBuffer.allocateDirect(WRITE_BUFFER);
+      }
+   } //constructor
+
+   /** setBlockSize() method
+    *
+    * The block size can change until the first block is written, a client only learns it from the OACK
+    * @param _blksize the negotiated block size
+    */
+   public void setBlockSize(int _blksize) {
+      blksize = _blksize;
+      if(pending != null && pending.capacity() < blksize) {
+         pending = ByteBuffer.allocateDirect(blksize);
+      }
+   }
+
+   /** preallocate() method
+    *
+    * Sets the file's length to its full size now. The blocks write over it, and finish() trims off whatever
+    * the sender didn't send. On most file systems this makes a sparse file and doesn't hold the disk space,
+    * so a disk that fills up part way still fails the write (the server counts what it promised uploads, see TFTPSession)
+    * @param size the size the other end said the file is (tsize)
+    */
+   public void preallocate(long size) throws IOException {
+      if(size > 0) {
+         channel.write(ByteBuffer.allocate(1), size - 1);
+      }
+   }
+
+   /** write() method
+    *
+    * @param blockNo which block of the file, counted from 1 and past 65535
+    * @param src the packet it came in
+    * @param off where the block starts in src
+    * @param len the length of the block, less than the block size only for the last one
+    */
+   public void write(long blockNo, byte[] src, int off, int len) throws IOException {
+      writeAt(offset + (blockNo - 1) * blksize, src, off, len);
+   }
+
+   /** writeAt() method
+    *
+    * @param pos where in the file the bytes go, for bytes that don't come in blocks (an InflateWriter's)
+    * @param src where they are
+    * @param off where they start in src
+    * @param len how many
+    */
+   public void writeAt(long pos, byte[] src, int off, int len) throws IOException {
+      end = Math.max(end, pos + len);
+      if(pending == null) {
+         writeFully(ByteBuffer.wrap(src, off, len), pos);
+         return;
+      }
+      if(len > pending.capacity()) {
+         flush();
+         writeFully(ByteBuffer.wrap(src, off, len), pos);   // too big to gather
+         pendingPos = pos + len;
+         return;
+      }
+
+      long pendingEnd = pendingPos + pending.position();
+      if(pos >= pendingPos && pos + len <= pendingEnd) {
+         pending.put((int)(pos - pendingPos), src, off, len);   // came again while still in the buffer
+         return;
+      }
+      if(pos != pendingEnd || len > pending.remaining()) {
+         flush();
+         pendingPos = pos;
+      }
+      pending.put(src, off, len);
+   } //writeAt()
+
+   /** flush() method
+    *
+    * Writes the gathered blocks to the file
+    */
+   public void flush() throws IOException {
+      if(pending == null || pending.position() == 0) {
+         return;
+      }
+      pending.flip();
+      writeFully(pending, pendingPos);
+      pendingPos += pending.limit();
+      pending.clear();
+   } //flush()
+
+   /** finish() method
+    *
+    * The last block is in: writes what is left, cuts the file to the bytes the sender sent
+    * (the preallocated rest goes, unless this is one range of the file), forces it to disk if the sync policy says so, and closes it
+    */
+   public void finish() throws IOException {
+      try {
+         flush();
+         if(!segment) {
+            channel.truncate(end);
+         }
+         if(sync != SYNC_NONE) {
+            channel.force(false);
+         }
+      }
+      finally {
+         channel.close();
+      }
+   } //finish()
+
+   /** close() method
+    *
+    * Stops a transfer part way: keeps only the blocks that came, without the preallocated rest
+    */
+   public void close() throws IOException {
+      if(!channel.isOpen()) {
+         return;
+      }
+      finish();
+   }
+
+   /** getSize() method
+    *
+    * @return one past the last byte of any block written so far
+    */
+   public long getSize() {
+      return end;
+   }
+
+   /**
+   * writeFully()
+   * one positional write, looped in case the OS takes less than all of it
+   */
+   private void writeFully(ByteBuffer buf, long pos) throws IOException {
+      long at = pos;
+      while(buf.hasRemaining()) {
+         at += channel.write(buf, at);
+      }
+      if(sync == SYNC_ALWAYS) {
+         channel.force(false);
+      }
+   } //writeFully()
+
+   /**
+   * parseSync()
+   * @param policy none, close or always
+   * @return the SYNC_ constant, SYNC_NONE for anything else
+   */
+   static int parseSync(String policy) {
+      switch(policy.trim().toLowerCase()) {
+         case "close":
+            return SYNC_CLOSE;
+         case "always":
+            return SYNC_ALWAYS;
+         default:
+            return SYNC_NONE;
+      }
+   } //parseSync()
+
+} //class BlockWriter
@@ -0,0 +1,236 @@
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * BufferPool - Shared pool of receive packets (a DatagramPacket and its byte[]) for the receive loops.
+ * The pool is striped: a thread borrows from and returns to the stripe picked by its thread id and
+ * only looks at other stripes when its own is empty, so threads rarely touch the same lock.
+ * Striped and not thread-local on purpose - virtual-thread sessions are short lived and would
+ * strand whatever a thread-local cache held.
+ * There are two sizes: shared() for requests and 512 byte blocks, and a jumbo pool for sessions
+ * that negotiated a big blksize. forSize() picks the right one.
+ * Run with -Dtftp.pool.debug=true to remember where every outstanding packet was borrowed,
+ * catch double releases, and list leaks with reportLeaks().
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class BufferPool implements TFTPConstants {
+   private static final boolean DEBUG = Boolean.getBoolean("tftp.pool.debug");   // must be set before SHARED is made
+
+   // The pool every receive loop uses
+   private static final BufferPool SHARED = new BufferPool(MAX_PACKET, 64);
+   // Packets big enough for any block size, only a few are kept idle since each one is 64K
+   private static final BufferPool JUMBO = new BufferPool(MAX_DATAGRAM, 4);
+
+   // Attributes
+   private int bufferSize;
+   private Stripe[] stripes;
+
+   // Stats
+   private AtomicInteger outstanding = new AtomicInteger();
+   private AtomicInteger highWater = new AtomicInteger();
+   private AtomicLong allocated = new AtomicLong();
+   private Map<DatagramPacket, Throwable> borrowedAt = null;   // debug mode only
+
+   /**
+    * Parameterized constructor for BufferPool
+    * @param _bufferSize how big each packet's byte[] is
+    * @param _perStripe how many idle packets each stripe keeps
+    */
+   public BufferPool(int _bufferSize, int _perStripe) {
+      bufferSize = _bufferSize;
+      int n = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1) * 2; // power of 2, >= 2x cores
+      stripes = new Stripe[n];
+      for(int i = 0; i < n; i++) {
+         stripes[i] = new Stripe(_perStripe);
+      }
+      if(DEBUG) {
+         borrowedAt = Collections.synchronizedMap(new IdentityHashMap<DatagramPacket, Throwable>());
+      }
+   }
+
+   /** shared() method
+    *
+    * @return the pool of MAX_PACKET sized packets shared by the server and the client
+    */
+   public static BufferPool shared() {
+      return SHARED;
+   }
+
+   /** forSize() method
+    *
+    * @param packetSize the biggest packet the caller will receive (block size + 4)
+    * @return shared() if its packets are big enough, else the jumbo pool
+    */
+   public static BufferPool forSize(int packetSize) {
+      return packetSize <= MAX_PACKET ? SHARED : JUMBO;
+   }
+
+   /** getBufferSize() method
+    *
+    * @return how big each packet's byte[] is
+    */
+   public int getBufferSize() {
+      return bufferSize;
+   }
+
+   /** acquire() method
+    *
+    * Borrows a packet, reset to the full buffer length. Give it back with release().
+    * @return a packet ready for receive()
+    */
+   public DatagramPacket acquire() {
+      int home = stripeIndex();
+      DatagramPacket pkt = null;
+      for(int i = 0; i < stripes.length && pkt == null; i++) {
+         pkt = stripes[(home + i) & (stripes.length - 1)].pop();
+      }
+      if(pkt == null) {
+         pkt = new DatagramPacket(new byte[bufferSize], bufferSize);
+         allocated.incrementAndGet();
+      }
+      else {
+         pkt.setData(pkt.getData(), 0, bufferSize);
+      }
+
+      int now = outstanding.incrementAndGet();
+      highWater.accumulateAndGet(now, Math::max);
+      if(DEBUG) {
+         borrowedAt.put(pkt, new Throwable("borrowed by " + Thread.currentThread()));
+      }
+      return pkt;
+   } //acquire()
+
+   /** release() method
+    *
+    * Gives a packet back. The caller must not touch it afterwards.
+    * @param pkt a packet from acquire(), null is ignored
+    */
+   public void release(DatagramPacket pkt) {
+      if(pkt == null) {
+         return;
+      }
+      if(DEBUG && borrowedAt.remove(pkt) == null) {
+         throw new IllegalStateException("BufferPool: packet released twice or not from this pool");
+      }
+      outstanding.decrementAndGet();
+      if(pkt.getData().length != bufferSize) {
+         return;
+      }
+      stripes[stripeIndex()].push(pkt); // if the stripe is full the packet is left for the GC
+   } //release()
+
+   /** getOutstanding() method
+    *
+    * @return packets borrowed and not given back yet
+    */
+   public int getOutstanding() {
+      return outstanding.get();
+   }
+
+   /** getHighWater() method
+    *
+    * @return the most packets that were ever out at once
+    */
+   public int getHighWater() {
+      return highWater.get();
+   }
+
+   /** getAllocated() method
+    *
+    * @return how many packets the pool has had to create
+    */
+   public long getAllocated() {
+      return allocated.get();
+   }
+
+   /** reportLeaks() method
+    *
+    * Debug mode: logs where every outstanding packet was borrowed
+    * @param logger where the report goes
+    */
+   public void reportLeaks(Consumer<String> logger) {
+      if(!DEBUG) {
+         logger.accept("BufferPool: " + getOutstanding() + " outstanding (run with -Dtftp.pool.debug=true to see where)\n");
+         return;
+      }
+      List<Throwable> sites;
+      synchronized(borrowedAt) {
+         sites = new ArrayList<Throwable>(borrowedAt.values());
+      }
+      for(Throwable t : sites) {
+         StringBuilder sb = new StringBuilder("BufferPool leak? ").append(t.getMessage()).append("\n");
+         for(StackTraceElement e : t.getStackTrace()) {
+            sb.append("     at ").append(e).append("\n");
+         }
+         logger.accept(sb.toString());
+      }
+   } //reportLeaks()
+
+   /** toString() method
+    *
+    * @return one line of stats for the log
+    */
+   public String toString() {
+      return "BufferPool(" + bufferSize + "): " + getOutstanding() + " outstanding, high water " + getHighWater() + ", " + getAllocated() + " allocated";
+   }
+
+   /**
+   * stripeIndex()
+   * @return the stripe the current thread uses
+   */
+   private int stripeIndex() {
+      long id = Thread.currentThread().threadId();
+      return (int)(id ^ (id >>> 16)) & (stripes.length - 1);
+   }
+
+   /**
+   * Stripe
+   * INNER CLASS
+   * a small stack of idle packets behind its own lock
+   */
+   private static class Stripe {
+      private ReentrantLock lock = new ReentrantLock();
+      private DatagramPacket[] stack;
+      private int count = 0;
+
+      Stripe(int capacity) {
+         stack = new DatagramPacket[capacity];
+      }
+
+      DatagramPacket pop() {
+         if(count == 0) {
+            return null; // racy peek, saves taking the lock on an empty stripe
+         }
+         lock.lock();
+         try {
+            if(count == 0) {
+               return null;
+            }
+            DatagramPacket pkt = stack[--count];
+            stack[count] = null;
+            return pkt;
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+
+      void push(DatagramPacket pkt) {
+         lock.lock();
+         try {
+            if(count < stack.length) {
+               stack[count++] = pkt;
+            }
+         }
+         finally {
+            lock.unlock();
+         }
+      }
+   } //Stripe
+
+} //class BufferPool
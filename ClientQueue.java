@@ -0,0 +1,445 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * ClientQueue - Uploads and downloads waiting their turn, at most N of them running at once.
+ * Every transfer is its own ClientThread, with its own socket and its own file, run on one of the
+ * queue's threads, so pushing one image to 50 devices is 50 add()s. The rest wait in the order they
+ * were added. The limit can change while the queue runs, setConcurrency() takes effect as slots free up.
+ * A batch is everything added from when the queue was idle until it is idle again. Its bytes, MB/s and
+ * progress are summed over all of its transfers, and each Transfer has its own.
+ * Nothing in here touches JavaFX, the Listener hears about transfers on the queue's threads.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class ClientQueue {
+
+   /**
+   * Listener
+   * Told when a transfer starts and ends, and when the last one of a batch is done.
+   * Called on the queue's threads, never more than one call at a time for the same transfer.
+   */
+   interface Listener {
+      default void started(Transfer t) {
+      }
+      default void finished(Transfer t) {
+      }
+      default void drained(ClientQueue q) {
+      }
+   }
+
+   /**
+   * Transfer
+   * One upload or download in the queue, with how far it got and how fast it went
+   */
+   class Transfer implements ClientThread.Progress {
+      private String cmd;           // "Upload" or "Download"
+      private String server;
+      private int port;
+      private String remote;        // the name on the server
+      private File local;
+      private int blksize, windowsize;
+      private boolean multicast;    // a download with the multicast option
+      private int segments;         // a download in this many ranges at once
+      private boolean compress;     // asks for the compress option
+      private volatile long done = 0;      // bytes so far
+      private volatile long total = 0;     // the file's size, 0 until it is known
+      private volatile long startNanos = 0, endNanos = 0;
+      private volatile boolean finished = false, complete = false;
+
+      private Transfer(String _cmd, String _server, int _port, String _remote, File _local, int _blksize, int _windowsize) {
+         cmd = _cmd;
+         server = _server;
+         port = _port;
+         remote = _remote;
+         local = _local;
+         blksize = _blksize;
+         windowsize = _windowsize;
+         multicast = ClientQueue.this.multicast;
+         segments = ClientQueue.this.segments;
+         compress = ClientQueue.this.compress;
+      }
+
+      /** show() method
+       *
+       * From the ClientThread, once per block: adds what changed to the batch's totals
+       * @param _done bytes so far
+       * @param _total the file's size
+       */
+      public void show(long _done, long _total) {
+         if(_total != total) {
+            batchTotal.add(_total - total);
+            total = _total;
+         }
+         batchDone.add(_done - done);
+         done = _done;
+         if(progress != null) {
+            progress.show(batchDone.sum(), batchTotal.sum());
+         }
+      }
+
+      /**
+      * run()
+      * runs the ClientThread here, on the queue's thread
+      */
+      private void run() {
+         startNanos = System.nanoTime();
+         batchStarted(startNanos);
+         listener.started(this);
+         ClientThread ct = new ClientThread(cmd, server, port, remote, local, blksize, windowsize, logger, this);
+         ct.setMulticast(multicast);
+         ct.setSegments(segments);
+         ct.setCompress(compress);
+         try {
+            ct.run();
+         }
+         finally {
+            complete = ct.isComplete();
+            show(ct.getBytes(), complete ? ct.getBytes() : total);
+            endNanos = System.nanoTime();
+            finished = true;
+            listener.finished(this);
+            transferEnded(this);
+         }
+      } //run()
+
+      /** isUpload() method
+       *
+       * @return true for an upload, false for a download
+       */
+      public boolean isUpload() {
+         return cmd.equals("Upload");
+      }
+
+      /** getServer() method
+       *
+       * @return the server's name or IP, as it was given
+       */
+      public String getServer() {
+         return server;
+      }
+
+      /** getRemote() method
+       *
+       * @return the file's name on the server
+       */
+      public String getRemote() {
+         return remote;
+      }
+
+      /** getLocal() method
+       *
+       * @return the file uploaded, or where the download is saved
+       */
+      public File getLocal() {
+         return local;
+      }
+
+      /** isFinished() method
+       *
+       * @return true once the transfer has ended, completed or not
+       */
+      public boolean isFinished() {
+         return finished;
+      }
+
+      /** isComplete() method
+       *
+       * @return true if the whole file went through
+       */
+      public boolean isComplete() {
+         return complete;
+      }
+
+      /** getBytes() method
+       *
+       * @return bytes sent or received so far
+       */
+      public long getBytes() {
+         return done;
+      }
+
+      /** getSeconds() method
+       *
+       * @return how long it ran, or has been running, 0 if it hasn't started
+       */
+      public double getSeconds() {
+         if(startNanos == 0) {
+            return 0;
+         }
+         return ((finished ? endNanos : System.nanoTime()) - startNanos) / 1e9;
+      }
+
+      /** getMBPerSec() method
+       *
+       * @return its throughput in MB/s
+       */
+      public double getMBPerSec() {
+         return mbPerSec(done, getSeconds());
+      }
+
+      /** toString() method
+       *
+       * @return one line for the log: what, where, bytes, seconds, MB/s and how it ended
+       */
+      public String toString() {
+         return String.format("%s %s %s %s %s  %d bytes  %.3f s  %.2f MB/s  %s", isUpload() ? "put" : "get", isUpload() ? local.getPath() : remote,
+            isUpload() ? "->" : "<-", isUpload() ? remote : local.getPath(), server.equals("") ? "" : "(" + server + ")",
+            done, getSeconds(), getMBPerSec(), !finished ? "running" : complete ? "ok" : "FAILED");
+      }
+   } //class Transfer
+
+   // Attributes
+   private ThreadPoolExecutor executor;
+   private Consumer<String> logger;
+   private Listener listener;
+   private ClientThread.Progress progress;   // the batch's bytes so far out of its known total, may be null
+   private volatile boolean multicast = false;   // downloads added ask for the multicast option
+   private volatile int segments = 1;            // downloads added get their file in this many ranges at once
+   private volatile boolean compress = false;    // transfers added ask for the compress option
+
+   // The batch
+   private int pending = 0;                  // added and not finished
+   private int finished = 0, failed = 0;
+   private long batchStart = 0, batchEnd = 0;
+   private LongAdder batchDone = new LongAdder();
+   private LongAdder batchTotal = new LongAdder();
+
+   /**
+    * Parameterized constructor for ClientQueue
+    * @param concurrency how many transfers run at once
+    * @param _logger the transfers' log
+    * @param _listener hears when transfers start and end
+    * @param _progress told the batch's bytes done out of its total, once per block of any transfer, or null
+    */
+   public ClientQueue(int concurrency, Consumer<String> _logger, Listener _listener, ClientThread.Progress _progress) {
+      logger = _logger;
+      listener = _listener;
+      progress = _progress;
+      executor = new ThreadPoolExecutor(concurrency, concurrency, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+         new ThreadFactory() {
+            private AtomicInteger n = new AtomicInteger();
+            public Thread newThread(Runnable r) {
+               Thread t = new Thread(r, "tftp-client-" + n.incrementAndGet());
+               t.setDaemon(true);
+               return t;
+            }
+         });
+      executor.allowCoreThreadTimeOut(true);
+   }
+
+   /** add() method
+    *
+    * Queues an upload or download, it starts as soon as there is a free slot
+    * @param cmd "Upload" or "Download"
+    * @param server the server's name or IP, localhost if empty
+    * @param port the server's port, TFTP_PORT
+    * @param remote the file's name on the server
+    * @param local the file to upload, or where to save the download
+    * @param blksize the block size to ask for
+    * @param windowsize the window size to ask for
+    * @return the transfer, to follow how it goes
+    */
+   public Transfer add(String cmd, String server, int port, String remote, File local, int blksize, int windowsize) {
+      final Transfer t = new Transfer(cmd, server, port, remote, local, blksize, windowsize);
+      synchronized(this) {
+         if(pending == 0) {   // idle, so this starts a new batch
+            finished = 0;
+            failed = 0;
+            batchStart = 0;
+            batchEnd = 0;
+            batchDone.reset();
+            batchTotal.reset();
+         }
+         pending++;
+      }
+      executor.execute(
+         new Runnable() {
+            public void run() {
+               t.run();
+            }
+         });
+      return t;
+   }
+
+   /** setConcurrency() method
+    *
+    * @param concurrency how many transfers run at once from now on, at least 1
+    */
+   public synchronized void setConcurrency(int concurrency) {
+      concurrency = Math.max(1, concurrency);
+      if(concurrency > executor.getMaximumPoolSize()) {
+         executor.setMaximumPoolSize(concurrency);   // max can't go below core
+         executor.setCorePoolSize(concurrency);
+      }
+      else {
+         executor.setCorePoolSize(concurrency);
+         executor.setMaximumPoolSize(concurrency);
+      }
+   }
+
+   /** setMulticast() method
+    *
+    * @param _multicast true for downloads added from now on to ask for the multicast option (RFC 2090)
+    */
+   public void setMulticast(boolean _multicast) {
+      multicast = _multicast;
+   }
+
+   /** setSegments() method
+    *
+    * @param _segments how many ranges at once downloads added from now on get their file in, 1 for one RRQ.
+    *        A segmented download takes one slot of the queue, its segments run on threads of their own
+    */
+   public void setSegments(int _segments) {
+      segments = Math.max(1, _segments);
+   }
+
+   /** setCompress() method
+    *
+    * @param _compress true for transfers added from now on to ask for the blocks to go deflated (the compress option)
+    */
+   public void setCompress(boolean _compress) {
+      compress = _compress;
+   }
+
+   /** awaitIdle() method
+    *
+    * Waits until every transfer added so far has finished
+    */
+   public synchronized void awaitIdle() throws InterruptedException {
+      while(pending > 0) {
+         wait();
+      }
+   }
+
+   /** shutdown() method
+    *
+    * Takes no more transfers, the ones running or waiting still finish
+    */
+   public void shutdown() {
+      executor.shutdown();
+   }
+
+   /** isIdle() method
+    *
+    * @return true if nothing is running or waiting, the next add() starts a new batch
+    */
+   public synchronized boolean isIdle() {
+      return pending == 0;
+   }
+
+   /** getRunning() method
+    *
+    * @return transfers running right now
+    */
+   public int getRunning() {
+      return executor.getActiveCount();
+   }
+
+   /** getWaiting() method
+    *
+    * @return transfers waiting for a slot
+    */
+   public int getWaiting() {
+      return executor.getQueue().size();
+   }
+
+   /** getFinished() method
+    *
+    * @return transfers of this batch that have ended, completed or not
+    */
+   public synchronized int getFinished() {
+      return finished;
+   }
+
+   /** getFailed() method
+    *
+    * @return transfers of this batch that ended without the whole file
+    */
+   public synchronized int getFailed() {
+      return failed;
+   }
+
+   /** getBytes() method
+    *
+    * @return bytes this batch has sent and received
+    */
+   public long getBytes() {
+      return batchDone.sum();
+   }
+
+   /** getSeconds() method
+    *
+    * @return from the first transfer of this batch starting to the last one ending (or now)
+    */
+   public synchronized double getSeconds() {
+      if(batchStart == 0) {
+         return 0;
+      }
+      return ((pending == 0 ? batchEnd : System.nanoTime()) - batchStart) / 1e9;
+   }
+
+   /** getMBPerSec() method
+    *
+    * @return this batch's throughput in MB/s, all of its transfers together
+    */
+   public double getMBPerSec() {
+      return mbPerSec(getBytes(), getSeconds());
+   }
+
+   /** toString() method
+    *
+    * @return one line for the log: how the batch went, in total
+    */
+   public synchronized String toString() {
+      return String.format("%d transfers, %d ok, %d failed, %d bytes in %.3f s, %.2f MB/s",
+         finished + pending, finished - failed, failed, getBytes(), getSeconds(), getMBPerSec());
+   }
+
+   /**
+   * batchStarted()
+   * the first transfer of a batch to start starts its clock
+   */
+   private synchronized void batchStarted(long now) {
+      if(batchStart == 0) {
+         batchStart = now;
+      }
+   }
+
+   /**
+   * transferEnded()
+   * counts it, and tells the listener and awaitIdle() when it was the last one
+   */
+   private void transferEnded(Transfer t) {
+      boolean idle;
+      synchronized(this) {
+         finished++;
+         if(!t.isComplete()) {
+            failed++;
+         }
+         pending--;
+         idle = pending == 0;
+         if(idle) {
+            batchEnd = System.nanoTime();
+            notifyAll();
+         }
+      }
+      if(idle) {
+         listener.drained(this);
+      }
+   }
+
+   /**
+   * mbPerSec()
+   * @return bytes per seconds in MB/s, 0 for no time at all
+   */
+   private static double mbPerSec(long bytes, double seconds) {
+      return seconds > 0 ? bytes / 1048576.0 / seconds : 0;
+   }
+
+} //class ClientQueue
@@ -0,0 +1,1257 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * ClientThread - one upload or download against a TFTP server, on its own thread and its own socket.
+ * Nothing in here touches JavaFX: a ClientQueue runs them, N at a time, for TFTPClient (which shows
+ * the log and the progress) and for TFTPClientCLI (no window at all).
+ * isComplete() and getBytes() say how it went once the thread is done.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class ClientThread extends Thread implements TFTPConstants {
+
+   /**
+   * Progress
+   * Told how far the transfer is, once per block. On the transfer's thread, so a GUI has to hand it over.
+   */
+   interface Progress {
+      void show(long done, long total);
+   }
+
+   // Attributes
+   private String cmd;                     // "Upload" or "Download"
+   private String server;                  // name or IP, localhost if empty
+   private int serverPort;                 // where the request goes, TFTP_PORT unless testing
+   private String fileName;                // the file's name on the server
+   private File localFile;                 // upload: the file sent, download: where it is saved
+   private Consumer<String> logger;
+   private Progress progress;
+   private DatagramSocket socket = null;
+   private InetAddress serverIP = null;
+   private BlockReader reader = null;      // upload: the file, read a block at a time
+   private BlockWriter writer = null;      // download: the file, written a block at a time
+   private long fileSize = 0;              // upload: the file's length when it was opened
+   private long bytes = 0;                 // bytes sent or received so far
+   private volatile boolean complete = false;  // true once the whole file went through
+   private DatagramPacket incoming = null; // receive packet for the whole transfer, borrowed from the BufferPool
+   private BufferPool pool = null;
+   private TFTPMetrics.Transfer transfer = null;   // counts into TFTPMetrics.client(), for JMX
+   private int requestBlksize;             // the block size we ask the server for
+   private int blksize = DEFAULT_BLKSIZE;  // the one we got, 512 unless the server sends an OACK
+   private int requestWindowsize;          // the window size we ask the server for
+   private int windowsize = DEFAULT_WINDOWSIZE;  // the one we got, 1 unless the server sends an OACK
+   private ByteBuffer sendBuf = null;      // upload: one DATA packet, the file is read straight into it
+   private DatagramPacket dataPkt = null;  // upload: sends sendBuf
+   private ByteBuffer ackBuf = ByteBuffer.allocate(4);  // download: one ACK packet, encoded again for every ACK
+   private DatagramPacket ackPkt = null;   // download: sends ackBuf
+   private PacketView view = new PacketView();  // reads every packet that comes in where it is, without copying it
+   private long highestSent = 0;           // upload: the highest block sent so far, anything at or below it is a retransmit
+   private long tsize = -1;                // download: the file size from the OACK, -1 if the server didn't say
+   private RetransmitTimer timer = new RetransmitTimer();  // how long to wait for the server, learns its round trip time
+   private boolean multicast = false;      // download: ask to get the file with a multicast group (RFC 2090)
+   private int segments = 1;               // download: how many ranges of the file to get at once, each its own RRQ
+   private long rangeOffset = -1;          // download: the range this thread gets with the range option, -1 for the whole file
+   private long rangeLength = 0;
+   private boolean compress = false;       // ask for the compress option, unless the file's name says it is compressed already
+   private DeflateReader deflater = null;  // upload with compress: the file compressed, read by position like reader
+   private InflateWriter inflater = null;  // download with compress: inflates each block in order into writer
+   
+  /** 
+   * parameterized constructor for ClientThread 
+   * @param _cmd "Upload" or "Download"
+   * @param _server the server's name or IP, localhost if empty
+   * @param _serverPort the server's port, TFTP_PORT
+   * @param _fileName the file's name on the server
+   * @param _localFile upload: the file to send, download: where to save it
+   * @param _requestBlksize the block size to ask for, 512 sends a plain request
+   * @param _requestWindowsize the window size to ask for, 1 is lock-step
+   * @param _logger where the log goes
+   * @param _progress told how far the transfer is
+   */
+   public ClientThread(String _cmd, String _server, int _serverPort, String _fileName, File _localFile, int _requestBlksize, int _requestWindowsize, Consumer<String> _logger, Progress _progress) {
+      cmd = _cmd;
+      server = _server;
+      serverPort = _serverPort;
+      fileName = _fileName;
+      localFile = _localFile;
+      requestBlksize = _requestBlksize;
+      requestWindowsize = _requestWindowsize;
+      logger = _logger;
+      progress = _progress;
+   }
+   
+  /** 
+   * isComplete()
+   * @return true if the whole file was uploaded or downloaded
+   */
+   public boolean isComplete() {
+      return complete;
+   }
+   
+  /** 
+   * getBytes()
+   * @return the bytes sent or received, the file's size once it is complete
+   */
+   public long getBytes() {
+      return bytes;
+   }
+   
+  /** 
+   * setMulticast()
+   * @param _multicast true to ask for the download with the multicast option, before the thread starts
+   */
+   public void setMulticast(boolean _multicast) {
+      multicast = _multicast;
+   }
+   
+  /** 
+   * setSegments()
+   * @param _segments how many ranges of the file to download at once, 1 for one RRQ for all of it, before the thread starts
+   */
+   public void setSegments(int _segments) {
+      segments = _segments;
+   }
+   
+  /** 
+   * setRange()
+   * asks for only these bytes of the file with the range option, and writes them at their place in the local file
+   * @param offset where the range starts
+   * @param length how many bytes
+   */
+   public void setRange(long offset, long length) {
+      rangeOffset = offset;
+      rangeLength = length;
+   }
+   
+  /** 
+   * setCompress()
+   * @param _compress true to ask for the blocks to go deflated (the compress option), before the thread starts.
+   *        A file named .gz, .zip, .jpg and so on goes as it is
+   */
+   public void setCompress(boolean _compress) {
+      compress = _compress;
+   }
+   
+   public void run() {
+      pool = BufferPool.forSize(Math.max(requestBlksize, DEFAULT_BLKSIZE) + 4);
+      incoming = pool.acquire();
+      try {
+         if(cmd.equals("Upload")) {
+            doUpload();
+         }
+         else if(cmd.equals("Download") && multicast) {
+            doMulticastDownload();
+         }
+         else if(cmd.equals("Download") && segments > 1 && rangeOffset < 0) {
+            doSegmentedDownload();
+         }
+         else if(cmd.equals("Download")) {
+            doDownload();
+         }
+      }
+      finally {
+         pool.release(incoming);
+         incoming = null;
+         if(transfer != null) {
+            transfer.end();
+         }
+      }
+   } //run()
+
+  /** 
+   * log()
+   * @param message the message for the log, one line ending in \n
+   */
+   private void log(String message) {
+      log(TFTPLog.INFO, message);
+   } //log()
+
+  /** 
+   * log()
+   * @param msgLevel TFTPLog.ERROR for what went wrong, so -Dtftp.log=error still shows it
+   * @param message the message for the log, one line ending in \n
+   */
+   private void log(int msgLevel, String message) {
+      TFTPLog.logTo(logger, msgLevel, message);
+   } //log()
+   
+  /** 
+   * doConnect()
+   * opens this transfer's socket, the server is localhost if no name was given
+   * @return false if the server's name didn't resolve or there is no socket
+   */
+   private boolean doConnect() {
+      String ip = server;
+      //if the user does not put a IP in, default to localhost
+      if(ip == null || ip.equals("")) {
+         ip = "localhost";
+      }
+            
+      try {
+         serverIP = InetAddress.getByName(ip); //set the ip
+               
+         socket = new DatagramSocket(); //create a socket
+         socket.setSoTimeout(DEFAULT_TIMEOUT); //set a timeout
+         return true;
+      } //try
+      catch (Exception e) {
+         log(TFTPLog.ERROR, "Connection failed..." + e + "\n");
+         return false;
+      } // catch
+               
+   } //doConnect()
+   
+  /** 
+   * doDisconnect()
+   * closes this transfer's socket
+   */
+   private void doDisconnect() {
+      
+      try {
+         socket.close();
+         log("Disconnecting from the server...\n");
+      }
+      catch(Exception e) {
+         log(TFTPLog.ERROR, "ERROR: Exception has occurred..." + e);
+      }
+            
+      socket = null; //set the socket to null
+   } //doDisconnect()
+
+  /** 
+   * doUpload()
+   * uploads a file to the server using the TFTP protocol, windowsize blocks per ACK
+   */
+   public void doUpload() {
+   
+      // ATTRIBUTES:
+      int port = serverPort;  //the server's port for this transfer once it answers
+      long deadline = 0;
+      SendWindow window = new SendWindow(DEFAULT_WINDOWSIZE, -1); //block 0 is the WRQ until the server answers it
+      
+      try {
+         reader = new BlockReader(localFile);  //open the file
+         fileSize = localFile.length();
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "File Not Found..." + ioe + "\n");
+         return;
+      }
+         
+      try {
+         // Connect to server
+         if(!doConnect()) {
+            return;
+         }
+         transfer = TFTPMetrics.client().begin(System.nanoTime(), String.valueOf(serverIP));
+         transfer.request(WRQ, fileName);
+         
+         //LOOP START HERE
+         while(!window.isComplete()) {
+            boolean sent = window.hasNext();
+            while(window.hasNext()) {
+               long block = window.next();
+               if(block == 0) {
+                  //InetAddress _toAddress, int _port, String _fileName, String _mode, options
+                  WRQPacket wrqPkt = new WRQPacket(serverIP, serverPort, fileName, "octet", requestCompress(TFTPOptions.request(requestBlksize, requestWindowsize, fileSize))); //make a WRQPacket, tsize lets the server make room
+                  socket.send(wrqPkt.build()); //PACKET 1                                                                                          send it out
+               }
+               else {
+                  sendBlock(block, port, window);
+               }
+            } //while hasNext
+            if(sent) {
+               timer.sent();
+               deadline = System.nanoTime() + timer.getTimeout(); //the window has this long to get an ACK
+            }
+            
+            if(!receive(deadline)) { //PACKET 2                                  receive the packet, or time out
+               transfer.timeout();
+               if(timer.timedOut()) {
+                  log("Upload timed out waiting for ACK!\n");
+                  doDisconnect(); //disconnect from the server
+                  return;
+               }
+               log("Timed out, sending again from Blk#: " + (window.getLastAcked() + 1) + "\n");
+               window.rewind();
+               continue;
+            }
+               
+            if(readACKPacket(incoming, window)) {        // true if it confirmed something new (or is the OACK)
+               port = incoming.getPort(); //get the port
+               timer.progress();
+            }
+            else if(socket == null) {
+               return; //readACKPacket() got an ERROR and disconnected
+            }
+               
+         } //while !isComplete
+         complete = true;
+            
+      } //try
+      catch(FileNotFoundException fnfe) {
+         try {
+            log(TFTPLog.ERROR, "FileNotFoundException occurred in doRRQ() (2)... Sending error packet! - " + fnfe + "\n");
+            ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 1, fnfe.toString()); // build the error packet
+            socket.send(errorPkt.build());                                              // send the error packet
+            transfer.errorSent(errorPkt.getErrorNo());
+            log("ERROR sent to Server...\n");
+         }
+         catch(IOException ioe1) {
+            log(TFTPLog.ERROR, "IOException in doRRQ() (2): " + ioe1 + "\n");
+         }
+      }
+      catch(IOException ioe) {
+         try {
+            log(TFTPLog.ERROR, "IOException..." + ioe + "\n");                                        // IOException has occurred...send error packet
+            ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 0, ioe.toString()); // make the error packet
+            socket.send(errorPkt.build());                                             // send the error packet out
+            transfer.errorSent(errorPkt.getErrorNo());
+            log("ERROR sent to client...\n");                                          // log it
+         }
+         catch(IOException ioe1) {
+            log(TFTPLog.ERROR, "IOException (end) in doRRQ(): " + ioe1 + "\n");
+         }
+      }
+      finally {
+         closeReader();
+      }
+      if(complete) {
+         log("Successfuly uploaded file... " + localFile.getName() + " to server.\n");
+      }
+      doDisconnect(); //disconnect from the server
+   
+   } //doUpload()
+
+  /** 
+   * sendBlock()
+   * reads one block of the file into the packet buffer and sends it. After a timeout
+   * the window starts again at an earlier block, the reader goes by position so that's no extra work
+   * @param block the block to send, counted from 1
+   * @param port the server's port
+   * @param window told when the short block at the end of the file is read
+   */
+   private void sendBlock(long block, int port, SendWindow window) throws IOException {
+      if(sendBuf == null) {
+         sendBuf = ByteBuffer.allocate(blksize + 4);                   // the block size is known now
+         dataPkt = new DatagramPacket(sendBuf.array(), 0, serverIP, port);
+      }
+      long pos = (block - 1) * blksize;
+      int size;
+      if(deflater != null) {
+         size = deflater.read(pos, sendBuf, 4, blksize);              // the next piece of the compressed stream
+      }
+      else {
+         size = reader.read(pos, sendBuf, 4, blksize);                // read in the data after the 4 header bytes
+      }
+      if(size < blksize) {
+         window.setLastBlock(block);            // if the size is less than the block size, that is the last block
+      }
+      
+      boolean again = block <= highestSent;
+      if(!again) {                              // the first time this block goes out
+         highestSent = block;
+         bytes = deflater != null ? deflater.getBytesIn() : pos + size;   // bytes of the file, compressed or not
+         progress.show(bytes, fileSize); // once per block
+      }
+      
+      int blockNo = (int)(block & 0xFFFF);      // block numbers are 16 bits on the wire and roll over after 65535
+      PacketCodec.encodeDATA(sendBuf, blockNo, size); //make the DATA packet around the data
+      if(TFTPLog.isEnabled(TFTPLog.TRACE)) {
+         logBlock(blockNo, sendBuf.array(), size);
+      }
+      dataPkt.setLength(4 + size);
+      socket.send(dataPkt); //send the DATA packet
+      transfer.sent(size, again);
+   } //sendBlock()
+
+  /** 
+   * receive()
+   * waits for the next packet in incoming. Packets that get ignored don't start the wait over,
+   * or a server sending the same old ACK every timeout would keep us from ever timing out
+   * @param deadline System.nanoTime() to give up at
+   * @return false if the deadline passed first
+   */
+   private boolean receive(long deadline) throws IOException {
+      long wait = (deadline - System.nanoTime()) / 1000000;
+      if(wait <= 0) {
+         return false;
+      }
+      socket.setSoTimeout((int)wait);
+      try {
+         socket.receive(incoming);
+         return true;
+      }
+      catch(SocketTimeoutException ste) {
+         return false;
+      }
+   } //receive()
+
+  /** 
+   * logBlock()
+   * logs a few bytes from the front and back of a DATA block
+   * @param pkt the DATA packet, the block starts after the 4 header bytes
+   */
+   private void logBlock(int blockNo, byte[] pkt, int size) {
+      if (size >= 8) {
+         log("Sending DATAPacket: blockNo: " + blockNo + " - [0]" + pkt[4] + "  [1]" + pkt[5] + "  [2]" + pkt[6] + "  [3]" + pkt[7] + 
+                  "  ...[" + (size -3) + "]" +  pkt[size +1] + "  [" + (size -2) + "]" + pkt[size +2] + "  [" + (size -1)  + "]" + pkt[size +3] + "\n");
+      }
+      else if (size >= 3) {
+         log("Sending DATAPacket: blockNo: " + blockNo + " - [0]" + pkt[4] + "  [1]" + pkt[5] + "  [2]" + pkt[6] + "\n");
+      }
+      else {
+         log("Sending DATAPacket: blockNo: " + blockNo + ", " + size + " bytes\n");
+      }
+   } //logBlock()
+
+  /** 
+   * acceptOACK()
+   * takes the block size and window size from the server's OACK
+   * @param pkt the OACK
+   * @return false if the server answered with options we can't use (it gets an ERROR)
+   */
+   private boolean acceptOACK(DatagramPacket pkt) throws IOException {
+      OACKPacket oackPkt = new OACKPacket(); //create the OACKPacket
+      oackPkt.dissect(pkt);                  //dissect it
+      Map<String, String> options = oackPkt.getOptions();
+      
+      int size = blksize;
+      if(options.containsKey(TFTPOptions.BLKSIZE)) {
+         size = TFTPOptions.parseBlksize(options.get(TFTPOptions.BLKSIZE));
+         if(size < 0 || size > requestBlksize) {
+            return rejectOACK(pkt, "Bad blksize: " + options.get(TFTPOptions.BLKSIZE));
+         }
+      }
+      int window = windowsize;
+      if(options.containsKey(TFTPOptions.WINDOWSIZE)) {
+         window = TFTPOptions.parseWindowsize(options.get(TFTPOptions.WINDOWSIZE));
+         if(window < 0 || window > requestWindowsize) {
+            return rejectOACK(pkt, "Bad windowsize: " + options.get(TFTPOptions.WINDOWSIZE));
+         }
+      }
+      blksize = size;
+      windowsize = window;
+      if(options.containsKey(TFTPOptions.TSIZE)) {
+         tsize = TFTPOptions.parseTsize(options.get(TFTPOptions.TSIZE));
+      }
+      boolean compressed = options.containsKey(TFTPOptions.COMPRESS);
+      if(compressed && (!wantsCompress() || !TFTPOptions.DEFLATE.equalsIgnoreCase(options.get(TFTPOptions.COMPRESS).trim()))) {
+         return rejectOACK(pkt, "Bad compress: " + options.get(TFTPOptions.COMPRESS));
+      }
+      if(rangeOffset >= 0) {
+         long[] range = TFTPOptions.parseRange(options.get(TFTPOptions.RANGE));
+         if(range == null || range[0] != rangeOffset || range[1] > rangeLength) {   // the whole file would land on the other segments
+            return rejectOACK(pkt, "Bad range: " + options.get(TFTPOptions.RANGE));
+         }
+         tsize = range[1];   // the progress is this range's
+      }
+      if(compressed && reader != null) {
+         deflater = new DeflateReader(reader, blksize, windowsize);
+      }
+      else if(compressed) {
+         inflater = new InflateWriter(writer);
+      }
+      log("Received OACK Packet! blksize: " + blksize + ", windowsize: " + windowsize + ", tsize: " + tsize + (compressed ? ", compressed" : "") + "\n");
+      return true;
+   } //acceptOACK()
+
+  /** 
+   * rejectOACK()
+   * tells the server we can't use the options it sent back
+   * @return false, for acceptOACK() to return
+   */
+   private boolean rejectOACK(DatagramPacket pkt, String msg) throws IOException {
+      log(TFTPLog.ERROR, "Server sent a bad option: " + msg + "\n");
+      ERRORPacket errorPkt = new ERRORPacket(serverIP, pkt.getPort(), OPTERR, msg); // make the error packet
+      socket.send(errorPkt.build()); // send the error packet out
+      transfer.errorSent(errorPkt.getErrorNo());
+      return false;
+   } //rejectOACK()
+
+  /** 
+   * requestCompress()
+   * adds the compress option to a RRQ/WRQ's options if this transfer asks for it
+   * @param options the options so far
+   * @return the same options
+   */
+   private Map<String, String> requestCompress(Map<String, String> options) {
+      if(wantsCompress()) {
+         options.put(TFTPOptions.COMPRESS, TFTPOptions.DEFLATE);
+      }
+      return options;
+   } //requestCompress()
+
+  /** 
+   * wantsCompress()
+   * @return true if the compress option is on, this is one whole file (not a range) and neither name says it is compressed already
+   */
+   private boolean wantsCompress() {
+      return compress && rangeOffset < 0 && !TFTPOptions.isCompressed(fileName) && !TFTPOptions.isCompressed(localFile.getName());
+   } //wantsCompress()
+
+  /** 
+   * makeRoom()
+   * download: checks the whole file fits and sets its length as soon as the server says how big it is
+   * @param pkt the OACK
+   * @return false if the file won't fit (the server gets DSKFUL)
+   */
+   private boolean makeRoom(DatagramPacket pkt) throws IOException {
+      if(rangeOffset >= 0) {
+         return true;   // doSegmentedDownload() made room for the whole file
+      }
+      File saveTo = localFile.getAbsoluteFile();
+      try {
+         if(tsize > saveTo.getParentFile().getUsableSpace()) {
+            throw new IOException(tsize + " bytes won't fit in " + saveTo.getParent());
+         }
+         writer.preallocate(tsize);
+         return true;
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "Disk full: " + ioe + "\n");
+         ERRORPacket errorPkt = new ERRORPacket(serverIP, pkt.getPort(), DSKFUL, "Disk full: " + ioe.getMessage()); // make the error packet
+         socket.send(errorPkt.build()); // send the error packet out
+         transfer.errorSent(errorPkt.getErrorNo());
+         return false;
+      }
+   } //makeRoom()
+
+  /** 
+   * closeReader()
+   * upload: closes the file, however the transfer ended
+   */
+   private void closeReader() {
+      try {
+         if(deflater != null) {
+            log("Sent " + deflater.getBytesIn() + " bytes as " + deflater.getBytesOut() + " compressed\n");
+            deflater.close(); // and the reader with it
+         }
+         else if(reader != null) {
+            reader.close();
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException closing " + localFile.getName() + "..." + ioe + "\n");
+      }
+      reader = null;
+      deflater = null;
+   } //closeReader()
+
+  /** 
+   * closeWriter()
+   * download: closes the file if the transfer didn't get to finish it
+   */
+   private void closeWriter() {
+      try {
+         if(inflater != null) {
+            inflater.close(); // and the writer with it
+         }
+         else if(writer != null) {
+            writer.close();
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException closing " + fileName + "..." + ioe + "\n");
+      }
+      writer = null;
+      inflater = null;
+   } //closeWriter()
+
+  /** 
+   * readACKPacket()
+   * For reading the ACKPackets
+   * @param pkt of DatagramPacket
+   * @param window the blocks sent and not ACKed yet
+   * @return true if the ACK confirmed something new, or it is the OACK answering the WRQ
+   */
+   public boolean readACKPacket(DatagramPacket pkt, SendWindow window) {
+      try {
+         int opcode = view.wrap(pkt).getOpCode(); //read in the opcode, the packet is read where it is
+      
+         //if the opcode is an ACKPacket..
+         if (opcode == ACK) {
+            int blockNo = view.getBlockNo();
+            if(window.ack(blockNo)) {
+               if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+                  log("readACKPacket()..." + "Blk#: " + blockNo +  ", ACK!, all good." + "\n"); //all good
+               }
+               return true;
+            }
+            // a duplicate or an old ACK, answering it would send the blocks twice
+            transfer.duplicateAck();
+            if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+               log("Ignoring ACK for Blk#: " + blockNo + ", already past it.\n");
+            }
+            return false;
+         } //if opcode == ACK
+         
+         else if (opcode == OACK && window.getLastAcked() < 0) {
+            // the server took our options, this stands for ACK 0
+            if(acceptOACK(pkt)) {
+               window.setWindowSize(windowsize);
+               return window.ack(0);
+            }
+            doDisconnect(); //disconnect from the server
+            return false;
+         } //else if opcode == OACK
+         
+         else if (opcode == OACK) {
+            return false; // sent again because our first block was late, the window is already moving
+         }
+         
+         else if (opcode == ERROR) {
+            //log the error
+            log(TFTPLog.ERROR, "Error recieved from server:\n     [ERRORNUM:" + view.getErrorNo() + "] ... " + view.getErrorMsg() + "\n");
+            transfer.errorReceived(view.getErrorNo());
+            doDisconnect(); //disconnect from the server
+            return false;
+         } //else if opcode == ERROR
+         
+         else{
+            log(TFTPLog.ERROR, "Illegal Opcode! Looking for OPCODE-4 or OPCODE-5. Recieved: " + opcode + "\n"); // Exception has occurred...send error packet
+            ERRORPacket errorPkt = new ERRORPacket(serverIP, pkt.getPort(), 4, "Illegal Opcode! Looking for OPCODE-4 or OPCODE-5. Recieved: " + opcode); // make the error packet
+            socket.send(errorPkt.build()); // send the error packet out
+            transfer.errorSent(errorPkt.getErrorNo());
+            log("ERROR sent to client...\n");
+         }
+      
+      } //try
+      catch(Exception e) {
+         log(TFTPLog.ERROR, "Error occured in readACKPacket(): " + e + "\n");
+         return false;
+      }
+      
+      return false;
+   } //readACKPacket()
+
+
+  /** 
+   * doDownload()
+   * downloads a file from the server using the TFTP protocol, ACKing once per windowsize blocks
+   */
+   public void doDownload() { // create rrq packet to send
+      int port = -1;
+      boolean started = false;   // true once the server answered the RRQ
+      boolean dallying = false;  // the last ACK is out, waiting in case it got lost
+      long deadline = System.nanoTime() + timer.getTimeout();
+      ReceiveWindow window = new ReceiveWindow(DEFAULT_WINDOWSIZE);
+      
+      try {
+         if(rangeOffset < 0) {
+            writer = new BlockWriter(localFile, DEFAULT_BLKSIZE); //open the file, clear it's contents
+         }
+         else {
+            writer = new BlockWriter(localFile, DEFAULT_BLKSIZE, rangeOffset); //only this range of it, the other segments write the rest
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "File Not Found..." + ioe + "\n");
+         return;
+      }
+         
+      try {
+         // connect to server stuff here (aka doConnect() method)
+         if(!doConnect()) {
+            return;
+         }
+         transfer = TFTPMetrics.client().begin(System.nanoTime(), String.valueOf(serverIP));
+         transfer.request(RRQ, fileName);
+            
+         //InetAddress _toAddress, int _port, String _fileName, String _mode
+         Map<String, String> options = TFTPOptions.request(requestBlksize, requestWindowsize, rangeOffset < 0 ? 0 : -1); //tsize 0 asks for the size
+         if(rangeOffset >= 0) {
+            options.put(TFTPOptions.RANGE, TFTPOptions.formatRange(rangeOffset, rangeLength));
+         }
+         else {
+            requestCompress(options);
+         }
+         RRQPacket rrqPkt = new RRQPacket(serverIP, serverPort, fileName, "octet", options);
+         socket.send(rrqPkt.build()); //PACKET 1
+         timer.sent();
+            
+         // LOOP START HERE
+         while(true) {
+            //receiving the DATA Packet from the Server
+            if(!receive(deadline)) { //PACKET 2
+               if(dallying) {
+                  break; //the server didn't send the last block again, so it got our last ACK
+               }
+               transfer.timeout();
+               if(timer.timedOut()) {
+                  log("Download timed out waiting for DATA!\n");
+                  doDisconnect(); //disconnect from the server
+                  return;
+               }
+               if(!started) {
+                  socket.send(rrqPkt.build()); //the RRQ or its answer got lost
+               }
+               else {
+                  sendACK(port, window.getAckNo()); //tell the server where to start again
+                  log("Timed out, sent ACK Packet again! Blk#: " + window.getAckNo() + "\n");
+               }
+               deadline = System.nanoTime() + timer.getTimeout();
+               continue;
+            }
+               
+            // Figure out what the server sent, read in place
+            int opcode = view.wrap(incoming).getOpCode(); //read in the opcode
+               
+            if (opcode == ERROR) { //opcode == 5
+               log(TFTPLog.ERROR, "Error recieved from server:\n     [ERRORNUM:" + view.getErrorNo() + "] ... " + view.getErrorMsg() + "\n");
+               transfer.errorReceived(view.getErrorNo());
+               doDisconnect(); //disconnect from the server
+               return;
+            }
+            else if (opcode == OACK) { //opcode == 6, the server took our options
+               if(!started) {
+                  port = incoming.getPort();
+                  if(!acceptOACK(incoming) || !makeRoom(incoming)) {
+                     doDisconnect(); //disconnect from the server
+                     return;
+                  }
+                  window = new ReceiveWindow(windowsize);
+                  writer.setBlockSize(blksize);
+                  started = true;
+                  timer.progress();
+               }
+               if(window.getLastInOrder() == 0) { //sent again if our ACK 0 got lost
+                  timer.sent();
+                  deadline = System.nanoTime() + timer.getTimeout();
+                  sendACK(port, 0); //ACK 0 says go ahead with block 1
+                  if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+                     log("Sent ACK Packet! Blk#: 0\n");
+                  }
+               }
+            }
+            else if (opcode == DATA) { //opcode == 3
+                  
+               // ATTRIBUTES: read in place, the data never leaves the receive buffer
+               byte[] data = incoming.getData();
+               int dataOff = view.getPayloadOffset();
+               int blockNo = view.getBlockNo();
+               port = incoming.getPort();
+               int dataLen = view.getPayloadLength();
+               if(!started && rangeOffset >= 0) { //no OACK, so the server is sending the whole file and not our range
+                  rejectOACK(incoming, "No range in the answer");
+                  doDisconnect(); //disconnect from the server
+                  return;
+               }
+               started = true;
+                  
+               if(window.accept(blockNo, dataLen < blksize)) {
+                  timer.progress();
+                  deadline = System.nanoTime() + timer.getTimeout(); //the rest of the window has this long from each block that comes
+                  if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+                     log("DATAPacket: blockNo: " + blockNo + ", port: " + port + ", Length of Data: " + (dataLen + 1) + "\n");
+                  }
+                  if(inflater != null) {
+                     inflater.write(data, dataOff, dataLen); //inflate it into the file, the blocks come in order
+                     bytes = inflater.getBytesOut();
+                  }
+                  else {
+                     writer.write(window.getLastInOrder(), data, dataOff, dataLen); //write the data at its block's place
+                     bytes += dataLen;
+                  }
+                  transfer.received(dataLen);
+                  if(tsize > 0) {
+                     progress.show(bytes, tsize);
+                  }
+               }
+               else if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+                  log("Out of order DATAPacket: blockNo: " + blockNo + ", have up to: " + window.getAckNo() + "\n");
+               }
+               
+               if(window.isComplete() && !dallying) {
+                  if(inflater != null) {
+                     log("Took " + inflater.getBytesIn() + " compressed bytes as " + inflater.getBytesOut() + "\n");
+                     inflater.finish(); // the deflate stream has to end here too, then the same as below
+                     inflater = null;
+                  }
+                  else {
+                     writer.finish(); // written out (and synced, if -Dtftp.sync says so) before the last ACK, and cut in case tsize said more than the server sent
+                  }
+                  writer = null;
+                  complete = true;
+                  progress.show(bytes, bytes); // all of it, whether or not the server said how big it was
+                  //log that the download finished!
+                  log(localFile.getName() + " has finished downloading! \n");
+                  dallying = true; //stay a while in case the last ACK is lost and the server sends the block again
+               }
+               
+               if(window.takeAckDue()) { //once per window, at the end of the file, or after a block went missing
+                  timer.sent();
+                  deadline = System.nanoTime() + timer.getTimeout();
+                  sendACK(port, window.getAckNo()); // PACKET 3                               send it out
+                  if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+                     log("Sent ACK Packet! Blk#: " + window.getAckNo() + "\n");
+                  }
+               }
+               if(dallying) {
+                  deadline = System.nanoTime() + timer.getDallyTime();
+               }
+                  
+            } //else if opcode = DATA
+                  
+            else{
+               log(TFTPLog.ERROR, "Illegal Opcode! Looking for OPCODE-4 or OPCODE-5. Recieved: " + opcode + "\n"); // Exception has occurred...send error packet
+               ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 4, "Illegal Opcode! Looking for OPCODE-3 or OPCODE-5. Recieved: " + opcode); // make the error packet
+               socket.send(errorPkt.build()); // send the error packet out
+               transfer.errorSent(errorPkt.getErrorNo());
+               log("ERROR sent to client...\n");
+            }
+               
+         } //while
+            
+      } // try
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException occurred in doDownload()..." + ioe + "\n");
+         return;
+      }
+      finally {
+         closeWriter(); //a download that stopped part way keeps what came
+      }
+      doDisconnect(); //disconnect from the server
+            
+   } //doDownload()
+
+
+  /** 
+   * doSegmentedDownload()
+   * downloads a file as segments ranges at once, each one a ClientThread with its own socket and its own RRQ
+   * with the range option, writing its blocks straight to their place in the file. A first RRQ for an empty range
+   * learns the file's size from the OACK. A server that doesn't know the range option, a file the server doesn't
+   * give the size of, or one too small to split, goes to doDownload() instead
+   */
+   public void doSegmentedDownload() {
+      final long size = probeSize();
+      if(size < (long)segments * requestBlksize) {   // -1 too
+         doDownload();
+         return;
+      }
+
+      File saveTo = localFile.getAbsoluteFile();
+      try {
+         if(size > saveTo.getParentFile().getUsableSpace()) {
+            throw new IOException(size + " bytes won't fit in " + saveTo.getParent());
+         }
+         RandomAccessFile raf = new RandomAccessFile(localFile, "rw");
+         try {
+            raf.setLength(0);      // nothing left from an older copy
+            raf.setLength(size);   // every segment writes into its own part of it
+         }
+         finally {
+            raf.close();
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "Could not make room for " + fileName + "..." + ioe + "\n");
+         return;
+      }
+
+      // Whole blocks per segment, the last one gets what is left
+      long segLen = ((size + segments - 1) / segments + requestBlksize - 1) / requestBlksize * requestBlksize;
+      final long[] done = new long[1];
+      List<ClientThread> parts = new ArrayList<ClientThread>();
+      for(long offset = 0; offset < size; offset += segLen) {
+         ClientThread part = new ClientThread(cmd, server, serverPort, fileName, localFile, requestBlksize, requestWindowsize, logger,
+            new Progress() {
+               private long last = 0;
+               public void show(long _done, long _total) {
+                  synchronized(done) {   // the segments' threads take turns telling ours
+                     done[0] += _done - last;
+                     last = _done;
+                     progress.show(done[0], size);
+                  }
+               }
+            });
+         part.setName(getName() + "-" + parts.size());
+         part.setRange(offset, Math.min(segLen, size - offset));
+         parts.add(part);
+      }
+      log("Downloading " + fileName + ", " + size + " bytes, in " + parts.size() + " segments of " + segLen + " bytes\n");
+
+      for(int i = 1; i < parts.size(); i++) {
+         parts.get(i).start();
+      }
+      parts.get(0).run();   // the first one here, on this thread
+      boolean allDone = parts.get(0).isComplete();
+      bytes = parts.get(0).getBytes();
+      for(int i = 1; i < parts.size(); i++) {
+         try {
+            parts.get(i).join();
+         }
+         catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return;
+         }
+         allDone = allDone && parts.get(i).isComplete();
+         bytes += parts.get(i).getBytes();
+      }
+      complete = allDone;
+      if(complete) {
+         log(localFile.getName() + " has finished downloading! \n");
+      }
+      else {
+         log(TFTPLog.ERROR, localFile.getName() + " is missing segments, download it again\n");
+      }
+   } //doSegmentedDownload()
+
+  /** 
+   * probeSize()
+   * asks for an empty range of the file with tsize, and ends the RRQ with an ERROR as soon as the answer comes
+   * @return the file's size, or -1 if the server didn't take the range option, didn't say the size or didn't answer
+   */
+   private long probeSize() {
+      if(!doConnect()) {
+         return -1;
+      }
+      try {
+         Map<String, String> options = TFTPOptions.request(requestBlksize, requestWindowsize, 0);
+         options.put(TFTPOptions.RANGE, TFTPOptions.formatRange(0, 0));
+         RRQPacket rrqPkt = new RRQPacket(serverIP, serverPort, fileName, "octet", options);
+         socket.send(rrqPkt.build());
+         timer.sent();
+         while(!receive(System.nanoTime() + timer.getTimeout())) {
+            if(timer.timedOut()) {
+               log("No answer to the size RRQ for " + fileName + "\n");
+               return -1;
+            }
+            socket.send(rrqPkt.build());
+         }
+         timer.progress();
+
+         int opcode = view.wrap(incoming).getOpCode();
+         if(opcode == ERROR) {
+            return -1;   // doDownload() gets the same error and says so
+         }
+         ERRORPacket errorPkt = new ERRORPacket(serverIP, incoming.getPort(), UNDEF, "Only wanted the size");
+         socket.send(errorPkt.build());
+         if(opcode != OACK) {
+            return -1;
+         }
+         OACKPacket oackPkt = new OACKPacket();
+         oackPkt.dissect(incoming);
+         Map<String, String> accepted = oackPkt.getOptions();
+         if(TFTPOptions.parseRange(accepted.get(TFTPOptions.RANGE)) == null) {
+            log("The server doesn't do ranges, getting " + fileName + " in one piece\n");
+            return -1;
+         }
+         return TFTPOptions.parseTsize(accepted.get(TFTPOptions.TSIZE));
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException occurred in probeSize()..." + ioe + "\n");
+         return -1;
+      }
+      finally {
+         doDisconnect();
+      }
+   } //probeSize()
+
+  /** 
+   * doMulticastDownload()
+   * downloads a file with the multicast option (RFC 2090). The server's OACK says which group the blocks
+   * come to, and whether we are the master client, the one that ACKs for the group. Blocks are written at
+   * their place in whatever order they come, a BitSet says which are in. A client that isn't master only
+   * listens, and sends the RRQ again if the group goes quiet, which keeps it in the group (or gets it a new one).
+   * Whatever block the master is missing first is what the whole group gets next.
+   * A server that doesn't do multicast answers the RRQ like any other, and this goes over to doDownload()
+   */
+   public void doMulticastDownload() {
+      InetSocketAddress serverAddr = null;    // where the RRQ goes
+      InetSocketAddress tid = null;           // the server's end of the transfer, the OACK and every block come from it
+      InetSocketAddress group = null;         // where the blocks go
+      DatagramChannel uni = null;             // to and from the server
+      DatagramChannel mc = null;              // the group's blocks
+      Selector selector = null;
+      boolean master = false;
+      boolean dallying = false;               // we have it all, staying a while in case our last ACK got lost
+      boolean fallBack = false;               // the server doesn't do multicast
+      BitSet got = new BitSet();
+      long lastBlock = -1;                    // known once the short block comes
+      long deadline = 0;
+      ByteBuffer in = ByteBuffer.wrap(incoming.getData());
+      ByteBuffer out = ByteBuffer.allocate(MAX_PACKET);
+      PacketView view = new PacketView();
+      
+      try {
+         writer = new BlockWriter(localFile, DEFAULT_BLKSIZE); //open the file, clear it's contents
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "File Not Found..." + ioe + "\n");
+         return;
+      }
+      
+      try {
+         serverIP = InetAddress.getByName(server == null || server.equals("") ? "localhost" : server);
+         serverAddr = new InetSocketAddress(serverIP, serverPort);
+         selector = Selector.open();
+         uni = DatagramChannel.open();
+         uni.bind(null);
+         uni.configureBlocking(false);
+         uni.register(selector, SelectionKey.OP_READ);
+         transfer = TFTPMetrics.client().begin(System.nanoTime(), String.valueOf(serverIP));
+         transfer.request(RRQ, fileName);
+         
+         Map<String, String> options = TFTPOptions.request(requestBlksize, DEFAULT_WINDOWSIZE, 0); //lock-step, tsize 0 asks for the size
+         options.put(TFTPOptions.MULTICAST, "");
+         PacketCodec.encodeRequest(out, RRQ, fileName, "octet", options);
+         uni.send(out, serverAddr);
+         timer.sent();
+         deadline = System.nanoTime() + timer.getTimeout();
+         
+         while(true) {
+            InetSocketAddress from = receiveAny(selector, in, deadline);
+            if(from == null) {
+               if(dallying) {
+                  break; //nobody asked for the last block again, so the server got our last ACK
+               }
+               transfer.timeout();
+               if(timer.timedOut()) {
+                  log("Multicast download timed out waiting for DATA!\n");
+                  return;
+               }
+               if(master) {
+                  sendACK(uni, out, tid, got.nextClearBit(1) - 1); //tell the server where to start again
+                  log("Timed out, sent ACK Packet again! Blk#: " + (got.nextClearBit(1) - 1) + "\n");
+               }
+               else {
+                  PacketCodec.encodeRequest(out, RRQ, fileName, "octet", options);
+                  uni.send(out, serverAddr); //the RRQ or its OACK got lost, or the group went quiet
+                  if(tid != null) {
+                     log("Nothing from the group, sent the RRQ again\n");
+                  }
+               }
+               deadline = System.nanoTime() + timer.getTimeout();
+               continue;
+            }
+            
+            view.wrap(in, 0, in.limit());
+            int opcode = view.getOpCode();
+            if(tid != null && from.getPort() != tid.getPort() && opcode != OACK) {
+               continue; //not from our group's sender
+            }
+            
+            if(opcode == ERROR) {
+               log(TFTPLog.ERROR, "Error recieved from server:\n     [ERRORNUM:" + view.getErrorNo() + "] ... " + view.getErrorMsg() + "\n");
+               transfer.errorReceived(view.getErrorNo());
+               return;
+            }
+            else if(opcode == OACK) {
+               if(dallying) {
+                  sendACK(uni, out, from, lastBlock); //made master after we were done, we have it all
+                  continue;
+               }
+               Map<String, String> accepted = view.getOptions();
+               String value = accepted.get(TFTPOptions.MULTICAST);
+               if(value == null) {
+                  fallBack = true;
+                  sendError(uni, out, from, OPTERR, "Multicast only");
+                  break;
+               }
+               int mcFlag = TFTPOptions.parseMulticastMaster(value);
+               InetSocketAddress newGroup = TFTPOptions.parseMulticastGroup(value);
+               int size = accepted.containsKey(TFTPOptions.BLKSIZE) ? TFTPOptions.parseBlksize(accepted.get(TFTPOptions.BLKSIZE)) : DEFAULT_BLKSIZE;
+               if(mcFlag < 0 || (newGroup == null && group == null) || size < 0 || size > requestBlksize || (!got.isEmpty() && size != blksize)) {
+                  log(TFTPLog.ERROR, "Server sent a bad option: " + accepted + "\n");
+                  sendError(uni, out, from, OPTERR, "Bad option: " + accepted);
+                  return;
+               }
+               if(!from.equals(tid)) { //the group's first OACK, or a new group after we asked again
+                  tid = from;
+                  if(got.isEmpty()) {
+                     blksize = size;
+                     writer.setBlockSize(blksize);
+                     tsize = TFTPOptions.parseTsize(accepted.get(TFTPOptions.TSIZE));
+                     if(tsize > 0) {
+                        writer.preallocate(tsize);
+                     }
+                  }
+               }
+               if(newGroup != null && !newGroup.equals(group)) {
+                  mc = joinGroup(selector, mc, newGroup);
+                  group = newGroup;
+                  log("Joined multicast group " + group + ", blksize: " + blksize + ", tsize: " + tsize + "\n");
+               }
+               if(mcFlag == 1 && !master) {
+                  log("Master client for the group now, from Blk#: " + got.nextClearBit(1) + "\n");
+               }
+               master = mcFlag == 1;
+               timer.progress();
+               if(master) {
+                  sendACK(uni, out, tid, got.nextClearBit(1) - 1); //the first block we don't have comes next
+                  timer.sent();
+               }
+               deadline = System.nanoTime() + timer.getTimeout();
+            }
+            else if(opcode == DATA) {
+               if(tid == null) {
+                  fallBack = true; //a server that took none of the options
+                  sendError(uni, out, from, OPTERR, "Multicast only");
+                  break;
+               }
+               if(dallying) {
+                  if(master) {
+                     sendACK(uni, out, tid, lastBlock); //our last ACK got lost
+                  }
+                  continue;
+               }
+               int blockNo = view.getBlockNo();
+               int dataLen = view.getPayloadLength();
+               timer.progress(); //the group is moving, even if it is a block we have
+               boolean isNew = blockNo > 0 && !got.get(blockNo);
+               if(isNew) {
+                  writer.write(blockNo, in.array(), view.getPayloadOffset(), dataLen); //write the data at its block's place
+                  got.set(blockNo);
+                  bytes += dataLen;
+                  transfer.received(dataLen);
+                  if(dataLen < blksize) {
+                     lastBlock = blockNo;
+                  }
+                  if(tsize > 0) {
+                     progress.show(bytes, tsize);
+                  }
+               }
+               long have = got.nextClearBit(1) - 1; //every block up to here is in
+               if(lastBlock > 0 && have >= lastBlock) {
+                  writer.finish();
+                  writer = null;
+                  complete = true;
+                  progress.show(bytes, bytes);
+                  log(localFile.getName() + " has finished downloading! \n");
+                  sendACK(uni, out, tid, lastBlock); //master or not, the server hears we have it all
+                  dallying = true;
+                  deadline = System.nanoTime() + (master ? timer.getDallyTime() : DEFAULT_TIMEOUT * 1000000L); //a listener's timer never timed the server's answers
+                  continue;
+               }
+               if(master && isNew) { //a block we had already gets no ACK, or every lost ACK would double the blocks from then on
+                  sendACK(uni, out, tid, have);
+                  timer.sent();
+               }
+               deadline = System.nanoTime() + timer.getTimeout();
+            }
+         } //while
+      } //try
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException occurred in doMulticastDownload()..." + ioe + "\n");
+         return;
+      }
+      finally {
+         closeWriter(); //a download that stopped part way keeps what came
+         for(Closeable c : new Closeable[] {mc, uni, selector}) {
+            try {
+               if(c != null) {
+                  c.close();
+               }
+            }
+            catch(IOException ioe) {}
+         }
+      }
+      
+      if(fallBack) {
+         log("Server doesn't do multicast, downloading on our own\n");
+         transfer.end();
+         transfer = null;
+         blksize = DEFAULT_BLKSIZE;
+         tsize = -1;
+         bytes = 0;
+         timer = new RetransmitTimer();
+         doDownload();
+      }
+   } //doMulticastDownload()
+
+  /** 
+   * receiveAny()
+   * multicast download: waits for the next packet from the server or from the group
+   * @param selector has both channels
+   * @param in the packet goes here, flipped
+   * @param deadline System.nanoTime() to give up at
+   * @return where the packet came from, null if the deadline passed first
+   */
+   private InetSocketAddress receiveAny(Selector selector, ByteBuffer in, long deadline) throws IOException {
+      while(true) {
+         for(SelectionKey key : selector.keys()) {
+            if(!key.isValid()) {
+               continue; //a group we left
+            }
+            in.clear();
+            SocketAddress from = ((DatagramChannel)key.channel()).receive(in);
+            if(from != null) {
+               in.flip();
+               return (InetSocketAddress)from;
+            }
+         }
+         long wait = (deadline - System.nanoTime()) / 1000000;
+         if(wait <= 0) {
+            return null;
+         }
+         selector.select(wait);
+         selector.selectedKeys().clear();
+      }
+   } //receiveAny()
+
+  /** 
+   * joinGroup()
+   * multicast download: listens on the group's port and joins it, on the interface the server is reached through
+   * @param selector the new channel is added to it
+   * @param old the group we were in, closed, or null
+   * @param group the group's address and port
+   * @return the channel the group's blocks come in on
+   */
+   private DatagramChannel joinGroup(Selector selector, DatagramChannel old, InetSocketAddress group) throws IOException {
+      if(old != null) {
+         old.close();
+      }
+      DatagramChannel mc = DatagramChannel.open(group.getAddress() instanceof Inet6Address ? StandardProtocolFamily.INET6 : StandardProtocolFamily.INET);
+      mc.setOption(StandardSocketOptions.SO_REUSEADDR, true); //every client on this machine listens on the group's port
+      mc.bind(new InetSocketAddress(group.getPort()));
+      mc.join(group.getAddress(), TFTPOptions.multicastInterface(serverIP));
+      mc.configureBlocking(false);
+      mc.register(selector, SelectionKey.OP_READ);
+      return mc;
+   } //joinGroup()
+
+  /** 
+   * sendACK()
+   * download: one ACK to the server, encoded into ackBuf so it costs no allocation
+   * @param port the server's port for this transfer
+   * @param blockNo the 16 bit block number to ACK
+   */
+   private void sendACK(int port, int blockNo) throws IOException {
+      if(ackPkt == null) {
+         ackPkt = new DatagramPacket(ackBuf.array(), 4, serverIP, port);
+      }
+      PacketCodec.encodeACK(ackBuf, blockNo);
+      ackPkt.setPort(port);
+      socket.send(ackPkt);
+   } //sendACK()
+
+  /** 
+   * sendACK()
+   * multicast download: one ACK to the server
+   */
+   private void sendACK(DatagramChannel uni, ByteBuffer out, InetSocketAddress to, long blockNo) throws IOException {
+      PacketCodec.encodeACK(out, (int)blockNo);
+      uni.send(out, to);
+      if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+         log("Sent ACK Packet! Blk#: " + blockNo + "\n");
+      }
+   } //sendACK()
+
+  /** 
+   * sendError()
+   * multicast download: one ERROR to the server
+   */
+   private void sendError(DatagramChannel uni, ByteBuffer out, InetSocketAddress to, int errorNo, String errorMsg) throws IOException {
+      PacketCodec.encodeERROR(out, errorNo, errorMsg);
+      uni.send(out, to);
+      transfer.errorSent(errorNo);
+   } //sendError()
+
+} //class ClientThread
@@ -0,0 +1,132 @@
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * DeflateReader - A file as one deflate stream, read a block at a time by position like a BlockReader,
+ * for a transfer with the compress option. The blocks are pieces of the compressed stream, not of the file,
+ * and the short one at the end of the stream ends the transfer as usual.
+ * The file is read and compressed only as far as the blocks asked for, and the compressed bytes are kept
+ * back to one window behind the furthest block read, so a window sent again after a timeout is copied
+ * out again and not compressed again. Nothing further back than that can be read.
+ * -Dtftp.deflate.level=N (JVM option, 1 - 9, 1 by default) trades speed for size.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class DeflateReader implements Closeable {
+   // Default from the JVM option
+   static final int LEVEL = Integer.getInteger("tftp.deflate.level", Deflater.BEST_SPEED);
+
+   private static final int CHUNK = 64 * 1024;   // read from the file this much at a time
+
+   // Attributes
+   private BlockReader source;
+   private Deflater deflater = new Deflater(LEVEL);
+   private ByteBuffer raw = ByteBuffer.allocate(CHUNK);
+   private long rawPos = 0;             // the next byte of the file to compress
+   private long retain;                 // compressed bytes kept behind the furthest block read
+   private byte[] out;                  // the compressed stream from outStart on
+   private long outStart = 0;
+   private int outLen = 0;
+   private long keepFrom = 0;           // bytes of out before this can go
+
+   /**
+    * Parameterized constructor for DeflateReader
+    * @param _source the file, read in order from the start
+    * @param blksize the block size of the transfer
+    * @param windowsize the blocks per ACK, how far back a timeout can start again
+    */
+   public DeflateReader(BlockReader _source, int blksize, int windowsize) {
+      source = _source;
+      retain = (long)(windowsize + 1) * blksize;
+      out = new byte[(int)Math.max(CHUNK, 2 * retain)];
+   } //constructor
+
+   /** read() method
+    *
+    * Reads up to len bytes of the compressed stream from pos into dst at off
+    * @param pos where in the compressed stream the block starts
+    * @param dst the packet buffer
+    * @param off where in dst the block goes, 4 to leave room for a DATA header
+    * @param len the block size
+    * @return how many bytes were read, less than len only at the end of the stream
+    * @throws IOException if the file can't be read, or pos is further back than what is kept
+    */
+   public int read(long pos, ByteBuffer dst, int off, int len) throws IOException {
+      if(pos < outStart) {
+         throw new IOException("Compressed block at " + pos + " is gone, kept from " + outStart);
+      }
+      keepFrom = pos - retain;
+      while(outStart + outLen < pos + len && !deflater.finished()) {
+         compress();
+      }
+      int n = (int)Math.max(0, Math.min(len, outStart + outLen - pos));
+      dst.limit(off + len).position(off);
+      dst.put(out, (int)(pos - outStart), n);
+      return n;
+   } //read()
+
+   /** getBytesIn() method
+    *
+    * @return bytes of the file compressed so far
+    */
+   public long getBytesIn() {
+      return rawPos;
+   }
+
+   /** getBytesOut() method
+    *
+    * @return bytes of compressed stream made so far
+    */
+   public long getBytesOut() {
+      return outStart + outLen;
+   }
+
+   /** close() method
+    *
+    * Frees the deflater and closes the file
+    */
+   public void close() throws IOException {
+      deflater.end();
+      source.close();
+   }
+
+   /**
+   * compress()
+   * gives the deflater the next piece of the file if it wants one, and adds what it makes to out
+   */
+   private void compress() throws IOException {
+      if(deflater.needsInput()) {
+         int n = source.read(rawPos, raw, 0, CHUNK);
+         rawPos += n;
+         deflater.setInput(raw.array(), 0, n);
+         if(n < CHUNK) {
+            deflater.finish();   // the end of the file
+         }
+      }
+      if(out.length - outLen < CHUNK) {
+         drop();
+      }
+      if(out.length - outLen < CHUNK) {
+         out = Arrays.copyOf(out, out.length * 2);
+      }
+      outLen += deflater.deflate(out, outLen, out.length - outLen);
+   } //compress()
+
+   /**
+   * drop()
+   * makes room in out, letting go of the compressed bytes before keepFrom
+   */
+   private void drop() {
+      int n = (int)Math.min(outLen, keepFrom - outStart);
+      if(n <= 0) {
+         return;
+      }
+      System.arraycopy(out, n, out, 0, outLen - n);
+      outStart += n;
+      outLen -= n;
+   } //drop()
+
+} //class DeflateReader
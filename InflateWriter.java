@@ -0,0 +1,94 @@
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * InflateWriter - The receiving end of a transfer with the compress option. The blocks are pieces of one
+ * deflate stream (see DeflateReader), and each one is inflated as it comes, in order, into a BlockWriter,
+ * so the file is written as it arrives and never held compressed. The sender's short block at the end
+ * of the stream has to end the deflate stream too, or finish() says the file came back cut short.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class InflateWriter implements Closeable {
+   // Attributes
+   private BlockWriter writer;
+   private Inflater inflater = new Inflater();
+   private byte[] buf = new byte[16 * 1024];   // inflated bytes on their way to the writer
+   private long pos = 0;                       // where in the file the next inflated byte goes
+   private long in = 0;                        // compressed bytes taken
+
+   /**
+    * Parameterized constructor for InflateWriter
+    * @param _writer the file the inflated bytes are written to, from the start
+    */
+   public InflateWriter(BlockWriter _writer) {
+      writer = _writer;
+   }
+
+   /** write() method
+    *
+    * Inflates the next block of the compressed stream into the file
+    * @param src the packet it came in
+    * @param off where the block starts in src
+    * @param len the length of the block
+    * @throws IOException if the file can't be written, or the block isn't deflate
+    */
+   public void write(byte[] src, int off, int len) throws IOException {
+      inflater.setInput(src, off, len);
+      in += len;
+      try {
+         while(!inflater.finished()) {
+            int n = inflater.inflate(buf);
+            if(n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+               break;   // all of this block is in, the rest comes with the next one
+            }
+            writer.writeAt(pos, buf, 0, n);
+            pos += n;
+         }
+      }
+      catch(DataFormatException dfe) {
+         throw new IOException("Bad compressed data in the block at " + (in - len) + "... " + dfe.getMessage());
+      }
+   } //write()
+
+   /** finish() method
+    *
+    * The last block is in: finishes the file (see BlockWriter.finish())
+    * @throws IOException if the deflate stream didn't end with it, or the file can't be written
+    */
+   public void finish() throws IOException {
+      if(!inflater.finished()) {
+         close();
+         throw new IOException("The compressed data ended early, " + pos + " bytes came");
+      }
+      inflater.end();
+      writer.finish();
+   } //finish()
+
+   /** getBytesIn() method
+    *
+    * @return compressed bytes taken so far
+    */
+   public long getBytesIn() {
+      return in;
+   }
+
+   /** getBytesOut() method
+    *
+    * @return bytes of the file written so far
+    */
+   public long getBytesOut() {
+      return pos;
+   }
+
+   /** close() method
+    *
+    * Stops part way: keeps what was inflated (see BlockWriter.close())
+    */
+   public void close() throws IOException {
+      inflater.end();
+      writer.close();
+   }
+
+} //class InflateWriter
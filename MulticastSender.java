@@ -0,0 +1,373 @@
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * MulticastSender - one file going out to a multicast group once, for every client that asked for it
+ * with the multicast option (RFC 2090). TFTPServerCore keeps one per file and block size, and a RRQ for
+ * a file that is already going out joins its group instead of starting a session of its own.
+ * Every client gets its OACK from here, on its own, with the group's address and port. The first one is
+ * the master client: each of its ACKs brings the next block, sent once to the group, lock-step.
+ * The others only listen, and send ACK of the last block once they have all of it.
+ * When the master is done (or stops answering) the next client in line is made master. It ACKs the
+ * blocks it has so far, and the blocks it missed are sent again from there, so a client that joined
+ * late gets the start of the file that way. The group ends when its last client leaves.
+ * Block numbers don't roll over here, TFTPServerCore only sends files of up to 65535 blocks this way.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class MulticastSender extends Thread implements TFTPConstants {
+   private static final int MASTER_TRIES = 5;   // timeouts in a row before a master that stopped answering is dropped
+
+   // Attributes
+   private String fileName;
+   private InetSocketAddress group;
+   private int blksize;
+   private long fileSize;
+   private long lastBlock;                      // the short block at the end of the file
+   private MulticastSocket socket = null;
+   private BlockReader reader = null;
+   private Consumer<String> logger;
+   private TFTPServerCore.Listener listener;
+   private Consumer<MulticastSender> onClose;   // takes the group out of the server's table
+
+   // The group: each client with the options it asked for, in the order they joined
+   private LinkedHashMap<InetSocketAddress, Map<String, String>> members = new LinkedHashMap<InetSocketAddress, Map<String, String>>();
+   private InetSocketAddress master = null;
+   private boolean masterAnswered = false;      // the master ACKed its OACK
+   private int tries = 0;                       // timeouts in a row from this master
+   private boolean closed = false;              // no client left, a new RRQ makes a new group
+
+   // Sending
+   private ByteBuffer sendBuf;
+   private DatagramPacket dataPkt;
+   private long current = 0;                    // the block sent last
+   private long highestSent = 0;                // blocks up to this one were sent before, sending one again is a retransmit
+   private RetransmitTimer timer = new RetransmitTimer();
+   private long deadline = Long.MAX_VALUE;
+   private TFTPMetrics.Transfer transfer;
+
+   /**
+    * Parameterized constructor for MulticastSender
+    * @param file the file to send
+    * @param _fileName its name as the clients asked for it
+    * @param _blksize the block size every client in the group gets
+    * @param _group the multicast address and port the blocks go to
+    * @param nif the interface they go out on
+    * @param _logger where log messages go
+    * @param _listener told when each client starts and ends
+    * @param _onClose called once the last client left
+    * @throws IOException if the file can't be read or there is no socket
+    */
+   public MulticastSender(File file, String _fileName, int _blksize, InetSocketAddress _group, NetworkInterface nif,
+         Consumer<String> _logger, TFTPServerCore.Listener _listener, Consumer<MulticastSender> _onClose) throws IOException {
+      super("tftp-multicast-" + _group.getPort());
+      fileName = _fileName;
+      blksize = _blksize;
+      group = _group;
+      logger = _logger;
+      listener = _listener;
+      onClose = _onClose;
+
+      reader = new BlockReader(file, BlockCache.shared());
+      fileSize = file.length();
+      lastBlock = fileSize / blksize + 1;
+      try {
+         socket = new MulticastSocket(0);   // the clients' TID, every packet from this group comes from it
+         socket.setNetworkInterface(nif);
+         socket.setTimeToLive(Integer.getInteger("tftp.multicast.ttl", 1));
+         socket.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);   // clients on this machine hear it too
+      }
+      catch(IOException ioe) {
+         reader.close();
+         if(socket != null) {
+            socket.close();
+         }
+         throw ioe;
+      }
+      sendBuf = ByteBuffer.allocate(blksize + 4);
+      dataPkt = new DatagramPacket(sendBuf.array(), 0, group);
+      transfer = TFTPMetrics.server().begin(System.nanoTime(), group.getAddress().getHostAddress() + ":" + group.getPort());
+      transfer.request(RRQ, fileName);
+   }
+
+   /** join() method
+    *
+    * A client asked for this file with the multicast option: it gets its OACK, and is master if there is none
+    * @param client the client's address and port
+    * @param requested the options in its RRQ
+    * @return false if the group is closing, the server makes a new one then
+    */
+   public synchronized boolean join(InetSocketAddress client, Map<String, String> requested) {
+      if(closed) {
+         return false;
+      }
+      if(!members.containsKey(client)) {
+         members.put(client, requested);
+         log("Multicast " + fileName + ": " + client + " joined " + group + ", " + members.size() + " in the group\n");
+         try {
+            listener.transferStarted(client, RRQ, fileName);
+         }
+         catch(RuntimeException re) {
+            log(TFTPLog.ERROR, "Listener failed... " + re + "\n");
+         }
+      }
+      if(master == null) {
+         makeMaster(client);
+      }
+      else {
+         sendOACK(client, client.equals(master));   // a RRQ again from a member: its OACK got lost, or it is rejoining
+      }
+      return true;
+   } //join()
+
+   /** getGroup() method
+    *
+    * @return the multicast address and port the blocks go to
+    */
+   public InetSocketAddress getGroup() {
+      return group;
+   }
+
+   /** getMembers() method
+    *
+    * @return clients in the group right now
+    */
+   public synchronized int getMembers() {
+      return members.size();
+   }
+
+   public void run() {
+      DatagramPacket pkt = new DatagramPacket(new byte[MAX_PACKET], MAX_PACKET);   // only ACKs and ERRORs come in
+      try {
+         while(true) {
+            long wait;
+            synchronized(this) {
+               if(members.isEmpty()) {
+                  closed = true;
+                  break;
+               }
+               wait = (deadline - System.nanoTime()) / 1000000;
+               if(wait <= 0) {
+                  onTimeout();
+                  continue;
+               }
+            }
+            socket.setSoTimeout((int)Math.min(wait, Integer.MAX_VALUE));
+            try {
+               socket.receive(pkt);
+            }
+            catch(SocketTimeoutException ste) {
+               continue;
+            }
+            handle(pkt);
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException in MulticastSender... " + ioe + "\n");
+         synchronized(this) {
+            closed = true;
+            for(InetSocketAddress client : new ArrayList<InetSocketAddress>(members.keySet())) {
+               leave(client, false);
+            }
+         }
+      }
+      finally {
+         transfer.end();
+         try {
+            reader.close();
+         }
+         catch(IOException ioe) {
+            log(TFTPLog.ERROR, "IOException closing " + fileName + "... " + ioe + "\n");
+         }
+         socket.close();
+         onClose.accept(this);
+         log("Multicast " + fileName + ": group " + group + " done\n");
+      }
+   } //run()
+
+   /**
+   * handle()
+   * an ACK or ERROR from one of the clients
+   */
+   private synchronized void handle(DatagramPacket pkt) {
+      InetSocketAddress from = (InetSocketAddress)pkt.getSocketAddress();
+      if(!members.containsKey(from)) {
+         return;   // left already, or never joined
+      }
+      PacketView view = new PacketView().wrap(pkt);
+      int opcode = view.getOpCode();
+      if(opcode == ERROR) {
+         log(TFTPLog.ERROR, "Multicast " + fileName + ": error from " + from + " [ERRORNUM:" + view.getErrorNo() + "] ... " + view.getErrorMsg() + "\n");
+         transfer.errorReceived(view.getErrorNo());
+         leave(from, false);
+         if(from.equals(master)) {
+            pickMaster();
+         }
+         return;
+      }
+      if(opcode != ACK) {
+         return;
+      }
+      long block = view.getBlockNo();
+      if(block >= lastBlock) {
+         leave(from, true);   // it has the whole file
+         if(from.equals(master)) {
+            pickMaster();
+         }
+         return;
+      }
+      if(from.equals(master) && masterAnswered && block + 1 == current) {
+         transfer.duplicateAck();   // the same ACK again, answering it would send the block twice
+      }
+      else if(from.equals(master)) {
+         masterAnswered = true;
+         tries = 0;
+         timer.progress();
+         sendBlock(block + 1);
+      }
+   } //handle()
+
+   /**
+   * onTimeout()
+   * the master didn't answer: sends the OACK or the block again, or drops the master after MASTER_TRIES
+   */
+   private void onTimeout() {
+      transfer.timeout();
+      tries++;
+      if(tries > MASTER_TRIES || timer.timedOut()) {
+         log("Multicast " + fileName + ": master " + master + " stopped answering\n");
+         leave(master, false);
+         pickMaster();
+         return;
+      }
+      if(!masterAnswered) {
+         sendOACK(master, true);
+         armTimeout();
+      }
+      else {
+         sendBlock(current);
+      }
+   } //onTimeout()
+
+   /**
+   * pickMaster()
+   * the next client in line is master, if there is one left
+   */
+   private void pickMaster() {
+      master = null;
+      deadline = Long.MAX_VALUE;
+      if(!members.isEmpty()) {
+         makeMaster(members.keySet().iterator().next());
+      }
+   } //pickMaster()
+
+   /**
+   * makeMaster()
+   * tells a client it ACKs for the group now, its ACK says which block to send next
+   */
+   private void makeMaster(InetSocketAddress client) {
+      master = client;
+      masterAnswered = false;
+      tries = 0;
+      log("Multicast " + fileName + ": master is " + client + "\n");
+      sendOACK(client, true);
+      timer.progress();   // a new client, the backoff for the last one doesn't count
+      armTimeout();
+   } //makeMaster()
+
+   /**
+   * leave()
+   * a client is out of the group, with the whole file or not
+   */
+   private void leave(InetSocketAddress client, boolean complete) {
+      if(members.remove(client) == null) {
+         return;
+      }
+      log("Multicast " + fileName + ": " + client + (complete ? " has the whole file" : " left without the whole file") + ", " + members.size() + " left in the group\n");
+      try {
+         listener.transferEnded(client, RRQ, fileName, complete ? fileSize : 0, complete);
+      }
+      catch(RuntimeException re) {
+         log(TFTPLog.ERROR, "Listener failed... " + re + "\n");
+      }
+   } //leave()
+
+   /**
+   * sendBlock()
+   * reads a block of the file and sends it to the group as a DATA packet
+   * @param block which block, counting from 1
+   */
+   private void sendBlock(long block) {
+      try {
+         int size = reader.read((block - 1) * blksize, sendBuf, 4, blksize);
+         PacketCodec.encodeDATA(sendBuf, (int)block, size);
+         dataPkt.setLength(4 + size);
+         socket.send(dataPkt);
+         transfer.sent(size, block <= highestSent);
+         highestSent = Math.max(highestSent, block);
+         current = block;
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException sending block " + block + " of " + fileName + " to " + group + "... " + ioe + "\n");
+      }
+      timer.sent();
+      armTimeout();
+   } //sendBlock()
+
+   /**
+   * sendOACK()
+   * the group's address and port, and whether this client is master, with the other options it asked for
+   */
+   private void sendOACK(InetSocketAddress client, boolean isMaster) {
+      Map<String, String> requested = members.get(client);
+      Map<String, String> accepted = new LinkedHashMap<String, String>();
+      accepted.put(TFTPOptions.MULTICAST, TFTPOptions.formatMulticast(group, isMaster));
+      if(requested.containsKey(TFTPOptions.BLKSIZE)) {
+         accepted.put(TFTPOptions.BLKSIZE, String.valueOf(blksize));
+      }
+      if(requested.containsKey(TFTPOptions.TSIZE) && fileSize > 0) {
+         accepted.put(TFTPOptions.TSIZE, String.valueOf(fileSize));
+      }
+      try {
+         ByteBuffer buf = ByteBuffer.allocate(MAX_PACKET);
+         PacketCodec.encodeOACK(buf, accepted);
+         socket.send(new DatagramPacket(buf.array(), buf.remaining(), client));
+         if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+            log("Sent OACK Packet to " + client + "! " + accepted + "\n");
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException sending OACK to " + client + "... " + ioe + "\n");
+      }
+   } //sendOACK()
+
+   /**
+   * armTimeout()
+   * starts the clock for what was just sent to the master
+   */
+   private void armTimeout() {
+      deadline = System.nanoTime() + timer.getTimeout();
+   }
+
+   /**
+   * log()
+   * @param message passed on to the server's log, at INFO
+   */
+   private void log(String message) {
+      log(TFTPLog.INFO, message);
+   }
+
+   /**
+   * log()
+   * @param msgLevel TFTPLog.ERROR for what went wrong
+   * @param message passed on to the server's log
+   */
+   private void log(int msgLevel, String message) {
+      TFTPLog.logTo(logger, msgLevel, message);
+   }
+
+} //class MulticastSender
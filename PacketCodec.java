@@ -0,0 +1,162 @@
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * PacketCodec - Allocation-free encoder for the TFTP packets.
+ * Every encodeXXX() writes one whole packet at the start of the caller's ByteBuffer (heap or direct)
+ * and leaves the buffer flipped, position 0 to limit, ready to send.
+ * The Packets classes use it for build(), and PacketView is the matching decoder.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+final class PacketCodec implements TFTPConstants {
+
+   private PacketCodec() {}
+
+   /** encodeRequest() method
+    *
+    * RRQ/WRQ: opcode, fileName, 0, mode, 0
+    * @param buf where the packet goes
+    * @param opcode RRQ or WRQ
+    * @param fileName the name of the file
+    * @param mode the transfer mode, "octet"
+    */
+   public static void encodeRequest(ByteBuffer buf, int opcode, String fileName, String mode) {
+      buf.clear();
+      buf.putShort((short)opcode);
+      putString(buf, fileName);
+      putString(buf, mode);
+      buf.flip();
+   } //encodeRequest()
+
+   /** encodeRequest() method
+    *
+    * RRQ/WRQ with options (RFC 2347): opcode, fileName, 0, mode, 0, then name, 0, value, 0 for each option
+    * @param buf where the packet goes
+    * @param opcode RRQ or WRQ
+    * @param fileName the name of the file
+    * @param mode the transfer mode, "octet"
+    * @param options the options to ask for, may be empty
+    */
+   public static void encodeRequest(ByteBuffer buf, int opcode, String fileName, String mode, Map<String, String> options) {
+      buf.clear();
+      buf.putShort((short)opcode);
+      putString(buf, fileName);
+      putString(buf, mode);
+      putOptions(buf, options);
+      buf.flip();
+   } //encodeRequest()
+
+   /** encodeOACK() method
+    *
+    * OACK: opcode, then name, 0, value, 0 for each option the server accepted
+    * @param buf where the packet goes
+    * @param options the accepted options
+    */
+   public static void encodeOACK(ByteBuffer buf, Map<String, String> options) {
+      buf.clear();
+      buf.putShort((short)OACK);
+      putOptions(buf, options);
+      buf.flip();
+   } //encodeOACK()
+
+   /** encodeDATA() method
+    *
+    * DATA: opcode, blockNo, data
+    * @param buf where the packet goes
+    * @param blockNo the block number
+    * @param data holds the payload
+    * @param off where the payload starts in data
+    * @param len how long the payload is
+    */
+   public static void encodeDATA(ByteBuffer buf, int blockNo, byte[] data, int off, int len) {
+      buf.clear();
+      buf.putShort((short)DATA);
+      buf.putShort((short)blockNo);
+      buf.put(data, off, len);
+      buf.flip();
+   } //encodeDATA()
+
+   /** encodeDATA() method
+    *
+    * DATA packet for a payload that was already put in buf at offset 4 (e.g. read straight from a file)
+    * @param buf holds the payload at [4, 4 + len)
+    * @param blockNo the block number
+    * @param len how long the payload is
+    */
+   public static void encodeDATA(ByteBuffer buf, int blockNo, int len) {
+      buf.clear();
+      buf.putShort(0, (short)DATA);
+      buf.putShort(2, (short)blockNo);
+      buf.limit(4 + len);
+   } //encodeDATA()
+
+   /** encodeACK() method
+    *
+    * ACK: opcode, blockNo
+    * @param buf where the packet goes
+    * @param blockNo the block number
+    */
+   public static void encodeACK(ByteBuffer buf, int blockNo) {
+      buf.clear();
+      buf.putShort((short)ACK);
+      buf.putShort((short)blockNo);
+      buf.flip();
+   } //encodeACK()
+
+   /** encodeERROR() method
+    *
+    * ERROR: opcode, errorNo, errorMsg, 0
+    * @param buf where the packet goes
+    * @param errorNo the error code
+    * @param errorMsg the message, cut short if it doesn't fit in buf
+    */
+   public static void encodeERROR(ByteBuffer buf, int errorNo, String errorMsg) {
+      buf.clear();
+      buf.putShort((short)ERROR);
+      buf.putShort((short)errorNo);
+      int max = Math.min(errorMsg.length(), buf.remaining() - 1);
+      for(int i = 0; i < max; i++) {
+         buf.put((byte)errorMsg.charAt(i));
+      }
+      buf.put((byte)0);
+      buf.flip();
+   } //encodeERROR()
+
+   /** putString() method
+    *
+    * Writes a zero terminated string one byte per char, the same as DataOutputStream.writeBytes()
+    */
+   static void putString(ByteBuffer buf, String s) {
+      for(int i = 0; i < s.length(); i++) {
+         buf.put((byte)s.charAt(i));
+      }
+      buf.put((byte)0);
+   } //putString()
+
+   /** putOptions() method
+    *
+    * Writes each option as two zero terminated strings, name then value
+    */
+   static void putOptions(ByteBuffer buf, Map<String, String> options) {
+      for(Map.Entry<String, String> option : options.entrySet()) {
+         putString(buf, option.getKey());
+         putString(buf, option.getValue());
+      }
+   } //putOptions()
+
+   /** optionsLength() method
+    *
+    * @return how many bytes putOptions() writes for these options
+    */
+   static int optionsLength(Map<String, String> options) {
+      int len = 0;
+      for(Map.Entry<String, String> option : options.entrySet()) {
+         len += option.getKey().length() + 1 + option.getValue().length() + 1;
+      }
+      return len;
+   } //optionsLength()
+
+} //class PacketCodec
@@ -0,0 +1,209 @@
+import java.net.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * PacketView - Flyweight decoder, the matching half of PacketCodec. wrap() points it at a received
+ * packet and the getters read the fields in place, so one view can be reused for every packet a
+ * session receives. Nothing is copied unless a getter returns a String.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class PacketView implements TFTPConstants {
+   // Attributes
+   private ByteBuffer buf = null;
+   private int offset, length;
+
+   /** wrap() method
+    *
+    * @param _buf holds the packet
+    * @param _offset where the packet starts in _buf
+    * @param _length how long the packet is
+    * @return this view
+    */
+   public PacketView wrap(ByteBuffer _buf, int _offset, int _length) {
+      buf = _buf;
+      offset = _offset;
+      length = _length;
+      return this;
+   }
+
+   /** wrap() method
+    *
+    * Points the view at a DatagramPacket. Only allocates when the packet's byte[] changes.
+    * @param pkt the received packet
+    * @return this view
+    */
+   public PacketView wrap(DatagramPacket pkt) {
+      if(buf == null || !buf.hasArray() || buf.array() != pkt.getData()) {
+         buf = ByteBuffer.wrap(pkt.getData());
+      }
+      offset = pkt.getOffset();
+      length = pkt.getLength();
+      return this;
+   }
+
+   /** getLength() method
+    *
+    * @return how long the packet is
+    */
+   public int getLength() {
+      return length;
+   }
+
+   /** getOpCode() method
+    *
+    * @return the opcode, or -1 if the packet is too short to have one
+    */
+   public int getOpCode() {
+      if(length < 2) {
+         return -1;
+      }
+      return buf.getShort(offset) & 0xFFFF;
+   }
+
+   /** getBlockNo() method
+    *
+    * DATA and ACK
+    * @return the (unsigned) block number
+    */
+   public int getBlockNo() {
+      if(length < 4) {
+         return -1;
+      }
+      return buf.getShort(offset + 2) & 0xFFFF;
+   }
+
+   /** getErrorNo() method
+    *
+    * ERROR
+    * @return the error code
+    */
+   public int getErrorNo() {
+      return getBlockNo();
+   }
+
+   /** getPayloadOffset() method
+    *
+    * DATA
+    * @return where the data starts in the buffer
+    */
+   public int getPayloadOffset() {
+      return offset + 4;
+   }
+
+   /** getPayloadLength() method
+    *
+    * DATA
+    * @return how many data bytes the packet carries
+    */
+   public int getPayloadLength() {
+      return Math.max(0, length - 4);
+   }
+
+   /** copyPayload() method
+    *
+    * DATA: copies the data bytes into dst
+    * @param dst where the data goes
+    * @param dstOff where in dst
+    * @return how many bytes were copied
+    */
+   public int copyPayload(byte[] dst, int dstOff) {
+      int len = getPayloadLength();
+      buf.get(getPayloadOffset(), dst, dstOff, len);
+      return len;
+   }
+
+   /** getPayload() method
+    *
+    * DATA: a view of the data bytes, sharing the packet's buffer
+    * @return the data between position and limit
+    */
+   public ByteBuffer getPayload() {
+      ByteBuffer payload = buf.duplicate();
+      payload.limit(getPayloadOffset() + getPayloadLength()).position(getPayloadOffset());
+      return payload;
+   }
+
+   /** getString() method
+    *
+    * RRQ/WRQ: index 0 is the file name, 1 the mode. ERROR: index 0 is the message
+    * @param index which zero terminated string, counting from the first one
+    * @return the string, or "" if the packet doesn't have that many
+    */
+   public String getString(int index) {
+      int op = getOpCode();
+      int at = offset + (op == ERROR ? 4 : 2);
+      int end = offset + length;
+      for(int i = 0; i < index && at < end; i++) {
+         at = indexOfZero(at, end) + 1;
+      }
+      if(at >= end) {
+         return "";
+      }
+      return readString(at, indexOfZero(at, end));
+   } //getString()
+
+   /** getOptions() method
+    *
+    * RRQ/WRQ: the name/value pairs after the mode. OACK: every name/value pair.
+    * Names are made lower case, they are not case sensitive (RFC 2347)
+    * @return the options in the order they were sent, empty if there are none
+    */
+   public Map<String, String> getOptions() {
+      Map<String, String> options = new LinkedHashMap<String, String>();
+      int op = getOpCode();
+      int at = offset + 2;
+      int end = offset + length;
+      if(op == RRQ || op == WRQ) {
+         at = indexOfZero(at, end) + 1;   // skip the file name
+         at = indexOfZero(at, end) + 1;   // and the mode
+      }
+      while(at < end) {
+         int nameEnd = indexOfZero(at, end);
+         int valueEnd = indexOfZero(nameEnd + 1, end);
+         if(nameEnd == at || nameEnd >= end) {
+            break;   // empty name or no value after it
+         }
+         options.put(readString(at, nameEnd).toLowerCase(), readString(nameEnd + 1, valueEnd));
+         at = valueEnd + 1;
+      }
+      return options;
+   } //getOptions()
+
+   /** getErrorMsg() method
+    *
+    * ERROR
+    * @return the message
+    */
+   public String getErrorMsg() {
+      return getString(0);
+   }
+
+   /** readString() method
+    *
+    * @return the bytes in [from, to) as a String, one char per byte
+    */
+   private String readString(int from, int to) {
+      StringBuilder sb = new StringBuilder(Math.max(0, to - from));
+      for(int i = from; i < to; i++) {
+         sb.append((char)(buf.get(i) & 0xFF));
+      }
+      return sb.toString();
+   }
+
+   /** indexOfZero() method
+    *
+    * @return where the next 0 byte is at or after from, or end if there isn't one
+    */
+   private int indexOfZero(int from, int end) {
+      for(int i = from; i < end; i++) {
+         if(buf.get(i) == 0) {
+            return i;
+         }
+      }
+      return end;
+   }
+
+} //class PacketView
@@ -1,5 +1,7 @@
 import java.net.*;
 import java.io.*;
+import java.nio.*;
+import java.util.*;
 
 /**
  * Packets - to build/dissect the needed packets 
@@ -25,15 +27,15 @@ public abstract class Packets implements TFTPConstants {
    */
    public static String readBytes(DataInputStream dis) {
       try{
-         String value = "";
+         StringBuilder value = new StringBuilder();
          
          while(true) {
          
             byte b = dis.readByte();
             if(b == 0) {
-               return value;
+               return value.toString();
             }
-            value += (char) b;
+            value.append((char) b);
             
          } //while
       } //try
@@ -43,6 +45,15 @@ public abstract class Packets implements TFTPConstants {
       return null;
    } //readBytes
    
+   /** 
+   * build() helper
+   * Sizes a heap buffer for the packet, lets PacketCodec fill it, and wraps it in a DatagramPacket.
+   * build()/dissect() are kept for callers that want packet objects; hot loops use PacketCodec and PacketView directly.
+   */
+   static DatagramPacket toDatagram(byte[] holder, ByteBuffer buf, InetAddress toAddress, int port) {
+      return new DatagramPacket(holder, buf.limit(), toAddress, port);
+   }
+   
 }
 
 /** 
@@ -56,6 +67,7 @@ class RRQPacket extends Packets {
    private InetAddress toAddress;
    private int port;
    private String fileName, mode;
+   private Map<String, String> options = new LinkedHashMap<String, String>(); // RFC 2347 options after the mode
    
    /** 
     * Default/empty constructor for RRQPacket 
@@ -76,6 +88,19 @@ class RRQPacket extends Packets {
       mode = _mode;
    }
    
+   /** 
+    * Parameterized constructor for RRQPacket with options
+    * @param _toAddress IP Address
+    * @param _port the port used
+    * @param _fileName the name of the file
+    * @param _mode contains information about data transfer mode
+    * @param _options name/value options to ask the server for (RFC 2347), e.g. blksize
+    */
+   public RRQPacket(InetAddress _toAddress, int _port, String _fileName, String _mode, Map<String, String> _options) {
+      this(_toAddress, _port, _fileName, _mode);
+      options = _options;
+   }
+   
    /** build() method
     *
     * Builds the RRQ packet with the given information
@@ -83,24 +108,11 @@ class RRQPacket extends Packets {
     */
    public DatagramPacket build() {
       try {
-         ByteArrayOutputStream baos = new ByteArrayOutputStream(2 + fileName.length() + 1 + "octet".length() + 1);
-         DataOutputStream dos = new DataOutputStream(baos);
-      
-         dos.writeShort(RRQ); // opcode
-         dos.writeBytes(fileName);
-         dos.writeByte(0);
-         dos.writeBytes("octet");
-         dos.writeByte(0);
-      
-         // Close the DataOutputStream to flush the last of the packet out
-         // to the ByteArrayOutputStream
-         dos.close();
-      
-      
-         byte[] holder = baos.toByteArray(); // Get the underlying byte[]
-         DatagramPacket rrqPkt = new DatagramPacket(holder, holder.length, toAddress, port); // Build a DatagramPacket from the byte[]
+         byte[] holder = new byte[2 + fileName.length() + 1 + "octet".length() + 1 + PacketCodec.optionsLength(options)];
+         ByteBuffer buf = ByteBuffer.wrap(holder);
+         PacketCodec.encodeRequest(buf, RRQ, fileName, "octet", options);
       
-         return rrqPkt;
+         return toDatagram(holder, buf, toAddress, port); // Build a DatagramPacket from the byte[]
       } //try
       
       catch(Exception e){
@@ -120,24 +132,19 @@ class RRQPacket extends Packets {
          toAddress = rrqPkt.getAddress();
          port = rrqPkt.getPort();
          
-         // Create a ByteArrayInputStream from the payload
-         // NOTE: give the packet data, offset, and length to the ByteArrayInputStream
-         ByteArrayInputStream bais = new ByteArrayInputStream(rrqPkt.getData(), rrqPkt.getOffset(), rrqPkt.getLength());
-         DataInputStream dis = new DataInputStream(bais);
-         int opcode = dis.readShort();
+         // Read the fields in place
+         PacketView view = new PacketView().wrap(rrqPkt);
          
-         if(opcode != RRQ) {
+         if(view.getOpCode() != RRQ) {
             fileName = "";
             mode = "";
-            
-            dis.close();
+            options.clear();
             return;
          }
          
-         fileName = readBytes(dis);
-         mode = readBytes(dis);
-         
-         dis.close();
+         fileName = view.getString(0);
+         mode = view.getString(1);
+         options = view.getOptions();
       } //try
       catch(Exception e) {
       
@@ -153,6 +160,22 @@ class RRQPacket extends Packets {
       return fileName;
    }
    
+   /** getMode() method
+    *
+    * @return the transfer mode, "octet"
+    */
+   public String getMode() {
+      return mode;
+   }
+   
+   /** getOptions() method
+    *
+    * @return the options after the mode, names in lower case. Empty for a plain RFC 1350 request
+    */
+   public Map<String, String> getOptions() {
+      return options;
+   }
+   
    /** getBlockNo() method
     *
     * @return returns RRQ constant
@@ -176,6 +199,7 @@ class WRQPacket extends Packets {
    private InetAddress toAddress;
    private int port;
    private String fileName, mode;
+   private Map<String, String> options = new LinkedHashMap<String, String>(); // RFC 2347 options after the mode
    
    /** 
     * Default/empty constructor for WRQPacket 
@@ -196,6 +220,19 @@ class WRQPacket extends Packets {
       mode = _mode;
    }
    
+   /** 
+    * Parameterized constructor for WRQPacket with options
+    * @param _toAddress IP Address
+    * @param _port the port used
+    * @param _fileName the name of the file
+    * @param _mode contains information about data transfer mode
+    * @param _options name/value options to ask the server for (RFC 2347), e.g. blksize
+    */
+   public WRQPacket(InetAddress _toAddress, int _port, String _fileName, String _mode, Map<String, String> _options) {
+      this(_toAddress, _port, _fileName, _mode);
+      options = _options;
+   }
+   
    /** build() method
     *
     * Builds the WRQ packet with the given information
@@ -204,24 +241,11 @@ class WRQPacket extends Packets {
    public DatagramPacket build() {
       //(InetAddress toAddress, int port, String fileName, String mode)
       try {
-         ByteArrayOutputStream baos = new ByteArrayOutputStream(1 + fileName.length() + 1 + "octet".length() + 1);
-         DataOutputStream dos = new DataOutputStream(baos);
-      
-         dos.writeShort(WRQ); // opcode
-         dos.writeBytes(fileName);
-         dos.writeByte(0);
-         dos.writeBytes("octet");
-         dos.writeByte(0);
-      
-         // Close the DataOutputStream to flush the last of the packet out
-         // to the ByteArrayOutputStream
-         dos.close();
+         byte[] holder = new byte[2 + fileName.length() + 1 + "octet".length() + 1 + PacketCodec.optionsLength(options)];
+         ByteBuffer buf = ByteBuffer.wrap(holder);
+         PacketCodec.encodeRequest(buf, WRQ, fileName, "octet", options);
       
-      
-         byte[] holder = baos.toByteArray(); // Get the underlying byte[]
-         DatagramPacket wrqPkt = new DatagramPacket(holder, holder.length, toAddress, port); // Build a DatagramPacket from the byte[]
-      
-         return wrqPkt;
+         return toDatagram(holder, buf, toAddress, port); // Build a DatagramPacket from the byte[]
       } //try
       catch(Exception e) {
          return null;
@@ -238,24 +262,19 @@ class WRQPacket extends Packets {
          toAddress = wrqPkt.getAddress();
          port = wrqPkt.getPort();
          
-         // Create a ByteArrayInputStream from the payload
-         // NOTE: give the packet data, offset, and length to the ByteArrayInputStream
-         ByteArrayInputStream bais = new ByteArrayInputStream(wrqPkt.getData(), wrqPkt.getOffset(), wrqPkt.getLength());
-         DataInputStream dis = new DataInputStream(bais);
-         int opcode = dis.readShort();
+         // Read the fields in place
+         PacketView view = new PacketView().wrap(wrqPkt);
          
-         if(opcode != WRQ) {
+         if(view.getOpCode() != WRQ) {
             fileName = "";
             mode = "";
-            
-            dis.close();
+            options.clear();
             return;
          }
          
-         fileName = readBytes(dis);
-         mode = readBytes(dis);
-         
-         dis.close();
+         fileName = view.getString(0);
+         mode = view.getString(1);
+         options = view.getOptions();
       } //try
       catch(Exception e) {
       
@@ -280,6 +299,22 @@ class WRQPacket extends Packets {
       return fileName;
    }
    
+   /** getMode() method
+    *
+    * @return the transfer mode, "octet"
+    */
+   public String getMode() {
+      return mode;
+   }
+   
+   /** getOptions() method
+    *
+    * @return the options after the mode, names in lower case. Empty for a plain RFC 1350 request
+    */
+   public Map<String, String> getOptions() {
+      return options;
+   }
+   
 } //class WRQPacket
 
 
@@ -324,24 +359,11 @@ class DATAPacket extends Packets {
     */
    public DatagramPacket build() {
       try {
-         ByteArrayOutputStream baos = new ByteArrayOutputStream(2 + dataLen + 2); // 4-516 bytes. Opcode = 2, Blk# = 2, datalength for the rest of the size
-         DataOutputStream dos = new DataOutputStream(baos);
+         byte[] holder = new byte[2 + 2 + dataLen]; // 4-516 bytes. Opcode = 2, Blk# = 2, datalength for the rest of the size
+         ByteBuffer buf = ByteBuffer.wrap(holder);
+         PacketCodec.encodeDATA(buf, blockNo, data, 0, dataLen);
       
-         dos.writeShort(DATA); // opcode
-         dos.writeShort(blockNo);
-         for(int i = 0; i < dataLen; i++){
-            dos.writeByte(data[i]);
-         }
-      
-         // Close the DataOutputStream to flush the last of the packet out
-         // to the ByteArrayOutputStream
-         dos.close();
-      
-      
-         byte[] holder = baos.toByteArray(); // Get the underlying byte[]
-         DatagramPacket dataPkt = new DatagramPacket(holder, holder.length, toAddress, port); // Build a DatagramPacket from the byte[]
-      
-         return dataPkt;
+         return toDatagram(holder, buf, toAddress, port); // Build a DatagramPacket from the byte[]
       } //try
       catch(Exception e) {
          return null;
@@ -358,29 +380,18 @@ class DATAPacket extends Packets {
          toAddress = dataPkt.getAddress();
          port = dataPkt.getPort();
          
-         // Create a ByteArrayInputStream from the payload
-         // NOTE: give the packet data, offset, and length to the ByteArrayInputStream
-         ByteArrayInputStream bais = new ByteArrayInputStream(dataPkt.getData(), dataPkt.getOffset(), dataPkt.getLength());
-         DataInputStream dis = new DataInputStream(bais);
-         int opcode = dis.readShort();
+         // Read the fields in place
+         PacketView view = new PacketView().wrap(dataPkt);
          
-         if(opcode != DATA) {
+         if(view.getOpCode() != DATA) {
             blockNo = 0;
-            
-            dis.close();
             return;
          }
          
-         blockNo = dis.readShort();
-         
-         data = new byte[dataPkt.getLength() - 4];
-         for(int i = 0; i < dataPkt.getLength() - 4; i++) {
-            data[i] = dis.readByte();
-         }
-         
-         dataLen = data.length;
+         blockNo = view.getBlockNo();
          
-         dis.close();
+         data = new byte[view.getPayloadLength()];
+         dataLen = view.copyPayload(data, 0);
       } //try
       catch(Exception e) {
       
@@ -466,21 +477,11 @@ class ACKPacket extends Packets {
     */
    public DatagramPacket build() {
       try {
-         ByteArrayOutputStream baos = new ByteArrayOutputStream(4); // 4 bytes total size, 2 for opcode, 2 for block number
-         DataOutputStream dos = new DataOutputStream(baos);
-      
-         dos.writeShort(ACK); // opcode
-         dos.writeShort(blockNo);
-      
-         // Close the DataOutputStream to flush the last of the packet out
-         // to the ByteArrayOutputStream
-         dos.close();
-      
+         byte[] holder = new byte[4]; // 4 bytes total size, 2 for opcode, 2 for block number
+         ByteBuffer buf = ByteBuffer.wrap(holder);
+         PacketCodec.encodeACK(buf, blockNo);
       
-         byte[] holder = baos.toByteArray(); // Get the underlying byte[]
-         DatagramPacket ackPkt = new DatagramPacket(holder, holder.length, toAddress, port); // Build a DatagramPacket from the byte[]
-      
-         return ackPkt;
+         return toDatagram(holder, buf, toAddress, port); // Build a DatagramPacket from the byte[]
       } //try
       catch(Exception e) {
          return null;
@@ -497,22 +498,15 @@ class ACKPacket extends Packets {
          toAddress = ackPkt.getAddress();
          port = ackPkt.getPort();
          
-         // Create a ByteArrayInputStream from the payload
-         // NOTE: give the packet data, offset, and length to the ByteArrayInputStream
-         ByteArrayInputStream bais = new ByteArrayInputStream(ackPkt.getData(), ackPkt.getOffset(), ackPkt.getLength());
-         DataInputStream dis = new DataInputStream(bais);
-         int opcode = dis.readShort();
+         // Read the fields in place
+         PacketView view = new PacketView().wrap(ackPkt);
          
-         if(opcode != ACK) {
+         if(view.getOpCode() != ACK) {
             blockNo = 0;
-            
-            dis.close();
             return;
          }
          
-         blockNo = dis.readShort();
-         
-         dis.close();
+         blockNo = view.getBlockNo();
       } //try
       catch(Exception e) {
       
@@ -576,24 +570,11 @@ class ERRORPacket extends Packets {
     */
    public DatagramPacket build() {
       try {
-         ByteArrayOutputStream baos = new ByteArrayOutputStream(2 + 2 + errorMsg.length() + 1); // Ranging in size. First two bytes is ERROR opcode, next two bytes are the ecode, then the remaining bytes are the message length plus a 0 at the end.
-         DataOutputStream dos = new DataOutputStream(baos);
+         byte[] holder = new byte[2 + 2 + errorMsg.length() + 1]; // Ranging in size. First two bytes is ERROR opcode, next two bytes are the ecode, then the remaining bytes are the message length plus a 0 at the end.
+         ByteBuffer buf = ByteBuffer.wrap(holder);
+         PacketCodec.encodeERROR(buf, errorNo, errorMsg);
       
-         dos.writeShort(ERROR); // opcode
-         dos.writeShort(errorNo);
-         
-         dos.writeBytes(errorMsg);
-         dos.writeByte(0);
-      
-         // Close the DataOutputStream to flush the last of the packet out
-         // to the ByteArrayOutputStream
-         dos.close();
-      
-      
-         byte[] holder = baos.toByteArray(); // Get the underlying byte[]
-         DatagramPacket errorPkt = new DatagramPacket(holder, holder.length, toAddress, port); // Build a DatagramPacket from the byte[]
-      
-         return errorPkt;
+         return toDatagram(holder, buf, toAddress, port); // Build a DatagramPacket from the byte[]
       } //try
       catch(Exception e) {
          return null;
@@ -610,23 +591,16 @@ class ERRORPacket extends Packets {
          toAddress = errorPkt.getAddress();
          port = errorPkt.getPort();
          
-         // Create a ByteArrayInputStream from the payload
-         // NOTE: give the packet data, offset, and length to the ByteArrayInputStream
-         ByteArrayInputStream bais = new ByteArrayInputStream(errorPkt.getData(), errorPkt.getOffset(), errorPkt.getLength());
-         DataInputStream dis = new DataInputStream(bais);
-         int opcode = dis.readShort();
-         if(opcode != ERROR) {
+         // Read the fields in place
+         PacketView view = new PacketView().wrap(errorPkt);
+         if(view.getOpCode() != ERROR) {
             errorNo = -1;
             errorMsg = "";
-            
-            dis.close();
             return;
          }
          
-         errorNo = dis.readShort();
-         errorMsg = readBytes(dis);
-         
-         dis.close();
+         errorNo = view.getErrorNo();
+         errorMsg = view.getErrorMsg();
       } //try
       catch(Exception e) {
       
@@ -657,4 +631,95 @@ class ERRORPacket extends Packets {
    public int getOpCode() {
       return ERROR;
    }
-} //class ERRORPacket
\ No newline at end of file
+} //class ERRORPacket
+
+
+
+/** 
+* OACKPacket
+* extends Packets
+* OUTER CLASS
+* contains a parameterized constructor that allows building and dissecting of the OACKPacket (RFC 2347)
+* The server sends it in place of the first DATA/ACK to tell the client which of its options were accepted
+*/
+class OACKPacket extends Packets {
+   // Attributes
+   private InetAddress toAddress;
+   private int port;
+   private Map<String, String> options = new LinkedHashMap<String, String>();
+   
+   /** 
+    * Default/empty constructor for OACKPacket 
+    */
+   public OACKPacket(){}
+   
+   /** 
+    * Parameterized constructor for OACKPacket 
+    * @param _toAddress IP Address
+    * @param _port the port used
+    * @param _options the options that were accepted and their final values
+    */
+   public OACKPacket(InetAddress _toAddress, int _port, Map<String, String> _options) {
+      toAddress = _toAddress;
+      port = _port;
+      options = _options;
+   }
+   
+   /** build() method
+    *
+    * Builds the OACKPacket with the given information
+    * @return DatagramPacket Returns the newly created OACKPacket
+    */
+   public DatagramPacket build() {
+      try {
+         byte[] holder = new byte[2 + PacketCodec.optionsLength(options)]; // 2 for the opcode, then name, 0, value, 0 for each option
+         ByteBuffer buf = ByteBuffer.wrap(holder);
+         PacketCodec.encodeOACK(buf, options);
+      
+         return toDatagram(holder, buf, toAddress, port); // Build a DatagramPacket from the byte[]
+      } //try
+      catch(Exception e) {
+         return null;
+      } //catch
+   } //build()
+   
+   /** dissect() method
+    *
+    * Dissects the OACKPacket, taking all of the options out of the packet.
+    * @param oackPkt Of type DatagramPacket, this packet of information will be broken up
+    */
+   public void dissect(DatagramPacket oackPkt) {
+      try {
+         toAddress = oackPkt.getAddress();
+         port = oackPkt.getPort();
+         
+         // Read the fields in place
+         PacketView view = new PacketView().wrap(oackPkt);
+         if(view.getOpCode() != OACK) {
+            options.clear();
+            return;
+         }
+         
+         options = view.getOptions();
+      } //try
+      catch(Exception e) {
+      
+      } //catch
+   } //dissect()
+   
+   /** getOptions() method
+    *
+    * @return the accepted options, names in lower case
+    */
+   public Map<String, String> getOptions() {
+      return options;
+   }
+   
+   /** getOpCode() method
+    *
+    * @return returns OACK: 6
+    */
+   public int getOpCode() {
+      return OACK;
+   }
+} //class OACKPacket
\ No newline at end of file
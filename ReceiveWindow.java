@@ -0,0 +1,103 @@
+/**
+ * ReceiveWindow - Receiver side of a windowed transfer (RFC 7440 windowsize).
+ * Blocks are only taken in order. The receiver ACKs once per windowSize blocks and after the
+ * last (short) block. A block ahead of the next one means one was lost, so the receiver ACKs the last
+ * block it has in order, once per stray window and not for every stray block, and the sender sends
+ * again from there when its timeout runs out. A block it has already is dropped without an ACK, except
+ * the last one it has: the sender timed out on the ACK for it, so that ACK is sent again.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class ReceiveWindow {
+   // Attributes
+   private int windowSize;
+   private long lastInOrder = 0;   // the highest block received with nothing missing before it
+   private int sinceAck = 0;       // blocks taken since the last ACK
+   private int stray = 0;          // out of order blocks since the last in order one
+   private boolean ackDue = false;
+   private boolean complete = false;
+
+   /**
+    * Parameterized constructor for ReceiveWindow
+    * @param _windowSize how many blocks the sender sends per ACK
+    */
+   public ReceiveWindow(int _windowSize) {
+      windowSize = Math.max(1, _windowSize);
+   }
+
+   /** accept() method
+    *
+    * @param blockNo the 16 bit block number of a DATA packet
+    * @param shortBlock true if the block is shorter than the block size, the last of the file
+    * @return true if it is the next block in order and should be written
+    */
+   public boolean accept(int blockNo, boolean shortBlock) {
+      if(!complete && ((blockNo - lastInOrder) & 0xFFFF) == 1) {
+         lastInOrder++;
+         sinceAck++;
+         stray = 0;
+         if(shortBlock) {
+            complete = true;
+         }
+         if(sinceAck >= windowSize || complete) {
+            ackDue = true;
+         }
+         return true;
+      }
+
+      int behind = (int)((lastInOrder - blockNo) & 0xFFFF);
+      if(behind == 0) {
+         ackDue = true;   // our last ACK got lost, the sender timed out and sent up to here again
+         return false;
+      }
+      if(behind < 0x8000) {
+         return false;    // an older copy, answering it would only send the sender back again
+      }
+
+      stray++;
+      if(stray == 1 || stray > windowSize) {   // first stray block, or a whole window of them since
+         ackDue = true;
+         stray = 1;
+      }
+      return false;
+   } //accept()
+
+   /** takeAckDue() method
+    *
+    * @return true if an ACK for getAckNo() should go out now
+    */
+   public boolean takeAckDue() {
+      boolean due = ackDue;
+      if(due) {
+         ackDue = false;
+         sinceAck = 0;
+      }
+      return due;
+   }
+
+   /** getAckNo() method
+    *
+    * @return the 16 bit block number to ACK, the last one received in order
+    */
+   public int getAckNo() {
+      return (int)(lastInOrder & 0xFFFF);
+   }
+
+   /** getLastInOrder() method
+    *
+    * @return the highest block received with nothing missing before it
+    */
+   public long getLastInOrder() {
+      return lastInOrder;
+   }
+
+   /** isComplete() method
+    *
+    * @return true once the last block of the file was taken
+    */
+   public boolean isComplete() {
+      return complete;
+   }
+
+} //class ReceiveWindow
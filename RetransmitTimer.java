@@ -0,0 +1,136 @@
+/**
+ * RetransmitTimer - How long one end of a transfer waits before sending again.
+ * The timeout follows the round trip time the way TCP does (Jacobson/Karels, RFC 6298):
+ * SRTT and RTTVAR are smoothed from samples and the timeout is SRTT + 4 * RTTVAR,
+ * so a transfer on a LAN waits a few milliseconds and a slow link still gets its seconds.
+ * Each timeout in a row doubles the wait. A packet that was sent again gives no sample (Karn),
+ * since there is no telling which copy was answered.
+ * A transfer is given up once nothing has moved for RETRY_BUDGET ms, however many tries that took.
+ * Times are System.nanoTime() values.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class RetransmitTimer implements TFTPConstants {
+   // Attributes
+   private long minTimeout = MIN_TIMEOUT * 1000000L;
+   private long maxTimeout = MAX_TIMEOUT * 1000000L;
+   private long srtt = -1;           // smoothed round trip time, -1 until the first sample
+   private long rttvar = 0;          // smoothed deviation of the round trip time
+   private long timeout;             // the wait before any backoff
+   private int backoff = 0;          // timeouts in a row
+   private long sentAt = 0;
+   private boolean timing = false;   // a sample is being taken
+   private boolean resent = false;   // something was sent again since the last progress, so no sample (Karn)
+   private long lastProgress = System.nanoTime();
+
+   /**
+    * Default constructor for RetransmitTimer, starts at DEFAULT_TIMEOUT
+    */
+   public RetransmitTimer() {
+      timeout = DEFAULT_TIMEOUT * 1000000L;
+   }
+
+   /**
+    * Parameterized constructor for RetransmitTimer
+    * @param maxSeconds the most to wait, the RFC 2349 timeout option
+    */
+   public RetransmitTimer(int maxSeconds) {
+      maxTimeout = Math.min(maxTimeout, maxSeconds * 1000000000L);
+      minTimeout = Math.min(minTimeout, maxTimeout);
+      timeout = Math.min(DEFAULT_TIMEOUT * 1000000L, maxTimeout);
+   }
+
+   /** sent() method
+    *
+    * Something new went out that the other end will answer. Starts a sample unless one is running
+    */
+   public void sent() {
+      if(!timing && !resent) {
+         sentAt = System.nanoTime();
+         timing = true;
+      }
+   }
+
+   /** progress() method
+    *
+    * The other end answered with something new: takes the sample and ends any backoff
+    */
+   public void progress() {
+      long now = System.nanoTime();
+      if(timing) {
+         sample(now - sentAt);
+      }
+      timing = false;
+      resent = false;
+      backoff = 0;
+      lastProgress = now;
+   } //progress()
+
+   /** timedOut() method
+    *
+    * The wait ran out, so the caller sends again. Doubles the next wait
+    * @return true if the retry budget is used up and the transfer should be given up
+    */
+   public boolean timedOut() {
+      timing = false;
+      resent = true;
+      backoff++;
+      return System.nanoTime() - lastProgress > RETRY_BUDGET * 1000000L;
+   } //timedOut()
+
+   /** getTimeout() method
+    *
+    * @return nanoseconds to wait for an answer, with the backoff
+    */
+   public long getTimeout() {
+      long wait = timeout;
+      for(int i = 0; i < backoff && wait < maxTimeout; i++) {
+         wait *= 2;
+      }
+      return Math.min(wait, maxTimeout);
+   } //getTimeout()
+
+   /** getDallyTime() method
+    *
+    * @return nanoseconds the receiver stays after its last ACK, long enough for the sender
+    *         to time out and send the last block again twice
+    */
+   public long getDallyTime() {
+      return Math.max(4 * getTimeout(), Math.min(DEFAULT_TIMEOUT * 1000000L, maxTimeout));
+   }
+
+   /** getRetries() method
+    *
+    * @return timeouts since the last progress
+    */
+   public int getRetries() {
+      return backoff;
+   }
+
+   /** getSRTT() method
+    *
+    * @return the smoothed round trip time in nanoseconds, -1 before the first sample
+    */
+   public long getSRTT() {
+      return srtt;
+   }
+
+   /**
+   * sample()
+   * RFC 6298: RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R|, SRTT = 7/8 SRTT + 1/8 R, RTO = SRTT + 4 RTTVAR
+   * @param rtt one round trip in nanoseconds
+   */
+   private void sample(long rtt) {
+      if(srtt < 0) {
+         srtt = rtt;
+         rttvar = rtt / 2;
+      }
+      else {
+         rttvar = (3 * rttvar + Math.abs(srtt - rtt)) / 4;
+         srtt = (7 * srtt + rtt) / 8;
+      }
+      timeout = Math.max(minTimeout, Math.min(maxTimeout, srtt + 4 * rttvar));
+   } //sample()
+
+} //class RetransmitTimer
@@ -0,0 +1,383 @@
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * SelectorEngine - Non-blocking transfer engine for TFTPServerCore.
+ * Every session still gets its own DatagramChannel on a port chosen by the OS (port switching),
+ * but instead of one thread per client the channels are spread across a few EventLoops,
+ * each a single thread running a Selector and driving its TFTPSessions.
+ * A loop also keeps the clock for its sessions: select() waits no longer than the earliest
+ * session deadline, and sessions past theirs get onTimeout().
+ * File reads are not non-blocking: a RRQ block that isn't in the BlockCache is read from the disk on the
+ * loop's thread, and a session missing a chunk another session is loading waits for it there too. While that
+ * read runs, every other session on the loop waits. That is cheap for hot files in the cache (a boot storm)
+ * and costly for cold files on a slow disk, so the thread engine, where a slow read holds up only its own
+ * transfer, stays the default.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/9/2021
+ */
+
+class SelectorEngine implements TFTPConstants {
+   // Attributes
+   private EventLoop[] loops;
+   private int nextLoop = 0;               // round robin over the loops, only touched by UDPServerThread
+   private File rootDir;
+   private Consumer<String> logger;
+   private TFTPServerCore.Listener listener = null;
+   private AtomicInteger sessionCount = new AtomicInteger();   // admitted sessions, running or waiting to be registered
+   private int maxSessions;                                     // 0 = no limit
+   private LongAdder rejected = new LongAdder();
+   private volatile boolean shuttingDown = false;
+
+   /**
+    * Parameterized constructor for SelectorEngine
+    * @param _nLoops how many event loops (threads) to shard sessions across
+    * @param _maxSessions how many sessions may run at the same time, 0 for no limit
+    * @param _rootDir the directory files are served from and uploaded to
+    * @param _logger where log messages go
+    */
+   public SelectorEngine(int _nLoops, int _maxSessions, File _rootDir, Consumer<String> _logger) throws IOException {
+      maxSessions = _maxSessions;
+      rootDir = _rootDir;
+      logger = _logger;
+      loops = new EventLoop[Math.max(1, _nLoops)];
+      for(int i = 0; i < loops.length; i++) {
+         loops[i] = new EventLoop(i);
+      }
+   }
+
+   /** setListener() method
+    *
+    * @param _listener passed to every session, set it before start()
+    */
+   public void setListener(TFTPServerCore.Listener _listener) {
+      listener = _listener;
+   }
+
+   /** start() method
+    *
+    * Starts the event loop threads
+    */
+   public void start() {
+      for(EventLoop loop : loops) {
+         loop.start();
+      }
+   }
+
+   /** accept() method
+    *
+    * Hands the first packet of a new conversation to one of the event loops
+    * @param firstPkt the RRQ/WRQ received on port 69
+    * @param handle its entry in the server's SessionTable, the session closes it
+    * @return false if the engine already has maxSessions sessions
+    */
+   public boolean accept(DatagramPacket firstPkt, SessionTable.Handle handle) {
+      if(sessionCount.incrementAndGet() > maxSessions && maxSessions > 0) {
+         sessionCount.decrementAndGet();
+         rejected.increment();
+         return false;
+      }
+      EventLoop loop = loops[nextLoop];
+      nextLoop = (nextLoop + 1) % loops.length;
+      loop.pending.add(new Request(firstPkt, handle));
+      loop.selector.wakeup();
+      return true;
+   }
+
+   /** shutdown() method
+    *
+    * Stops taking new sessions. Sessions already running finish, then the loops exit
+    */
+   public void shutdown() {
+      shuttingDown = true;
+      for(EventLoop loop : loops) {
+         loop.selector.wakeup();
+      }
+   }
+
+   /** getSessionCount() method
+    *
+    * @return the number of sessions currently running across all loops
+    */
+   public int getSessionCount() {
+      return sessionCount.get();
+   }
+
+   /** getRejected() method
+    *
+    * @return sessions turned away with "server busy"
+    */
+   public long getRejected() {
+      return rejected.sum();
+   }
+
+   /** getLoopCount() method
+    *
+    * @return the number of event loops
+    */
+   public int getLoopCount() {
+      return loops.length;
+   }
+
+   /**
+   * log()
+   * @param msgLevel TFTPLog.ERROR for what went wrong, TFTPLog.INFO for the rest
+   * @param message passed on to the server's log
+   */
+   private void log(int msgLevel, String message) {
+      TFTPLog.logTo(logger, msgLevel, message);
+   }
+
+   /**
+   * Request
+   * INNER CLASS
+   * a first packet waiting for its event loop, with its SessionTable entry
+   */
+   private static class Request {
+      private DatagramPacket firstPkt;
+      private SessionTable.Handle handle;
+
+      public Request(DatagramPacket _firstPkt, SessionTable.Handle _handle) {
+         firstPkt = _firstPkt;
+         handle = _handle;
+      }
+   } //Request
+
+   /**
+   * EventLoop
+   * extends Thread
+   * INNER CLASS
+   * one Selector, one thread, many sessions. Everything a loop owns is only touched by its own thread,
+   * so the receive buffer and packet are shared by all of its sessions. The buffer is big enough for
+   * the biggest block size, whatever each session negotiated
+   */
+   class EventLoop extends Thread {
+      private Selector selector;
+      private ConcurrentLinkedQueue<Request> pending = new ConcurrentLinkedQueue<Request>();
+      private ConcurrentLinkedQueue<TFTPSession> requestedAgain = new ConcurrentLinkedQueue<TFTPSession>();   // their client sent the RRQ/WRQ again
+      private byte[] holder = new byte[MAX_DATAGRAM];
+      private ByteBuffer inBuf = ByteBuffer.wrap(holder);
+      private DatagramPacket incoming = new DatagramPacket(holder, MAX_DATAGRAM);
+      private int active = 0;   // sessions registered on this loop
+      private long nextCheck = Long.MAX_VALUE;   // earliest deadline of any session on this loop (maybe earlier, never later)
+
+      public EventLoop(int n) throws IOException {
+         super("tftp-loop-" + n);
+         setDaemon(true);
+         selector = Selector.open();
+      }
+
+      public void run() {
+         try {
+            while(true) {
+               long wait = nextCheck - System.nanoTime();
+               if(nextCheck == Long.MAX_VALUE) {
+                  selector.select();   // no session waiting on a timeout
+               }
+               else if(wait > 0) {
+                  selector.select(Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait + 999999)));
+               }
+               else {
+                  selector.selectNow();
+               }
+               registerPending();
+               doRequestsAgain();
+
+               Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+               while(it.hasNext()) {
+                  SelectionKey key = it.next();
+                  it.remove();
+                  if(key.isValid() && key.isReadable()) {
+                     doRead(key);
+                  }
+               }
+
+               if(System.nanoTime() >= nextCheck) {
+                  checkTimeouts();
+               }
+
+               if(shuttingDown && active == 0 && pending.isEmpty()) {
+                  break;
+               }
+            } //while
+         }
+         catch(IOException ioe) {
+            log(TFTPLog.ERROR, "IOException in " + getName() + "... " + ioe + "\n");
+         }
+         finally {
+            for(SelectionKey key : selector.keys()) {
+               if(key.isValid()) {
+                  endSession(key);
+               }
+            }
+            try {
+               selector.close();
+            }
+            catch(IOException ioe) {}
+         }
+      } //run()
+
+      /**
+      * registerPending()
+      * opens a channel for each new conversation and starts its session
+      */
+      private void registerPending() {
+         Request request;
+         while((request = pending.poll()) != null) {
+            DatagramPacket firstPkt = request.firstPkt;
+            DatagramChannel channel = null;
+            try {
+               // So - the new channel is on a DIFFERENT port, chosen by the OS. Connecting it to the client means we only hear from that client.
+               channel = DatagramChannel.open();
+               channel.configureBlocking(false);
+               channel.bind(null);
+               channel.connect(firstPkt.getSocketAddress());
+               log(TFTPLog.INFO, "New port: " + firstPkt.getPort() + "\n");
+               log(TFTPLog.INFO, "Client connected\n");
+
+               final DatagramChannel ch = channel;
+               TFTPSession session = new TFTPSession(firstPkt, rootDir,
+                  new TFTPSession.Output() {
+                     public void send(ByteBuffer pkt) throws IOException {
+                        try {
+                           ch.write(pkt);
+                        }
+                        catch(PortUnreachableException pue) {
+                           ch.write(pkt); // the ICMP error was for an earlier packet and is cleared now
+                        }
+                     }
+                  }, logger);
+               session.setListener(listener);
+               session.setHandle(request.handle);
+               session.start();
+
+               if(session.isDone()) {
+                  session.close();
+                  channel.close();
+                  sessionCount.decrementAndGet();
+               }
+               else {
+                  channel.register(selector, SelectionKey.OP_READ, session);
+                  active++;
+                  nextCheck = Math.min(nextCheck, session.getDeadline());
+                  final TFTPSession again = session;
+                  request.handle.setResend(   // UDPServerThread, when the request comes again: the loop's thread does it
+                     new Runnable() {
+                        public void run() {
+                           requestedAgain.add(again);
+                           selector.wakeup();
+                        }
+                     });
+               }
+            }
+            catch(IOException ioe) {
+               log(TFTPLog.ERROR, "IOException opening session channel... " + ioe + "\n");
+               request.handle.close();
+               try {
+                  if(channel != null) {
+                     channel.close();
+                  }
+               }
+               catch(IOException ioe1) {}
+               sessionCount.decrementAndGet();
+            }
+            finally {
+               BufferPool.shared().release(firstPkt); // the session is done with it once start() returns
+            }
+         } //while
+      } //registerPending()
+
+      /**
+      * doRequestsAgain()
+      * sends the first reply again for sessions whose client sent its request again
+      */
+      private void doRequestsAgain() {
+         TFTPSession session;
+         while((session = requestedAgain.poll()) != null) {
+            session.requestAgain();
+            nextCheck = Math.min(nextCheck, session.getDeadline());
+         }
+      } //doRequestsAgain()
+
+      /**
+      * doRead()
+      * receives one packet for a session and lets the session answer it
+      */
+      private void doRead(SelectionKey key) {
+         DatagramChannel channel = (DatagramChannel)key.channel();
+         TFTPSession session = (TFTPSession)key.attachment();
+         try {
+            inBuf.clear();
+            int n = channel.read(inBuf);
+            if(n <= 0) {
+               return;
+            }
+            incoming.setData(holder, 0, n);
+            incoming.setSocketAddress(channel.getRemoteAddress());
+            session.handle(incoming);
+         }
+         catch(PortUnreachableException pue) {
+            // An ICMP error for something sent earlier, it can come ahead of packets still queued.
+            // The session's timeout decides if the client is really gone
+         }
+         catch(IOException ioe) {
+            log(TFTPLog.ERROR, "IOException in session... " + ioe + "\n");
+            session.close();
+         }
+
+         if(session.isDone()) {
+            endSession(key);
+         }
+         else {
+            nextCheck = Math.min(nextCheck, session.getDeadline());
+         }
+      } //doRead()
+
+      /**
+      * checkTimeouts()
+      * calls onTimeout() for every session past its deadline and finds the next deadline
+      */
+      private void checkTimeouts() {
+         long now = System.nanoTime();
+         nextCheck = Long.MAX_VALUE;
+         for(SelectionKey key : selector.keys()) {
+            if(!key.isValid()) {
+               continue;
+            }
+            TFTPSession session = (TFTPSession)key.attachment();
+            if(now >= session.getDeadline()) {
+               session.onTimeout();
+            }
+            if(session.isDone()) {
+               endSession(key);
+            }
+            else {
+               nextCheck = Math.min(nextCheck, session.getDeadline());
+            }
+         }
+      } //checkTimeouts()
+
+      /**
+      * endSession()
+      * closes the session's files and channel
+      */
+      private void endSession(SelectionKey key) {
+         ((TFTPSession)key.attachment()).close();
+         key.cancel();
+         try {
+            key.channel().close();
+         }
+         catch(IOException ioe) {}
+         active--;
+         sessionCount.decrementAndGet();
+      } //endSession()
+
+   } //EventLoop
+
+} //class SelectorEngine
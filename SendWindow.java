@@ -0,0 +1,109 @@
+/**
+ * SendWindow - Sender side of a windowed transfer (RFC 7440 windowsize).
+ * Up to windowSize blocks go out before the sender waits for an ACK. A new ACK slides the window up to it
+ * and never moves the sending back, the blocks past it are already on their way. Only a timeout sends again,
+ * from right after the last acknowledged block. A duplicate ACK sends nothing at all, so a lost
+ * or late packet costs one retransmit and not twice the traffic from then on (Sorcerer's Apprentice).
+ * The TFTPSession RRQ path and the client's upload both send through one, and count each ACK it drops
+ * as a duplicate in their TFTPMetrics.Transfer.
+ * Block numbers are counted as longs here so a transfer can run past block 65535;
+ * only the low 16 bits go on the wire. Block 0 stands for whatever gets the transfer going
+ * (the OACK, or the client's WRQ) when that has to be acknowledged as well.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class SendWindow {
+   // Attributes
+   private int windowSize;
+   private long lastAcked;       // the highest block the receiver has confirmed
+   private long next;            // the next block to send
+   private long lastBlock = -1;  // the short block that ends the file, once it has been read
+
+   /**
+    * Parameterized constructor for SendWindow
+    * @param _windowSize how many blocks may be out without an ACK
+    * @param _lastAcked -1 if block 0 still needs an ACK, else 0
+    */
+   public SendWindow(int _windowSize, long _lastAcked) {
+      windowSize = Math.max(1, _windowSize);
+      lastAcked = _lastAcked;
+      next = lastAcked + 1;
+   }
+
+   /** setWindowSize() method
+    *
+    * A client only learns the window size from the OACK, after its request went out as block 0
+    * @param _windowSize how many blocks may be out without an ACK
+    */
+   public void setWindowSize(int _windowSize) {
+      windowSize = Math.max(1, _windowSize);
+   }
+
+   /** hasNext() method
+    *
+    * @return true if the window allows another block to be sent now
+    */
+   public boolean hasNext() {
+      return next <= lastAcked + windowSize && (lastBlock < 0 || next <= lastBlock);
+   }
+
+   /** next() method
+    *
+    * @return the block to send, the caller sends it before asking again
+    */
+   public long next() {
+      return next++;
+   }
+
+   /** setLastBlock() method
+    *
+    * The block just read was short, so there is nothing after it
+    * @param block the last block of the file
+    */
+   public void setLastBlock(long block) {
+      lastBlock = block;
+   }
+
+   /** ack() method
+    *
+    * Takes an ACK off the wire. Duplicate and stale ACKs are ignored, answering them would send
+    * every block twice (Sorcerer's Apprentice). A new one moves the window up to it. The next block
+    * to send stays where it was: the ones in flight past the ACK aren't sent again unless a timeout says so
+    * @param blockNo the 16 bit block number from the ACK
+    * @return true if the ACK confirmed something new
+    */
+   public boolean ack(int blockNo) {
+      long delta = (blockNo - lastAcked) & 0xFFFF;
+      if(delta == 0 || lastAcked + delta >= next) {
+         return false;
+      }
+      lastAcked += delta;   // below next, checked above, so next stays ahead of it
+      return true;
+   } //ack()
+
+   /** rewind() method
+    *
+    * After a timeout: send again from the block after the last one acknowledged
+    */
+   public void rewind() {
+      next = lastAcked + 1;
+   }
+
+   /** isComplete() method
+    *
+    * @return true once the last block of the file has been acknowledged
+    */
+   public boolean isComplete() {
+      return lastBlock >= 0 && lastAcked >= lastBlock;
+   }
+
+   /** getLastAcked() method
+    *
+    * @return the highest block confirmed so far
+    */
+   public long getLastAcked() {
+      return lastAcked;
+   }
+
+} //class SendWindow
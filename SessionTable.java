@@ -0,0 +1,161 @@
+import java.net.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * SessionTable - The conversations running on a server, by client address, client port, opcode and file name.
+ * A client that doesn't hear back soon enough sends its RRQ/WRQ again, and without this every copy
+ * on port 69 would start another session, with another socket and another open file, all answering
+ * the same client. UDPServerThread opens an entry for each request before it goes to an engine, so a
+ * copy that comes while the first is still waiting for a thread or an event loop is caught too.
+ * A copy is absorbed, or, once the session has sent its first reply, handed to it: the session sends
+ * that reply again if the client never answered it, and drops the copy if it has.
+ * The entry is removed when the session closes, or when no session is made for it.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class SessionTable implements TFTPConstants {
+   // Attributes
+   private ConcurrentHashMap<Key, Handle> sessions = new ConcurrentHashMap<Key, Handle>();
+
+   // Stats
+   private LongAdder opened = new LongAdder();
+   private LongAdder passed = new LongAdder();     // copies handed to their session, it sends its first reply again if the client never answered it
+   private LongAdder absorbed = new LongAdder();   // copies dropped, the session hadn't sent its first reply yet
+
+   /** open() method
+    *
+    * Puts a first packet from port 69 in the table, unless it is a copy of one already there
+    * @param firstPkt the packet
+    * @return its entry, to be closed when its session is, or null for a copy (the caller drops it).
+    *         Anything but a RRQ/WRQ gets an entry that isn't in the table, its session only sends an error
+    */
+   public Handle open(DatagramPacket firstPkt) {
+      PacketView view = new PacketView().wrap(firstPkt);
+      int opcode = view.getLength() >= 2 ? view.getOpCode() : 0;
+      if(opcode != RRQ && opcode != WRQ) {
+         return new Handle(null);
+      }
+      Key key = new Key((InetSocketAddress)firstPkt.getSocketAddress(), opcode, view.getString(0));
+      Handle handle = new Handle(key);
+      Handle running = sessions.putIfAbsent(key, handle);
+      if(running == null) {
+         opened.increment();
+         return handle;
+      }
+      running.requestAgain();
+      return null;
+   } //open()
+
+   /** size() method
+    *
+    * @return conversations in the table right now
+    */
+   public int size() {
+      return sessions.size();
+   }
+
+   /** getPassed() method
+    *
+    * @return copies of a request handed to their session
+    */
+   public long getPassed() {
+      return passed.sum();
+   }
+
+   /** getAbsorbed() method
+    *
+    * @return copies of a request that were dropped
+    */
+   public long getAbsorbed() {
+      return absorbed.sum();
+   }
+
+   /** toString() method
+    *
+    * @return one line of stats for the log
+    */
+   public String toString() {
+      return String.format("sessions %d, opened %d, requests again %d (passed to the session %d, absorbed %d)",
+         size(), opened.sum(), getPassed() + getAbsorbed(), getPassed(), getAbsorbed());
+   }
+
+   /**
+   * Handle
+   * INNER CLASS
+   * one conversation's entry in the table
+   */
+   class Handle {
+      private Key key;                       // null if it isn't in the table
+      private volatile Runnable resend = null;
+
+      private Handle(Key _key) {
+         key = _key;
+      }
+
+      /** setResend() method
+       *
+       * Once the session has sent its first reply: how to have it send that again, on whatever
+       * thread drives the session. Copies that came before this are absorbed
+       * @param _resend runs TFTPSession.requestAgain() for the session
+       */
+      public void setResend(Runnable _resend) {
+         resend = _resend;
+      }
+
+      /** close() method
+       *
+       * Takes the entry out of the table, the next request like it is a new conversation. Safe to call twice
+       */
+      public void close() {
+         if(key != null) {
+            sessions.remove(key, this);
+         }
+      }
+
+      /**
+      * requestAgain()
+      * a copy of the request came, on UDPServerThread
+      */
+      private void requestAgain() {
+         Runnable r = resend;
+         if(r == null) {
+            absorbed.increment();
+            return;
+         }
+         passed.increment();
+         r.run();
+      } //requestAgain()
+   } //Handle
+
+   /**
+   * Key
+   * INNER CLASS
+   * who asked for what
+   */
+   private static class Key {
+      private InetSocketAddress client;
+      private int opcode;
+      private String fileName;
+
+      public Key(InetSocketAddress _client, int _opcode, String _fileName) {
+         client = _client;
+         opcode = _opcode;
+         fileName = _fileName;
+      }
+
+      public boolean equals(Object o) {
+         if(!(o instanceof Key)) {
+            return false;
+         }
+         Key k = (Key)o;
+         return opcode == k.opcode && client.equals(k.client) && fileName.equals(k.fileName);
+      }
+
+      public int hashCode() {
+         return (client.hashCode() * 31 + opcode) * 31 + fileName.hashCode();
+      }
+   } //Key
+
+} //class SessionTable
@@ -10,6 +10,7 @@ import javafx.geometry.*;
 import java.awt.Dimension;
 import java.awt.Toolkit;
 import java.util.concurrent.*;
+import java.util.function.*;
 
 import java.util.*;
 import java.net.*;
@@ -31,6 +32,8 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
    // These are for Row1
    private Label lblServerIP = new Label("Server Name or IP: ");
    private TextField tfServerIP = new TextField();
+   private Label lblParallel = new Label("  Parallel: ");
+   private TextField tfParallel = new TextField("4"); // how many transfers in the queue run at once
 
    // These will be in Row2
    private Button btnChooseFolder = new Button("Choose Folder");
@@ -39,22 +42,36 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
    // Components - CENTER
    private Button btnDownload = new Button("Download");
    private Button btnUpload = new Button("Upload");
+   private Label lblBlksize = new Label("  Block Size: ");
+   private TextField tfBlksize = new TextField("1428"); // RFC 2348 blksize to ask for, 512 sends a plain request
+   private Label lblWindowsize = new Label("  Window: ");
+   private TextField tfWindowsize = new TextField("8"); // RFC 7440 windowsize to ask for, 1 is lock-step
    private Label lblLog = new Label("Log:");
    private TextArea taLog = new TextArea();
 
    // IO attributes
    private DatagramSocket socket = null;
-   private InetAddress serverIP = null;
-   private DataInputStream dis;
-   private DataOutputStream dos;
    
    // Screen stuff
    private Dimension size = Toolkit.getDefaultToolkit().getScreenSize(); // get screen size
    private double width = size.width;
    private double height = size.height;
    
+   // The log, drained to taLog in batches
+   private TFTPLog logger = new TFTPLog(
+      new Consumer<String>() {
+         public void accept(String batch) {
+            Platform.runLater(
+               new Runnable() {
+                  public void run() {
+                     taLog.appendText(batch);
+                  }
+               });
+         }
+      });
+   
    // Client Thread stuff
-   private ClientThread ct;  
+   private ClientQueue queue; // every upload and download, each a ClientThread with its own socket and file
    private String cmd = null;
    
    //Filenames stuff
@@ -65,7 +82,7 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
    private Label pbProgress = new Label("Upload Bar: ");
    private Label pbPercent = new Label("");
    private ProgressBar pbBar = new ProgressBar();
-   private int totalSize = 0; //for the progress bar
+   private volatile int lastPercent = -1; //the percent shown, the bar is only redrawn when it changes
    private StackPane sPane;
    private FlowPane fpBot;
 
@@ -80,6 +97,7 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
     * start - draw and set up GUI
     */
    public void start(Stage _stage) {
+      TFTPMetrics.publish(); // on JMX as tftp:type=Client
       stage = _stage;
       stage.setTitle("TFTPClient - IllegalSkillsException");
       stage.setOnCloseRequest(
@@ -93,7 +111,8 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
       FlowPane fpRow1 = new FlowPane(8,8);
       fpRow1.setAlignment(Pos.CENTER);
       tfServerIP.setPrefColumnCount(15);
-      fpRow1.getChildren().addAll(lblServerIP, tfServerIP);
+      tfParallel.setPrefColumnCount(3);
+      fpRow1.getChildren().addAll(lblServerIP, tfServerIP, lblParallel, tfParallel);
       root.getChildren().add(fpRow1);
    
       // ROW2 - Textfield for a sentence to send and Send button
@@ -105,7 +124,9 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
       // Buttons - Upload and Download
       FlowPane fpbtns = new FlowPane();
       fpbtns.setAlignment(Pos.CENTER);
-      fpbtns.getChildren().addAll(btnUpload, btnDownload);
+      tfBlksize.setPrefColumnCount(5);
+      tfWindowsize.setPrefColumnCount(3);
+      fpbtns.getChildren().addAll(btnUpload, btnDownload, lblBlksize, tfBlksize, lblWindowsize, tfWindowsize);
       root.getChildren().add(fpbtns);
       
       // LOG - Label + text area
@@ -141,6 +162,22 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
       stage.setScene(scene);
       stage.show();      
       
+      // The transfer queue, the progress bar shows all of its transfers together
+      queue = new ClientQueue(getParallel(), logger,
+         new ClientQueue.Listener() {
+            public void finished(ClientQueue.Transfer t) {
+               log(t + "\n"); // bytes, seconds and MB/s
+            }
+            public void drained(ClientQueue q) {
+               log("Queue done: " + q + "\n");
+            }
+         },
+         new ClientThread.Progress() {
+            public void show(long done, long total) {
+               showProgress(done, total);
+            }
+         });
+      
       // Open a DatagramSocket for IO
       try {
          socket = new DatagramSocket();
@@ -171,61 +208,40 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
             //make a filechooser for choosing file to upload
             FileChooser chooserWindow = new FileChooser(); //make the file chooser appear
             chooserWindow.setInitialDirectory(new File(tfDirectory.getText()));
-            chooserWindow.setTitle("Choose the Local File to Upload");
+            chooserWindow.setTitle("Choose the Local Files to Upload");
             chooserWindow.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("All Files", "*.*"));
-            fileTo = chooserWindow.showOpenDialog(stage); //make the save dialog appear
-            try {
-               this.clientFileName = fileTo.getName();
-            }
-            catch (NullPointerException npe) {
-               log("You did not choose a file to upload..." + npe + "\n");
-               doDisconnect();
-               return;
-            }
-               
-            //make a textinputdialog for selecting the name for the file
-            TextInputDialog input = new TextInputDialog();
-            input.setHeaderText("Enter the name to file on the server for saving the upload");
-            input.setTitle("Remote Name");
-            input.setX((width / 2 - (475 / 2)) + 310); //set the textinputdialog ontop of the client
-            input.setY(height / 2 - (315 / 2));
-            input.showAndWait();
-               
-            fileName = input.getEditor().getText();
-               
+            List<File> files = chooserWindow.showOpenMultipleDialog(stage); //make the open dialog appear, any number of files
+            
             //if the user did not select a file to upload
-            if (fileTo == null) {
+            if (files == null || files.isEmpty()) {
                log("You did not choose a file to upload... cancelling upload.\n");
                doDisconnect();
                return;
             }
-            //if the user did put in a file
-            else {   
-               //create the progress bar GUI
-               sPane = new StackPane();
-               fpBot = new FlowPane();
-               fpBot.setAlignment(Pos.CENTER);
-               fpBot.getChildren().addAll(pbProgress);
-               sPane.getChildren().addAll(pbBar, pbPercent);
-               root.getChildren().addAll(fpBot, sPane);
+            
+            fileTo = files.get(0);
+            this.clientFileName = fileTo.getName();
+            if (files.size() == 1) {
+               //make a textinputdialog for selecting the name for the file
+               TextInputDialog input = new TextInputDialog();
+               input.setHeaderText("Enter the name to file on the server for saving the upload");
+               input.setTitle("Remote Name");
+               input.setX((width / 2 - (475 / 2)) + 310); //set the textinputdialog ontop of the client
+               input.setY(height / 2 - (315 / 2));
+               input.showAndWait();
                
-               try {
-                  dis = new DataInputStream(new FileInputStream(fileTo)); //open the file, clear it's contents
-               }
-               catch(FileNotFoundException fnfe){
-                  log("File Not Found..." + fnfe);
-                  return;
-               }
-            } //else
-            ct = new ClientThread(label);
-            ct.start(); //start the thread
+               fileName = input.getEditor().getText();
+            }
+            else {
+               log("Uploading " + files.size() + " files, each under its own name.\n");
+            }
+            
+            showQueueBar("Upload Bar: "); //create the progress bar GUI
+            for (File f : files) {
+               enqueue(label, files.size() == 1 ? fileName : f.getName(), f);
+            }
             break;
          case "Download":
-            // Make the progress bars gone after upload happens
-            if (sPane != null && fpBot != null) { 
-               sPane.setVisible(false);
-               fpBot.setVisible(false);
-            }
             // TextInputDialog to get the name of the file
             TextInputDialog input1 = new TextInputDialog();
             input1.setHeaderText("Enter the name of the remote file to download");
@@ -245,21 +261,12 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
             chooserWindow1.getExtensionFilters().addAll(new FileChooser.ExtensionFilter("All Files", "*.*"));
             fileTo = chooserWindow1.showSaveDialog(stage); //make the save dialog appear
             
-            try {
-               // if the user does not choose a place to save
-               if (fileTo == null) {
-                  log("You did not choose a place to save... choosing default directory.\n");
-                  dos = new DataOutputStream(new FileOutputStream(fileName, false)); //open the file, clear it's contents
-               }
-               else {
-                  dos = new DataOutputStream(new FileOutputStream(fileTo, false)); //open the file, clear it's contents
-               }
-            } //try
-            catch(FileNotFoundException fnfe) {
-               log("File Not Found..." + fnfe);
+            // if the user does not choose a place to save
+            if (fileTo == null) {
+               log("You did not choose a place to save... choosing default directory.\n");
             }
-            ct = new ClientThread(label);
-            ct.start(); //start the thread
+            showQueueBar("Download Bar: ");
+            enqueue(label, fileName, fileTo != null ? fileTo : new File(fileName));
             break;
       } //switch
    } //handle(ActionEvent ae)
@@ -267,44 +274,128 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
   /** 
    * log(String message)
    * @param gets the message to be appended to the text area
-   * utility method "log" to log a message in a thread safe manner
+   * utility method "log" to log a message in a thread safe manner, through TFTPLog
    */
    private void log(String message) {
+      logger.accept(message);
+   } // of log
+   
+  /** 
+   * addProgressBar()
+   * puts a fresh progress bar under the log, in place of the last one
+   * @param title what the bar is for
+   */
+   private void addProgressBar(String title) {
+      if (sPane != null && fpBot != null) { 
+         root.getChildren().removeAll(fpBot, sPane);
+      }
+      pbProgress.setText(title);
+      pbBar.setProgress(0);
+      pbPercent.setText("");
+      lastPercent = -1;
+      sPane = new StackPane();
+      fpBot = new FlowPane();
+      fpBot.setAlignment(Pos.CENTER);
+      fpBot.getChildren().addAll(pbProgress);
+      sPane.getChildren().addAll(pbBar, pbPercent);
+      root.getChildren().addAll(fpBot, sPane);
+   } //addProgressBar()
+   
+  /** 
+   * showQueueBar()
+   * a fresh progress bar if the queue is idle, or the one already there shows the new
+   * transfers too. A download alone has no size until the server says
+   * @param title what the bar is for
+   */
+   private void showQueueBar(String title) {
+      if (queue.isIdle()) {
+         addProgressBar(title);
+         if (title.startsWith("Download")) {
+            pbBar.setProgress(ProgressBar.INDETERMINATE_PROGRESS); //until the server says how big the file is
+         }
+      }
+      else {
+         pbProgress.setText("Queue Bar: ");
+      }
+   } //showQueueBar()
+   
+  /** 
+   * showProgress()
+   * moves the progress bar, in a thread safe manner
+   * @param done bytes sent or received so far, by every transfer in the queue
+   * @param total bytes in all of their files, as far as they are known
+   */
+   private void showProgress(long done, long total) {
+      final double value = total > 0 ? done / (double)total : 1;
+      int percent = (int)(value * 100);
+      if(percent == lastPercent) {
+         return; //only when the number changes, not once per block
+      }
+      lastPercent = percent;
       Platform.runLater(
-         new Runnable() {
+         new Runnable() { 
             public void run() {
-               taLog.appendText(message);
+               pbBar.setProgress(value);
+               pbPercent.setText(String.valueOf((int)(value * 100)));
             }
          });
-   } // of log
+   } //showProgress()
    
   /** 
-   * doConnect()
-   * 
-   * Connects to server using TFTP_PORT
+   * getBlksize()
+   * @return the block size typed in, or 512 if it isn't a number of at least 8
    */
-   public void doConnect() {
-      String ip = "";
-      //if the user does not put a IP in, default to localhost
-      if(tfServerIP.getText().equals("")) {
-         ip = "localhost";
+   private int getBlksize() {
+      int blksize = TFTPOptions.parseBlksize(tfBlksize.getText());
+      if(blksize < 0) {
+         log("Block size must be a number from " + MIN_BLKSIZE + " to " + MAX_BLKSIZE + ", using " + DEFAULT_BLKSIZE + "\n");
+         return DEFAULT_BLKSIZE;
       }
-      else {
-         ip = tfServerIP.getText(); //ip is what's in the textfield that the user has put in
+      return Math.min(blksize, MAX_BLKSIZE);
+   } //getBlksize()
+   
+  /** 
+   * getWindowsize()
+   * @return the window size typed in, or 1 if it isn't a number from 1 to 65535
+   */
+   private int getWindowsize() {
+      int windowsize = TFTPOptions.parseWindowsize(tfWindowsize.getText());
+      if(windowsize < 0) {
+         log("Window size must be a number from 1 to " + MAX_WINDOWSIZE + ", using " + DEFAULT_WINDOWSIZE + "\n");
+         return DEFAULT_WINDOWSIZE;
       }
-            
+      return Math.min(windowsize, MAX_WINDOWSIZE);
+   } //getWindowsize()
+   
+  /** 
+   * getParallel()
+   * @return how many transfers to run at once, or 4 if it isn't a number from 1 to 64
+   */
+   private int getParallel() {
       try {
-         serverIP = InetAddress.getByName(ip); //set the ip
-               
-         socket = new DatagramSocket(); //create a socket
-         socket.setSoTimeout(1000);     //set a timeout
-      } //try
-      catch (Exception e) {
-         log("Connection failed..." + e + "\n");
-         return;
-      } // catch
-               
-   } //doConnect()
+         int parallel = Integer.parseInt(tfParallel.getText().trim());
+         if(parallel >= 1 && parallel <= 64) {
+            return parallel;
+         }
+      }
+      catch(NumberFormatException nfe) {
+      }
+      log("Parallel must be a number from 1 to 64, using 4\n");
+      return 4;
+   } //getParallel()
+   
+  /** 
+   * enqueue()
+   * puts a transfer in the queue, with the server, block size and window size typed in.
+   * It starts once one of the Parallel slots is free
+   * @param label "Upload" or "Download"
+   * @param remote the file's name on the server
+   * @param localFile the file to upload, or where to save the download
+   */
+   private void enqueue(String label, String remote, File localFile) {
+      queue.setConcurrency(getParallel());
+      queue.add(label, tfServerIP.getText(), TFTP_PORT, remote, localFile, getBlksize(), getWindowsize());
+   } //enqueue()
    
   /** 
    * doDisconnect()
@@ -352,380 +443,4 @@ public class TFTPClient extends Application implements EventHandler<ActionEvent>
                    
    } //doChooseFolder()
    
-  /** 
-   * class ClientThread
-   * extends Thread
-   * contains the run method for the threads + doUpload(), doDownload(), and doChooseFolder()
-   */
-   class ClientThread extends Thread {
-      // Attributes
-      private String cmd;
-      
-     /** 
-      * parameterized constructor for ClientThread 
-      * @param cmd string command for the run()
-      */
-      public ClientThread(String cmd) {
-         this.cmd = cmd;
-      }
-      
-      public void run() {
-         if(cmd.equals("Upload")) {
-            doUpload();
-         }
-         else if(cmd.equals("Download")) {
-            doDownload();
-         }
-         else if(cmd.equals("Choose Folder")) {
-            doChooseFolder();
-         }
-      } //run()
-   
-      /** 
-      * doUpload()
-      * uses FileChooser
-      * uploads a file to the server using the TFTP protocol
-      */
-      public void doUpload() {
-      
-         // ATTRIBUTES:
-         int blockNo = 0;
-         byte[] data = new byte[512];
-         int port = -1;
-         boolean continueLoop = true;
-         int size = 0;
-         totalSize = 0; //for more than 1 uploads
-            
-         try {
-            // Connect to server
-            doConnect();    
-            
-            Long startTime = System.nanoTime();
-            
-            //InetAddress _toAddress, int _port, String _fileName, String _mode
-            WRQPacket wrqPkt = new WRQPacket(serverIP, TFTP_PORT, fileName, "octet"); //make a WRQPacket
-            socket.send(wrqPkt.build()); //PACKET 1                                     send it out
-               
-            //LOOP START HERE
-            while(continueLoop) {
-               byte[] holder = new byte[MAX_PACKET];                             //create a holder of byte array which the size is MAX_PACKET
-               DatagramPacket incoming = new DatagramPacket(holder, MAX_PACKET); //make the incoming datagram packet
-               socket.receive(incoming); //PACKET 2                                receive the packet
-                  
-               port = incoming.getPort(); //get the port
-                  
-               if(readACKPacket(incoming, blockNo)) {       // if true then correct
-                  data = new byte[512];                     // clear byte[] 
-                  size = 0;
-                  for (int i = 0; i < data.length-1; i++) { //for all the data
-                     data[i] = dis.readByte();              //read in the data
-                     size++;
-                     totalSize++;                           //increment every byte no matter what block
-                        
-                     final int temp = totalSize;            //final for platform.runlater
-                     double value = ((int)totalSize / (double)fileTo.length()) * 100;
-                        
-                     //thread safe platform.runlater
-                     Platform.runLater(
-                              new Runnable() { 
-                                 public void run() {
-                                    pbBar.setProgress((int)temp / (double)fileTo.length());
-                                    pbPercent.setText(String.valueOf((int)value));
-                                 }
-                              });
-                  } //for
-                     
-                  blockNo++; // Increment block number
-                     
-                  DATAPacket secondPkt = new DATAPacket(serverIP, port, blockNo, data, size); //make the second packet
-                     
-                  //Sends the data packet and waits to receive the ACK Packet from the client
-                  log("Sending DATAPacket: blockNo: " + blockNo + " - [0]" + data[0] + "  [1]" + data[1] + "  [2]" + data[2] + "  [3]" + data[3] + 
-                           "  ...[" + (size -3) + "]" +  data[size -3 ] + "  [" + (size -2) + "]" + data[size -2 ] + "  [" + (size -1)  + "]" + data[size -1 ]
-                           + "  [" + size + "]" + data[size] + "\n");
-                     
-                  socket.send(secondPkt.build()); //send the second packet
-                     
-                  if(size < 511) {
-                     continueLoop = false; //if the size is less than 511, end the loop
-                  } //if
-                     
-               } //if readACKPacket...
-                  
-            } //while continueLoop
-               
-         } //try
-         catch(SocketTimeoutException ste) { //if there is a timeout
-            log("Download timed out waiting for ACK!\n");
-            doDisconnect(); //disconnect from the server
-            return;
-         } //catch
-         catch(EOFException eofe) {
-            //ON END OF FILE EXCEPTION...
-            try {
-               blockNo++; //increment the block number
-                  
-               DATAPacket secondPkt = new DATAPacket(serverIP, port, blockNo, data, size); //create the datapacket
-               dis.close();                                                                //close the stream
-                  
-               //Sends the data packet and waits to receive the ACK Packet from the client
-               if (size >= 8) {
-                  log("Sending DATAPacket: blockNo: " + blockNo + " - [0]" + data[0] + "  [1]" + data[1] + "  [2]" + data[2] + "  [3]" + data[3] + 
-                           "  ...[" + (size -3) + "]" +  data[size -3 ] + "  [" + (size -2) + "]" + data[size -2 ] + "  [" + (size -1)  + "]" + data[size -1 ]
-                           + "  [" + size + "]" + data[size] + "\n");
-               }
-               else if (size >= 3) {
-                  log("Sending DATAPacket: blockNo: " + blockNo + " - [0]" + data[0] + "  [1]" + data[1] + "  [2]" + data[2] + "\n");
-               }
-               else {
-                  log("Sending DATAPacket: blockNo: " + blockNo + " - [0]" + data[0] + "\n");  
-               }
-                  
-               socket.send(secondPkt.build()); //send the second packet
-                  
-               //receiving the ACK Packet from the client 
-               byte[] holder = new byte[MAX_PACKET];                             // create a holder of byte array with size of MAX_PACKET
-               DatagramPacket incoming = new DatagramPacket(holder, MAX_PACKET); // create the incoming datagram packet
-               socket.receive(incoming);                                         // receive the incoming packet
-                  
-               readACKPacket(incoming, blockNo);                                 //read the ACKPacket
-               if(size < 511) {
-                  continueLoop = false; //if the size is less than 511, end the loop
-               }
-            } //try
-            catch(FileNotFoundException fnfe) {
-               try {
-                  log("FileNotFoundException occurred in doRRQ()... Sending error packet! - " + fnfe + "\n");
-                  ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 1, fnfe.toString()); // build the error packet
-                  socket.send(errorPkt.build());                                              // send the error packet
-                  log("ERROR sent to Server...\n");
-                  return;                                                                     // exit the loop
-               }
-               catch(IOException ioe1) {
-                  log("IOException 0 in doRRQ(): " + ioe1 + "\n");
-               }
-            } //catch
-            catch(IOException ioe) {
-               try {
-                  log("IOException..." + ioe + "\n");                                        // IOException has occurred...send error packet
-                  ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 0, ioe.toString()); // make the error packet
-                  socket.send(errorPkt.build());                                             // send the error packet out
-                  log("ERROR sent to client...\n");                                          // log it
-                  continueLoop = false;                                                      // exit the loop
-               }
-               catch(IOException ioe1) {
-                  log("IOException 1 in doRRQ(): " + ioe1 + "\n");
-               }
-            } //catch 2
-            catch(Exception e) {
-               try {
-                  log("Exception occurred..." + e + "\n");                                   // Exception has occurred...send error packet
-                  ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 0, e.toString());   // make the error packet
-                  socket.send(errorPkt.build());                                             // send the error packet out
-                  log("ERROR sent to client...\n");                                          // log it
-                  continueLoop = false;                                                      // exit the loop
-               }
-               catch(IOException ioe) {
-                  log("IOException 2 in doRRQ(): " + ioe + "\n");
-               } //catch 3
-                  
-            } //catch 2
-               
-         } //END OF FILE EXCEPTION catch
-               
-         catch(FileNotFoundException fnfe) {
-            try {
-               log("FileNotFoundException occurred in doRRQ() (2)... Sending error packet! - " + fnfe + "\n");
-               ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 1, fnfe.toString()); // build the error packet
-               socket.send(errorPkt.build());                                              // send the error packet
-               log("ERROR sent to Server...\n");
-               return;                                                                     // exit the loop
-            }
-            catch(IOException ioe1) {
-               log("IOException in doRRQ() (2): " + ioe1 + "\n");
-            }
-         }
-         catch(IOException ioe) {
-            try {
-               log("IOException..." + ioe + "\n");                                        // IOException has occurred...send error packet
-               ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 0, ioe.toString()); // make the error packet
-               socket.send(errorPkt.build());                                             // send the error packet out
-               log("ERROR sent to client...\n");                                          // log it
-               continueLoop = false;                                                      // exit the loop
-            }
-            catch(IOException ioe1) {
-               log("IOException (end) in doRRQ(): " + ioe1 + "\n");
-            }
-         }
-         log("Successfuly uploaded file... " + clientFileName + " to server.\n");
-         doDisconnect(); //disconnect from the server
-      
-      } //doUpload()
-   
-     /** 
-      * readACKPacket()
-      * For reading the ACKPackets
-      * @param pkt of DatagramPacket
-      * @param blockNo the block number
-      */
-      public boolean readACKPacket(DatagramPacket pkt, int blockNo) {
-         try {
-            //create the streams: Byte Array Input Stream & Data Input Stream
-            ByteArrayInputStream bais = new ByteArrayInputStream(pkt.getData(), pkt.getOffset(), pkt.getLength());
-            DataInputStream dis = new DataInputStream(bais);
-            int opcode = dis.readShort(); //read in the opcode
-         
-            //if the opcode is an ACKPacket..
-            if (opcode == ACK) {
-               ACKPacket ackPkt = new ACKPacket(); //create the ACKPacket
-               ackPkt.dissect(pkt);                //dissect it
-               
-               if(ackPkt.getBlockNo() == blockNo) {
-                  log("readACKPacket()..." + "Blk#: " + blockNo +  ", ACK!, all good." + "\n"); //all good
-                  return true;
-               }
-               else {
-                  log("Blk#'s don't match! Looking for: \"" + blockNo + "\". Recieved: \"" + ackPkt.getBlockNo() + "\".\n");  // Exception has occurred...send error packet
-                  ERRORPacket errorPkt = new ERRORPacket(serverIP, pkt.getPort(), 0, "Blk#'s don't match! Looking for: \"" + blockNo + "\". Recieved: \"" + ackPkt.getBlockNo() + "\"."); // make the error packet
-                  socket.send(errorPkt.build()); // send the error packet out
-                  log("ERROR sent to client...\n");
-               } //else
-               
-               return false;
-            } //if opcode == ACK
-            
-            else if (opcode == ERROR) {
-               ERRORPacket errorPkt = new ERRORPacket(); //create the ERRORPacket
-               errorPkt.dissect(pkt);                    //dissect it
-            
-               //log the error
-               log("Error recieved from server:\n     [ERRORNUM:" + errorPkt.getErrorNo() + "] ... " + errorPkt.getErrorMsg() + "\n");
-               doDisconnect(); //disconnect from the server
-               return false;
-            } //else if opcode == ERROR
-            
-            else{
-               log("Illegal Opcode! Looking for OPCODE-4 or OPCODE-5. Recieved: " + opcode + "\n"); // Exception has occurred...send error packet
-               ERRORPacket errorPkt = new ERRORPacket(serverIP, pkt.getPort(), 4, "Illegal Opcode! Looking for OPCODE-4 or OPCODE-5. Recieved: " + opcode); // make the error packet
-               socket.send(errorPkt.build()); // send the error packet out
-               log("ERROR sent to client...\n");
-            }
-         
-         } //try
-         catch(Exception e) {
-            log("Error occured in readACKPacket(): " + e + "\n");
-            return false;
-         }
-         
-         return false;
-      } //readACKPacket()
-   
-   
-     /** 
-      * doDownload()
-      * uses FileChooser
-      * downloads a file from the server using the TFTP protocol
-      */
-      public void doDownload() { // create rrq packet to send
-         int port = -1;
-            
-         try {
-            // connect to server stuff here (aka doConnect() method)
-            doConnect();
-               
-            //InetAddress _toAddress, int _port, String _fileName, String _mode
-            RRQPacket rrqPkt = new RRQPacket(serverIP, TFTP_PORT, fileName, "octet");
-            socket.send(rrqPkt.build()); //PACKET 1
-               
-            // LOOP START HERE
-            boolean continueLoop = true;
-            while(continueLoop) {
-               //receiving the DATA Packet from the Server
-               byte[] holder = new byte[MAX_PACKET];
-               DatagramPacket incoming = new DatagramPacket(holder, MAX_PACKET);
-               socket.receive(incoming); //PACKET 2
-                  
-               // Figure out if the incoming datagrampacket is RRQ or WRQ packet
-               ByteArrayInputStream bais = new ByteArrayInputStream(incoming.getData(), incoming.getOffset(), incoming.getLength());
-               DataInputStream dis = new DataInputStream(bais);
-               int opcode = dis.readShort(); //read in the opcode
-                  
-               if (opcode == ERROR) { //opcode == 5
-                  ERRORPacket errorPkt = new ERRORPacket(); //create the error packet
-                  errorPkt.dissect(incoming);               //dissect it
-                     
-                  log("Error recieved from server:\n     [ERRORNUM:" + errorPkt.getErrorNo() + "] ... " + errorPkt.getErrorMsg() + "\n");
-                  doDisconnect(); //disconnect from the server
-                  return;
-               }
-               else if (opcode == DATA) { //opcode == 3
-                     
-                  DATAPacket dataPkt = new DATAPacket(); //create the datapacket
-                  dataPkt.dissect(incoming);             //dissect it
-                     
-                  // ATTRIBUTES
-                  byte[] data = dataPkt.getData();
-                  int blockNo = dataPkt.getBlockNo();
-                  port = dataPkt.getPort();
-                  int dataLen = dataPkt.getDataLen();
-                  log("DATAPacket: blockNo: " + blockNo + ", port: " + port + ", Length of Data: " + (dataLen + 1) + "\n");
-                     
-                  // change socket to new port
-                  // socket.bind(new InetSocketAddress(#)); this is where we change the port
-                     
-                  try {
-                     //write until end of file exception
-                     for (int i = 0; i < data.length; i++) { //for all the data
-                        dos.writeByte(data[i]);  //write the data
-                     }
-                        
-                     ACKPacket ackPkt = new ACKPacket(serverIP, port, blockNo); //make the ACKPacket
-                     socket.send(ackPkt.build()); // PACKET 3                     send it out
-                     log("Sent ACK Packet! Blk#: " + blockNo + "\n");
-                        
-                     if(dataLen < 511) {
-                        continueLoop = false; //if the length of the data is less than 511, set the loop to false
-                     }
-                        
-                  } //try
-                  catch(EOFException eofe) {
-                     // On END OF FILE EXCEPTION...
-                     ACKPacket ackPkt = new ACKPacket(serverIP, port, blockNo);  //create the ACKPacket
-                     socket.send(ackPkt.build()); // PACKET 3                      send it out
-                        
-                     if(dataLen < 511) {
-                        continueLoop = false; //if the length of the data is less than 511, set the loop to false
-                     }
-                        
-                  } //catch        
-                     
-               } //else if opcode = DATA
-                     
-               else{
-                  log("Illegal Opcode! Looking for OPCODE-4 or OPCODE-5. Recieved: " + opcode + "\n"); // Exception has occurred...send error packet
-                  ERRORPacket errorPkt = new ERRORPacket(serverIP, port, 4, "Illegal Opcode! Looking for OPCODE-3 or OPCODE-5. Recieved: " + opcode); // make the error packet
-                  socket.send(errorPkt.build()); // send the error packet out
-                  log("ERROR sent to client...\n");
-               }
-                  
-            } //while
-               
-         } // try
-         catch(SocketTimeoutException ste) {
-            log("Download timed out waiting for DATA!\n");
-            doDisconnect(); //disconnect from the server
-            return;
-         }
-         catch(IOException ioe) {
-            log("IOException occurred in doDownload()..." + ioe + "\n");
-            return;
-         }
-         //log that the download finished!
-         log(fileTo.getName() + " has finished downloading! \n");
-      
-               
-      } //doDownload()
-   
-   } //ClientThread
-   
 } //TFTPClient
\ No newline at end of file
@@ -0,0 +1,239 @@
+import java.io.*;
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * TFTPClientCLI - TFTPClient without the window, for scripts. Gets and puts files from its
+ * arguments or from a manifest, each with the same ClientThread the GUI starts, through a ClientQueue.
+ * No JavaFX class is loaded, so it starts in well under a second and runs on a machine with no display.
+ *    java TFTPClientCLI [options] get <remote> [local]
+ *    java TFTPClientCLI [options] put <local> [remote]
+ *    java TFTPClientCLI [options] --manifest=file
+ * A manifest has one "get <remote> [local]" or "put <local> [remote]" per line, blank lines and lines
+ * starting with # are skipped, and --manifest=- reads it from stdin. Names can't have spaces in them.
+ * A get with no local name saves to the remote name's last part in the current folder, a put with no
+ * remote name uses the local file's name.
+ * Options:
+ *    --server=host[:port]  the server, localhost:69 by default. A list (a,b:6969,c) runs every
+ *                          transfer against every server, and gets save to host/local
+ *    --parallel=N          how many transfers run at once, 1 by default (one after another)
+ *    --blksize=N           the block size to ask for, 1428 by default (512 sends a plain request)
+ *    --windowsize=N        the window size to ask for, 8 by default (1 is lock-step)
+ *    --multicast           gets ask for the multicast option (RFC 2090): the server sends the file once to a
+ *                          group for every client asking for it at the same time, lock-step
+ *    --compress            ask for the compress option: the blocks go as one deflate stream, and come back
+ *                          out as the file. Files named .gz, .zip, .jpg and so on go as they are
+ *    --segments=N          gets split the file into N ranges and get them at once, each its own RRQ with the
+ *                          range option, 1 by default. A server without the option sends the file in one piece
+ * Every transfer prints one line on stdout with its bytes, seconds and MB/s as it ends, then a total
+ * line for all of them together.
+ * The log goes to stderr. -Dtftp.log=error keeps it to what went wrong, like the ERROR a server sent for a failed get.
+ * Exit status: 0 every transfer completed, 1 one or more failed, 2 bad arguments or manifest.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+public class TFTPClientCLI implements TFTPConstants {
+   // Exit status
+   public static final int EXIT_OK = 0;
+   public static final int EXIT_FAILED = 1;
+   public static final int EXIT_USAGE = 2;
+
+   /**
+   * Settings
+   * INNER CLASS
+   * the options of one run(), with their defaults, so a second run() in the same JVM starts from scratch
+   */
+   private static class Settings {
+      private int parallel = 1;
+      private int blksize = 1428;
+      private int windowsize = 8;
+      private boolean multicast = false;
+      private int segments = 1;
+      private boolean compress = false;
+   } //Settings
+
+   public static void main(String[] args) {
+      System.exit(run(args));
+   } //main()
+
+  /**
+   * run()
+   * does everything main() does but exit, so a test or another tool can call it
+   * @param args the command line
+   * @return the exit status
+   */
+   public static int run(String[] args) {
+      Settings settings = new Settings();
+      Map<String, String> named = new HashMap<String, String>();
+      List<String> words = new ArrayList<String>();
+      for(String arg : args) {
+         int eq = arg.indexOf('=');
+         if(arg.equals("--multicast")) {
+            settings.multicast = true;
+         }
+         else if(arg.equals("--compress")) {
+            settings.compress = true;
+         }
+         else if(arg.startsWith("--") && eq > 0) {
+            named.put(arg.substring(2, eq), arg.substring(eq + 1));
+         }
+         else {
+            words.add(arg);
+         }
+      }
+
+      List<String[]> transfers = new ArrayList<String[]>();
+      List<String> servers = new ArrayList<String>();
+      List<Integer> ports = new ArrayList<Integer>();
+      try {
+         for(String s : named.getOrDefault("server", "localhost").split(",")) {
+            int colon = s.lastIndexOf(':');
+            servers.add(colon < 0 ? s : s.substring(0, colon));
+            ports.add(colon < 0 ? TFTP_PORT : Integer.parseInt(s.substring(colon + 1)));
+         }
+         named.remove("server");
+         if(named.containsKey("parallel")) {
+            settings.parallel = Integer.parseInt(named.remove("parallel"));
+            if(settings.parallel < 1) {
+               throw new IllegalArgumentException("--parallel must be at least 1");
+            }
+         }
+         if(named.containsKey("blksize")) {
+            settings.blksize = TFTPOptions.parseBlksize(named.remove("blksize"));
+            if(settings.blksize < 0) {
+               throw new IllegalArgumentException("--blksize must be a number from " + MIN_BLKSIZE + " to " + MAX_BLKSIZE);
+            }
+            settings.blksize = Math.min(settings.blksize, MAX_BLKSIZE);
+         }
+         if(named.containsKey("windowsize")) {
+            settings.windowsize = TFTPOptions.parseWindowsize(named.remove("windowsize"));
+            if(settings.windowsize < 0) {
+               throw new IllegalArgumentException("--windowsize must be a number from 1 to " + MAX_WINDOWSIZE);
+            }
+            settings.windowsize = Math.min(settings.windowsize, MAX_WINDOWSIZE);
+         }
+         if(named.containsKey("segments")) {
+            settings.segments = Integer.parseInt(named.remove("segments"));
+            if(settings.segments < 1 || settings.segments > 64) {
+               throw new IllegalArgumentException("--segments must be a number from 1 to 64");
+            }
+         }
+         if(named.containsKey("manifest")) {
+            if(!words.isEmpty()) {
+               throw new IllegalArgumentException("a manifest or a get/put on the command line, not both");
+            }
+            readManifest(named.remove("manifest"), transfers);
+         }
+         else {
+            transfers.add(checkTransfer(words.toArray(new String[0]), "the command line"));
+         }
+         if(!named.isEmpty()) {
+            throw new IllegalArgumentException("unknown option --" + named.keySet().iterator().next());
+         }
+      }
+      catch(IllegalArgumentException | IOException e) {
+         System.err.println("TFTPClientCLI: " + e.getMessage());
+         usage();
+         return EXIT_USAGE;
+      }
+
+      TFTPLog logger = new TFTPLog(
+         new Consumer<String>() {
+            public void accept(String batch) {
+               System.err.print(batch);
+            }
+         });
+      ClientQueue queue = new ClientQueue(settings.parallel, logger,
+         new ClientQueue.Listener() {
+            public void finished(ClientQueue.Transfer t) {
+               System.out.println(t);
+            }
+         }, null);
+      queue.setMulticast(settings.multicast);
+      queue.setSegments(settings.segments);
+      queue.setCompress(settings.compress);
+
+      for(String[] t : transfers) {
+         boolean get = t[0].equals("get");
+         for(int i = 0; i < servers.size(); i++) {
+            String server = servers.get(i);
+            File local = new File(get ? t[2] : t[1]);
+            if(get && servers.size() > 1) {
+               local = new File(server, t[2]);   // one copy from each server
+               local.getAbsoluteFile().getParentFile().mkdirs();
+            }
+            queue.add(get ? "Download" : "Upload", server, ports.get(i), get ? t[1] : t[2], local, settings.blksize, settings.windowsize);
+         }
+      }
+      try {
+         queue.awaitIdle();
+      }
+      catch(InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+      System.out.println(queue);
+      int failed = queue.getFailed();
+      queue.shutdown();
+      logger.close(); // whatever is still in the ring goes to stderr
+
+      return failed == 0 ? EXIT_OK : EXIT_FAILED;
+   } //run()
+
+  /**
+   * readManifest()
+   * reads the transfers from a manifest, checking every line before any transfer starts
+   * @param path the manifest, - for stdin
+   * @param transfers where each line's transfer goes
+   */
+   private static void readManifest(String path, List<String[]> transfers) throws IOException {
+      BufferedReader br = new BufferedReader(path.equals("-") ? new InputStreamReader(System.in) : new FileReader(path));
+      try {
+         String line;
+         int lineNo = 0;
+         while((line = br.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if(line.isEmpty() || line.startsWith("#")) {
+               continue;
+            }
+            transfers.add(checkTransfer(line.split("\\s+"), path + " line " + lineNo));
+         }
+      }
+      finally {
+         br.close();
+      }
+      if(transfers.isEmpty()) {
+         throw new IllegalArgumentException(path + " has no transfers in it");
+      }
+   } //readManifest()
+
+  /**
+   * checkTransfer()
+   * checks one get or put and fills in the name left out
+   * @param words get|put, then one or two names
+   * @param where for the message if it's wrong
+   * @return get remote local, or put local remote
+   */
+   private static String[] checkTransfer(String[] words, String where) {
+      if(words.length < 2 || words.length > 3 || !(words[0].equals("get") || words[0].equals("put"))) {
+         throw new IllegalArgumentException(where + ": expected get <remote> [local] or put <local> [remote]");
+      }
+      String[] t = { words[0], words[1], words.length == 3 ? words[2] : new File(words[1]).getName() };
+      if(t[0].equals("put") && !new File(t[1]).isFile()) {
+         throw new IllegalArgumentException(where + ": no file " + t[1] + " to put");
+      }
+      return t;
+   } //checkTransfer()
+
+  /**
+   * usage()
+   * how to run it, on stderr
+   */
+   private static void usage() {
+      System.err.println("usage: java TFTPClientCLI [--server=host[:port],...] [--parallel=N] [--blksize=N] [--windowsize=N] [--multicast] [--segments=N] [--compress] get <remote> [local]");
+      System.err.println("       java TFTPClientCLI [--server=host[:port],...] [--parallel=N] [--blksize=N] [--windowsize=N] [--multicast] [--segments=N] [--compress] put <local> [remote]");
+      System.err.println("       java TFTPClientCLI [--server=host[:port],...] [--parallel=N] [--blksize=N] [--windowsize=N] [--multicast] [--segments=N] [--compress] --manifest=file|-");
+   } //usage()
+
+} //class TFTPClientCLI
@@ -11,7 +11,23 @@ public interface TFTPConstants {
    
    public static final int TFTP_PORT = 69;    //TFTPServer Port
    
-   public static final int MAX_PACKET = 1500; //max size of packet
+   public static final int MAX_PACKET = 1500; //size of the receive buffer for requests and default (512 byte) blocks
+   
+   // BLOCK SIZES (RFC 2348 blksize option) - a session's packets are its block size + 4 header bytes
+   public static final int DEFAULT_BLKSIZE = 512;
+   public static final int MIN_BLKSIZE = 8;
+   public static final int MAX_BLKSIZE = 65464;
+   public static final int MAX_DATAGRAM = MAX_BLKSIZE + 4; //biggest packet any session can receive
+   
+   // WINDOWS (RFC 7440 windowsize option) - blocks sent per ACK
+   public static final int DEFAULT_WINDOWSIZE = 1;
+   public static final int MAX_WINDOWSIZE = 64;  //most the server agrees to, 65535 is legal but floods the network
+   
+   // RETRANSMISSION
+   public static final int MIN_TIMEOUT = 2;        //ms, the least RetransmitTimer waits however fast the link is
+   public static final int DEFAULT_TIMEOUT = 1000; //ms to wait before the first round trip is measured
+   public static final int MAX_TIMEOUT = 8000;     //ms, the most the backoff goes up to
+   public static final int RETRY_BUDGET = 15000;   //ms with no progress before giving up on a transfer
    
    // OPCODES
    public static final int RRQ = 1;
@@ -19,6 +35,7 @@ public interface TFTPConstants {
    public static final int DATA = 3;
    public static final int ACK = 4;
    public static final int ERROR = 5;
+   public static final int OACK = 6;          //option acknowledgment (RFC 2347)
    
    // ERROR CODES
    public static final int UNDEF = 0;
@@ -29,4 +46,5 @@ public interface TFTPConstants {
    public static final int UNKID = 5;
    public static final int FILEX = 6;
    public static final int NOUSER = 7;
+   public static final int OPTERR = 8;        //option negotiation failed (RFC 2347)
 }
\ No newline at end of file
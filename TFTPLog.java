@@ -0,0 +1,260 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * TFTPLog - Asynchronous log for the server and the client.
+ * Callers check isEnabled() for their level before building a message, so at the default level
+ * (INFO) the per-block messages cost one comparison and no string. Messages that are logged go into
+ * a bounded lock-free ring (many producers, one consumer), and one "tftp-log" thread drains it in
+ * batches: a batch is one call to each sink, so the GUI gets one Platform.runLater per batch and not
+ * one per message. If the ring is full the message is dropped and counted, the transfer never waits
+ * for the log, and the next batch says how many were lost.
+ * -Dtftp.log=error|info|debug|trace (JVM option) sets the level, info by default.
+ * -Dtftp.log.file=path (JVM option) also writes the log to a file, rolled over to path.1 once it
+ * passes -Dtftp.log.filesize=N bytes (10MB by default).
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class TFTPLog implements Consumer<String> {
+   // LEVELS - a message is logged if its level is at most the current one
+   static final int ERROR = 0;
+   static final int INFO = 1;    //sessions starting and ending, timeouts
+   static final int DEBUG = 2;   //every packet
+   static final int TRACE = 3;   //bytes from every block
+
+   private static final int CAPACITY = 8192;   // messages the ring holds, a power of 2
+   private static final int BATCH = 512;       // most messages in one batch
+   private static volatile int level = parseLevel(System.getProperty("tftp.log", "info"));
+
+   // Attributes
+   private AtomicReferenceArray<String> slots = new AtomicReferenceArray<String>(CAPACITY);
+   private AtomicLongArray sequence = new AtomicLongArray(CAPACITY);   // per slot: its turn to be written, or +1 once it holds a message
+   private AtomicLong tail = new AtomicLong();   // next slot to write, producers claim it with a CAS
+   private long head = 0;                        // next slot to read, only the drain thread touches it
+   private LongAdder dropped = new LongAdder();
+   private List<Consumer<String>> sinks = new ArrayList<Consumer<String>>();
+   private Thread drainer;
+   private volatile boolean running = true;
+
+   /**
+    * Parameterized constructor for TFTPLog, starts the drain thread
+    * @param gui where batches go, the GUI's text area
+    */
+   public TFTPLog(Consumer<String> gui) {
+      sinks.add(gui);
+      String path = System.getProperty("tftp.log.file");
+      if(path != null) {
+         sinks.add(new FileSink(new File(path), Long.getLong("tftp.log.filesize", 10L * 1024 * 1024)));
+      }
+      for(int i = 0; i < CAPACITY; i++) {
+         sequence.set(i, i);
+      }
+      drainer = new Thread("tftp-log") {
+         public void run() {
+            drain();
+         }
+      };
+      drainer.setDaemon(true);
+      drainer.start();
+   }
+
+   /** isEnabled() method
+    *
+    * @param msgLevel ERROR, INFO, DEBUG or TRACE
+    * @return true if messages of that level are logged. Check it before building the message
+    */
+   public static boolean isEnabled(int msgLevel) {
+      return msgLevel <= level;
+   }
+
+   /** setLevel() method
+    *
+    * @param _level the most detailed level to log
+    */
+   public static void setLevel(int _level) {
+      level = _level;
+   }
+
+   /** accept() method
+    *
+    * Logs an INFO message, for a Consumer<String> that doesn't say a level
+    * @param message the message
+    */
+   public void accept(String message) {
+      log(INFO, message);
+   }
+
+   /** log() method
+    *
+    * Puts a message in the ring, or drops it if the ring is full. Never blocks
+    * @param msgLevel the message's level
+    * @param message the message
+    */
+   public void log(int msgLevel, String message) {
+      if(msgLevel > level) {
+         return;
+      }
+      while(true) {
+         long pos = tail.get();
+         int slot = (int)(pos & (CAPACITY - 1));
+         long diff = sequence.get(slot) - pos;
+         if(diff < 0) {
+            dropped.increment();   // the drain thread is a whole ring behind
+            return;
+         }
+         if(diff == 0 && tail.compareAndSet(pos, pos + 1)) {
+            slots.lazySet(slot, message);
+            sequence.set(slot, pos + 1);   // publishes the message to the drain thread
+            return;
+         }
+      } //while
+   } //log()
+
+   /** logTo() method
+    *
+    * Logs at a level through the Consumer<String> a class was handed: a TFTPLog keeps the level,
+    * any other logger (a program running TFTPServerCore) gets the message if the level is on
+    * @param logger where the message goes
+    * @param msgLevel the message's level
+    * @param message the message
+    */
+   public static void logTo(Consumer<String> logger, int msgLevel, String message) {
+      if(logger instanceof TFTPLog) {
+         ((TFTPLog)logger).log(msgLevel, message);
+      }
+      else if(isEnabled(msgLevel)) {
+         logger.accept(message);
+      }
+   } //logTo()
+
+   /** getDropped() method
+    *
+    * @return messages dropped because the ring was full
+    */
+   public long getDropped() {
+      return dropped.sum();
+   }
+
+   /** close() method
+    *
+    * Stops the drain thread once everything in the ring has gone to the sinks
+    */
+   public void close() {
+      running = false;
+      LockSupport.unpark(drainer);
+      try {
+         drainer.join(1000);
+      }
+      catch(InterruptedException ie) {
+         Thread.currentThread().interrupt();
+      }
+   } //close()
+
+   /**
+   * drain()
+   * the drain thread: takes batches out of the ring and hands each one to the sinks
+   */
+   private void drain() {
+      StringBuilder batch = new StringBuilder();
+      long reported = 0;   // drops already told about
+      while(true) {
+         int n = 0;
+         while(n < BATCH) {
+            int slot = (int)(head & (CAPACITY - 1));
+            if(sequence.get(slot) != head + 1) {
+               break; //empty, or the next message is still being written
+            }
+            batch.append(slots.get(slot));
+            slots.lazySet(slot, null);
+            sequence.set(slot, head + CAPACITY);   // the slot's next turn
+            head++;
+            n++;
+         }
+
+         long lost = dropped.sum();
+         if(lost > reported) {
+            batch.append("[" + (lost - reported) + " log messages dropped, the log can't keep up]\n");
+            reported = lost;
+         }
+         if(batch.length() > 0) {
+            String text = batch.toString();
+            batch.setLength(0);
+            for(Consumer<String> sink : sinks) {
+               try {
+                  sink.accept(text);
+               }
+               catch(RuntimeException re) {}   // one bad sink must not stop the log
+            }
+         }
+
+         if(n < BATCH) {
+            if(!running) {
+               break;
+            }
+            LockSupport.parkNanos(20000000L);   // 20ms: messages pile up into the next batch, the GUI redraws at most 50 times a second
+         }
+      } //while
+   } //drain()
+
+   /**
+   * parseLevel()
+   * @param name error, info, debug or trace
+   * @return the level, INFO for anything else
+   */
+   static int parseLevel(String name) {
+      switch(name.trim().toLowerCase()) {
+         case "error":
+            return ERROR;
+         case "debug":
+            return DEBUG;
+         case "trace":
+            return TRACE;
+         default:
+            return INFO;
+      }
+   } //parseLevel()
+
+   /**
+   * FileSink
+   * INNER CLASS
+   * appends batches to a file, and moves it to file.1 when it gets past maxSize
+   */
+   private static class FileSink implements Consumer<String> {
+      private File file;
+      private long maxSize;
+      private Writer out = null;
+      private long size = 0;
+
+      public FileSink(File _file, long _maxSize) {
+         file = _file;
+         maxSize = _maxSize;
+      }
+
+      public void accept(String text) {
+         try {
+            if(out == null) {
+               out = new BufferedWriter(new FileWriter(file, true));
+               size = file.length();
+            }
+            out.write(text);
+            out.flush();   // once per batch
+            size += text.length();
+            if(size > maxSize) {
+               out.close();
+               out = null;
+               File old = new File(file.getPath() + ".1");
+               old.delete();
+               file.renameTo(old);
+            }
+         }
+         catch(IOException ioe) {
+            System.err.println("TFTPLog: can't write " + file + "... " + ioe);
+         }
+      } //accept()
+   } //FileSink
+
+} //class TFTPLog
@@ -0,0 +1,398 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.*;
+
+/**
+ * TFTPMetrics - Counters for every transfer, put on the platform MBeanServer by publish() so any JMX tool
+ * can read them while the server runs, with or without its window (see TFTPMetricsMXBean).
+ * The server's sessions count into server() and the client's transfers into client().
+ * A transfer gets a Transfer from begin() and counts through it. The counters are LongAdders,
+ * so the threads and event loops moving blocks never wait on each other to count them.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+class TFTPMetrics implements TFTPMetricsMXBean, TFTPConstants {
+   private static final String[] ERROR_NAMES = {"UNDEF", "NOTFD", "ACCESS", "DSKFUL", "ILLOP", "UNKID", "FILEX", "NOUSER", "OPTERR"};
+
+   private static final TFTPMetrics SERVER = new TFTPMetrics("tftp:type=Server");
+   private static final TFTPMetrics CLIENT = new TFTPMetrics("tftp:type=Client");
+   private static boolean published = false;
+
+   // Attributes
+   private String name;
+   private LongAdder activeReads = new LongAdder();
+   private LongAdder activeWrites = new LongAdder();
+   private LongAdder completed = new LongAdder();
+   private LongAdder bytesSent = new LongAdder();
+   private LongAdder bytesReceived = new LongAdder();
+   private LongAdder blocksSent = new LongAdder();
+   private LongAdder blocksReceived = new LongAdder();
+   private LongAdder retransmits = new LongAdder();
+   private LongAdder timeouts = new LongAdder();
+   private LongAdder duplicateAcks = new LongAdder();
+   private LongAdder[] errorsSent = new LongAdder[ERROR_NAMES.length];
+   private LongAdder[] errorsReceived = new LongAdder[ERROR_NAMES.length];
+   private LongAdder latencyCount = new LongAdder();
+   private LongAdder latencyTotal = new LongAdder();   // nanoseconds
+   private AtomicLong latencyMax = new AtomicLong();
+   private Set<Transfer> running = ConcurrentHashMap.newKeySet();
+   private volatile TFTPServerCore core = null;         // the pool and engine numbers, server() only
+
+   /**
+    * Parameterized constructor for TFTPMetrics
+    * @param _name the JMX ObjectName, once published
+    */
+   private TFTPMetrics(String _name) {
+      name = _name;
+      for(int i = 0; i < ERROR_NAMES.length; i++) {
+         errorsSent[i] = new LongAdder();
+         errorsReceived[i] = new LongAdder();
+      }
+   }
+
+   /** publish() method
+    *
+    * Puts server() and client() on JMX. The first call to the platform MBeanServer takes over half a second,
+    * so that happens on a "tftp-jmx" thread and the caller doesn't wait for it. The counters count either way
+    */
+   public static synchronized void publish() {
+      if(published) {
+         return;
+      }
+      published = true;
+      Thread jmx = new Thread("tftp-jmx") {
+         public void run() {
+            SERVER.register();
+            CLIENT.register();
+         }
+      };
+      jmx.setDaemon(true);
+      jmx.start();
+   } //publish()
+
+   /** server() method
+    *
+    * @return the server's metrics, tftp:type=Server
+    */
+   public static TFTPMetrics server() {
+      return SERVER;
+   }
+
+   /** client() method
+    *
+    * @return the client's metrics, tftp:type=Client
+    */
+   public static TFTPMetrics client() {
+      return CLIENT;
+   }
+
+   /** begin() method
+    *
+    * A transfer starts. Call end() on what it returns when it is over
+    * @param acceptedAt System.nanoTime() the request came in
+    * @param peer who it is with
+    * @return the transfer's counters
+    */
+   public Transfer begin(long acceptedAt, String peer) {
+      Transfer t = new Transfer(acceptedAt, peer);
+      running.add(t);
+      return t;
+   }
+
+   /** setServer() method
+    *
+    * Where the pool and engine attributes come from, the server started last
+    * @param _core the running server
+    */
+   public void setServer(TFTPServerCore _core) {
+      core = _core;
+   }
+
+   /** errorSent() method
+    *
+    * An ERROR went out that isn't part of a transfer, like "server busy"
+    * @param code the error code
+    */
+   public void errorSent(int code) {
+      errorsSent[codeIndex(code)].increment();
+   }
+
+   // TFTPMetricsMXBean
+
+   public int getActiveReads() {
+      return activeReads.intValue();
+   }
+
+   public int getActiveWrites() {
+      return activeWrites.intValue();
+   }
+
+   public long getTransfersCompleted() {
+      return completed.sum();
+   }
+
+   public long getBytesSent() {
+      return bytesSent.sum();
+   }
+
+   public long getBytesReceived() {
+      return bytesReceived.sum();
+   }
+
+   public long getBlocksSent() {
+      return blocksSent.sum();
+   }
+
+   public long getBlocksReceived() {
+      return blocksReceived.sum();
+   }
+
+   public long getRetransmits() {
+      return retransmits.sum();
+   }
+
+   public long getTimeouts() {
+      return timeouts.sum();
+   }
+
+   public long getDuplicateAcks() {
+      return duplicateAcks.sum();
+   }
+
+   public Map<String, Long> getErrorsSent() {
+      return byName(errorsSent);
+   }
+
+   public Map<String, Long> getErrorsReceived() {
+      return byName(errorsReceived);
+   }
+
+   public int getPoolQueueDepth() {
+      TFTPServerCore c = core;
+      return c != null ? c.getPoolQueueDepth() : 0;
+   }
+
+   public long getPoolRejected() {
+      TFTPServerCore c = core;
+      return c != null ? c.getPoolRejected() : 0;
+   }
+
+   public double getPoolAverageWaitMillis() {
+      TFTPServerCore c = core;
+      return c != null ? c.getPoolAverageWaitMillis() : 0;
+   }
+
+   public double getPoolMaxWaitMillis() {
+      TFTPServerCore c = core;
+      return c != null ? c.getPoolMaxWaitMillis() : 0;
+   }
+
+   public int getEngineSessionCount() {
+      TFTPServerCore c = core;
+      return c != null ? c.getEngineSessionCount() : 0;
+   }
+
+   public long getEngineRejected() {
+      TFTPServerCore c = core;
+      return c != null ? c.getEngineRejected() : 0;
+   }
+
+   public double getFirstDataLatencyAvgMillis() {
+      long n = latencyCount.sum();
+      return n > 0 ? latencyTotal.sum() / (double)n / 1000000 : 0;
+   }
+
+   public double getFirstDataLatencyMaxMillis() {
+      return latencyMax.get() / 1000000.0;
+   }
+
+   public List<TransferInfo> getTransfers() {
+      List<TransferInfo> list = new ArrayList<TransferInfo>();
+      long now = System.nanoTime();
+      for(Transfer t : running) {
+         list.add(new TransferInfo(t.opcode == RRQ ? "RRQ" : t.opcode == WRQ ? "WRQ" : "?", t.file, t.peer, t.bytes, (now - t.startedAt) / 1e9));
+      }
+      return list;
+   }
+
+   /** toString() method
+    *
+    * @return one line of stats for the log
+    */
+   public String toString() {
+      return "Metrics: " + getTransfersCompleted() + " transfers, " + getBytesSent() + " bytes sent, " + getBytesReceived() + " received, "
+         + getRetransmits() + " retransmits, " + getTimeouts() + " timeouts, " + getDuplicateAcks() + " duplicate ACKs, first DATA after " + String.format("%.1f", getFirstDataLatencyAvgMillis()) + "ms avg";
+   }
+
+   /**
+   * register()
+   * puts this on the platform MBeanServer under its name
+   */
+   private void register() {
+      try {
+         ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(name));
+      }
+      catch(JMException jme) {
+         System.err.println("TFTPMetrics: not on JMX as " + name + "... " + jme);   // the counters still count
+      }
+   } //register()
+
+   /**
+   * byName()
+   * @return the codes that have a count, by name
+   */
+   private static Map<String, Long> byName(LongAdder[] counts) {
+      Map<String, Long> map = new TreeMap<String, Long>();
+      for(int i = 0; i < counts.length; i++) {
+         long n = counts[i].sum();
+         if(n > 0) {
+            map.put(ERROR_NAMES[i], n);
+         }
+      }
+      return map;
+   } //byName()
+
+   /**
+   * codeIndex()
+   * @return the error code, or UNDEF for one that isn't in RFC 1350/2347
+   */
+   private static int codeIndex(int code) {
+      return code >= 0 && code < ERROR_NAMES.length ? code : UNDEF;
+   }
+
+   /**
+   * Transfer
+   * INNER CLASS
+   * the counters for one transfer. Only the thread running the transfer writes its fields,
+   * a JMX read of the running transfers may see them a block behind
+   */
+   class Transfer {
+      private long acceptedAt;
+      private long startedAt = System.nanoTime();
+      private String peer;
+      private volatile int opcode = 0;
+      private volatile String file = "";
+      private volatile long bytes = 0;
+      private boolean firstData = true;
+      private boolean ended = false;
+
+      private Transfer(long _acceptedAt, String _peer) {
+         acceptedAt = _acceptedAt;
+         peer = _peer;
+      }
+
+      /** request() method
+       *
+       * The request was read
+       * @param _opcode RRQ or WRQ
+       * @param _file the file asked for
+       */
+      public void request(int _opcode, String _file) {
+         opcode = _opcode;
+         file = _file;
+         (opcode == RRQ ? activeReads : activeWrites).increment();
+      }
+
+      /** sent() method
+       *
+       * @param size bytes in a DATA block that went out
+       * @param again true if the block was sent before
+       */
+      public void sent(int size, boolean again) {
+         blocksSent.increment();
+         bytesSent.add(size);
+         if(again) {
+            retransmits.increment();
+         }
+         else {
+            bytes += size;
+         }
+         data();
+      }
+
+      /** received() method
+       *
+       * @param size bytes in a new DATA block that came in
+       */
+      public void received(int size) {
+         blocksReceived.increment();
+         bytesReceived.add(size);
+         bytes += size;
+         data();
+      }
+
+      /** timeout() method
+       *
+       * The other end didn't answer in time
+       */
+      public void timeout() {
+         timeouts.increment();
+      }
+
+      /** duplicateAck() method
+       *
+       * An ACK for a block that was ACKed already came in, and was dropped
+       */
+      public void duplicateAck() {
+         duplicateAcks.increment();
+      }
+
+      /** errorSent() method
+       *
+       * @param code the code of an ERROR that went out
+       */
+      public void errorSent(int code) {
+         errorsSent[codeIndex(code)].increment();
+      }
+
+      /** errorReceived() method
+       *
+       * @param code the code of an ERROR that came in
+       */
+      public void errorReceived(int code) {
+         errorsReceived[codeIndex(code)].increment();
+      }
+
+      /** getBytes() method
+       *
+       * @return bytes of the file moved so far, without retransmits
+       */
+      public long getBytes() {
+         return bytes;
+      }
+
+      /** end() method
+       *
+       * The transfer is over, whichever way. Only counts once
+       */
+      public void end() {
+         if(ended) {
+            return;
+         }
+         ended = true;
+         running.remove(this);
+         if(opcode == RRQ || opcode == WRQ) {
+            (opcode == RRQ ? activeReads : activeWrites).decrement();
+         }
+         completed.increment();
+      } //end()
+
+      /**
+      * data()
+      * the first DATA block of the transfer, sent or received, takes the latency sample
+      */
+      private void data() {
+         if(firstData) {
+            firstData = false;
+            long latency = System.nanoTime() - acceptedAt;
+            latencyCount.increment();
+            latencyTotal.add(latency);
+            latencyMax.accumulateAndGet(latency, Math::max);
+         }
+      } //data()
+   } //Transfer
+
+} //class TFTPMetrics
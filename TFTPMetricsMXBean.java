@@ -0,0 +1,90 @@
+import java.util.*;
+
+/**
+ * TFTPMetricsMXBean - What TFTPMetrics shows over JMX (jconsole, VisualVM, jcmd), as tftp:type=Server
+ * and tftp:type=Client. An MXBean so the maps and lists come out as open types any JMX tool can read.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+public interface TFTPMetricsMXBean {
+
+   // Sessions
+   int getActiveReads();             //RRQs running now
+   int getActiveWrites();            //WRQs running now
+   long getTransfersCompleted();     //transfers that ended, however they ended
+
+   // Data
+   long getBytesSent();
+   long getBytesReceived();
+   long getBlocksSent();             //DATA packets, retransmits included
+   long getBlocksReceived();         //new DATA blocks, duplicates not counted
+
+   // Trouble
+   long getRetransmits();            //DATA blocks sent again
+   long getTimeouts();               //times the other end didn't answer in time
+   long getDuplicateAcks();          //ACKs for blocks ACKed already, dropped without sending anything
+   Map<String, Long> getErrorsSent();       //ERROR packets by code name (NOTFD, ACCESS, ...)
+   Map<String, Long> getErrorsReceived();
+
+   // Load (the server only, 0 on the client and before a server starts)
+   int getPoolQueueDepth();          //transfers waiting for a slot, thread engine with maxSessions
+   long getPoolRejected();           //turned away with "server busy" by the transfer pool
+   double getPoolAverageWaitMillis();
+   double getPoolMaxWaitMillis();
+   int getEngineSessionCount();      //sessions on the nio engine's event loops
+   long getEngineRejected();         //turned away with "server busy" by the nio engine
+
+   // Latency
+   double getFirstDataLatencyAvgMillis();   //from the request coming in to the first DATA block sent or received
+   double getFirstDataLatencyMaxMillis();
+
+   // Per session
+   List<TransferInfo> getTransfers();       //the transfers running now, with their throughput
+
+   /**
+   * TransferInfo
+   * INNER CLASS
+   * one running transfer, as a JMX tool shows it
+   */
+   class TransferInfo {
+      private String type;
+      private String file;
+      private String peer;
+      private long bytes;
+      private double seconds;
+
+      public TransferInfo(String _type, String _file, String _peer, long _bytes, double _seconds) {
+         type = _type;
+         file = _file;
+         peer = _peer;
+         bytes = _bytes;
+         seconds = _seconds;
+      }
+
+      public String getType() {
+         return type;
+      }
+
+      public String getFile() {
+         return file;
+      }
+
+      public String getPeer() {
+         return peer;
+      }
+
+      public long getBytes() {
+         return bytes;
+      }
+
+      public double getSeconds() {
+         return seconds;
+      }
+
+      public double getBytesPerSecond() {
+         return seconds > 0 ? bytes / seconds : 0;
+      }
+   } //TransferInfo
+
+} //interface TFTPMetricsMXBean
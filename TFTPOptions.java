@@ -0,0 +1,319 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * TFTPOptions - The option extension (RFC 2347) and the options both ends understand.
+ * A client adds name/value pairs after the mode of its RRQ/WRQ. The server answers the ones
+ * it accepts with an OACK, and just ignores the rest, or sends a plain DATA/ACK if it accepts none.
+ * Option names are not case sensitive, so they are kept lower case.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+final class TFTPOptions implements TFTPConstants {
+   // Option names
+   public static final String BLKSIZE = "blksize";         // RFC 2348
+   public static final String WINDOWSIZE = "windowsize";   // RFC 7440
+   public static final String TSIZE = "tsize";             // RFC 2349
+   public static final String TIMEOUT = "timeout";         // RFC 2349
+   public static final String MULTICAST = "multicast";     // RFC 2090
+   public static final String RANGE = "range";             // ours: "offset,length", a RRQ for only those bytes of the file
+   public static final String COMPRESS = "compress";       // ours: "deflate", the DATA blocks are one deflate stream
+
+   // The compress option's one value
+   public static final String DEFLATE = "deflate";
+
+   // Files that are compressed already, deflating them again costs CPU and saves nothing
+   private static final Set<String> COMPRESSED = new HashSet<String>(Arrays.asList(
+      "gz", "tgz", "zip", "bz2", "xz", "txz", "zst", "lz4", "lzma", "7z", "rar", "z", "cab", "jar", "apk",
+      "jpg", "jpeg", "png", "gif", "webp", "mp3", "mp4", "m4a", "mkv", "avi", "mov", "ogg", "flac", "squashfs"));
+
+   private TFTPOptions() {}
+
+   /** parseBlksize() method
+    *
+    * @param value the blksize value from a request or an OACK
+    * @return the block size, or -1 if it isn't a number or is below MIN_BLKSIZE
+    */
+   public static int parseBlksize(String value) {
+      try {
+         int blksize = Integer.parseInt(value.trim());
+         return blksize < MIN_BLKSIZE ? -1 : blksize;
+      }
+      catch(NumberFormatException | NullPointerException e) {
+         return -1;
+      }
+   } //parseBlksize()
+
+   /** negotiateBlksize() method
+    *
+    * Server side: the block size to use for a request. A client asking for more than we allow gets our max.
+    * @param requested the options from the RRQ/WRQ
+    * @param maxBlksize the biggest block the server will use
+    * @return the block size to put in the OACK, or -1 if the option is missing or no good (then 512 is used)
+    */
+   public static int negotiateBlksize(Map<String, String> requested, int maxBlksize) {
+      if(!requested.containsKey(BLKSIZE)) {
+         return -1;
+      }
+      int blksize = parseBlksize(requested.get(BLKSIZE));
+      if(blksize < 0) {
+         return -1;
+      }
+      return Math.min(blksize, Math.min(maxBlksize, MAX_BLKSIZE));
+   } //negotiateBlksize()
+
+   /** parseWindowsize() method
+    *
+    * @param value the windowsize value from a request or an OACK
+    * @return the window size, or -1 if it isn't a number from 1 to 65535
+    */
+   public static int parseWindowsize(String value) {
+      try {
+         int windowsize = Integer.parseInt(value.trim());
+         return windowsize < 1 || windowsize > 65535 ? -1 : windowsize;
+      }
+      catch(NumberFormatException | NullPointerException e) {
+         return -1;
+      }
+   } //parseWindowsize()
+
+   /** negotiateWindowsize() method
+    *
+    * Server side: the window size to use for a request, at most maxWindowsize
+    * @param requested the options from the RRQ/WRQ
+    * @param maxWindowsize the most blocks per ACK the server will use
+    * @return the window size to put in the OACK, or -1 if the option is missing or no good (then 1 is used)
+    */
+   public static int negotiateWindowsize(Map<String, String> requested, int maxWindowsize) {
+      if(!requested.containsKey(WINDOWSIZE)) {
+         return -1;
+      }
+      int windowsize = parseWindowsize(requested.get(WINDOWSIZE));
+      if(windowsize < 0) {
+         return -1;
+      }
+      return Math.min(windowsize, maxWindowsize);
+   } //negotiateWindowsize()
+
+   /** parseTsize() method
+    *
+    * @param value the tsize value from a request or an OACK
+    * @return the transfer size in bytes, or -1 if it isn't a number of at least 0
+    */
+   public static long parseTsize(String value) {
+      try {
+         long tsize = Long.parseLong(value.trim());
+         return tsize < 0 ? -1 : tsize;
+      }
+      catch(NumberFormatException | NullPointerException e) {
+         return -1;
+      }
+   } //parseTsize()
+
+   /** parseTimeout() method
+    *
+    * @param value the timeout value from a request or an OACK
+    * @return the timeout in seconds, or -1 if it isn't a number from 1 to 255
+    */
+   public static int parseTimeout(String value) {
+      try {
+         int timeout = Integer.parseInt(value.trim());
+         return timeout < 1 || timeout > 255 ? -1 : timeout;
+      }
+      catch(NumberFormatException | NullPointerException e) {
+         return -1;
+      }
+   } //parseTimeout()
+
+   /** negotiateTimeout() method
+    *
+    * Server side: the client picks the timeout, the server just uses it if it is in range
+    * @param requested the options from the RRQ/WRQ
+    * @return the timeout in seconds to put in the OACK, or -1 if the option is missing or no good
+    */
+   public static int negotiateTimeout(Map<String, String> requested) {
+      if(!requested.containsKey(TIMEOUT)) {
+         return -1;
+      }
+      return parseTimeout(requested.get(TIMEOUT));
+   } //negotiateTimeout()
+
+   /** formatMulticast() method
+    *
+    * Server side: the multicast option's value in an OACK
+    * @param group where the DATA goes, null to leave the address and port out (telling a client it is master now)
+    * @param master true if this client ACKs for the group
+    * @return "addr,port,1" or "addr,port,0"
+    */
+   public static String formatMulticast(InetSocketAddress group, boolean master) {
+      String where = group == null ? "," : group.getAddress().getHostAddress() + "," + group.getPort();
+      return where + "," + (master ? 1 : 0);
+   } //formatMulticast()
+
+   /** parseMulticastGroup() method
+    *
+    * @param value the multicast value from an OACK
+    * @return the group the DATA goes to, or null if the value has no address and port (or they are no good)
+    */
+   public static InetSocketAddress parseMulticastGroup(String value) {
+      try {
+         String[] parts = value.split(",", -1);
+         if(parts.length != 3 || parts[0].trim().isEmpty()) {
+            return null;
+         }
+         InetAddress address = InetAddress.getByName(parts[0].trim());
+         int port = Integer.parseInt(parts[1].trim());
+         if(!address.isMulticastAddress() || port < 1 || port > 65535) {
+            return null;
+         }
+         return new InetSocketAddress(address, port);
+      }
+      catch(IOException | RuntimeException e) {
+         return null;
+      }
+   } //parseMulticastGroup()
+
+   /** parseMulticastMaster() method
+    *
+    * @param value the multicast value from an OACK
+    * @return 1 if the client is the master client, 0 if not, -1 if the value is no good
+    */
+   public static int parseMulticastMaster(String value) {
+      try {
+         String[] parts = value.split(",", -1);
+         int mc = parts.length == 3 ? Integer.parseInt(parts[2].trim()) : -1;
+         return mc == 0 || mc == 1 ? mc : -1;
+      }
+      catch(NumberFormatException | NullPointerException e) {
+         return -1;
+      }
+   } //parseMulticastMaster()
+
+   /** formatRange() method
+    *
+    * @param offset where the bytes start in the file
+    * @param length how many bytes
+    * @return the range option's value, "offset,length"
+    */
+   public static String formatRange(long offset, long length) {
+      return offset + "," + length;
+   }
+
+   /** parseRange() method
+    *
+    * @param value the range value from a RRQ or an OACK
+    * @return the offset and the length, or null if they aren't two numbers of at least 0
+    */
+   public static long[] parseRange(String value) {
+      try {
+         String[] parts = value.split(",", -1);
+         if(parts.length != 2) {
+            return null;
+         }
+         long offset = Long.parseLong(parts[0].trim());
+         long length = Long.parseLong(parts[1].trim());
+         if(offset < 0 || length < 0 || offset + length < 0) {
+            return null;
+         }
+         return new long[] { offset, length };
+      }
+      catch(NumberFormatException | NullPointerException e) {
+         return null;
+      }
+   } //parseRange()
+
+   /** negotiateRange() method
+    *
+    * Server side: the bytes of the file a RRQ asked for, cut to the end of the file.
+    * A range that starts past the end is an empty one, the client gets one empty block
+    * @param requested the options from the RRQ
+    * @param fileSize the file's length
+    * @return the offset and length to put in the OACK, or null if the option is missing or no good (the whole file is sent)
+    */
+   public static long[] negotiateRange(Map<String, String> requested, long fileSize) {
+      if(!requested.containsKey(RANGE)) {
+         return null;
+      }
+      long[] range = parseRange(requested.get(RANGE));
+      if(range == null) {
+         return null;
+      }
+      range[0] = Math.min(range[0], fileSize);
+      range[1] = Math.min(range[1], fileSize - range[0]);
+      return range;
+   } //negotiateRange()
+
+   /** isCompressed() method
+    *
+    * @param fileName a file's name
+    * @return true if its extension says it is compressed already (.gz, .zip, .jpg, ...)
+    */
+   public static boolean isCompressed(String fileName) {
+      int dot = fileName.lastIndexOf('.');
+      return dot >= 0 && COMPRESSED.contains(fileName.substring(dot + 1).toLowerCase());
+   } //isCompressed()
+
+   /** negotiateCompress() method
+    *
+    * Server side: whether to take the compress option. Not for a file that is compressed already,
+    * and not with a range, that is bytes of the file and not of the compressed stream
+    * @param requested the options from the RRQ/WRQ
+    * @param fileName the file asked for
+    * @return true to put compress=deflate in the OACK and send or take the blocks compressed
+    */
+   public static boolean negotiateCompress(Map<String, String> requested, String fileName) {
+      return DEFLATE.equalsIgnoreCase(String.valueOf(requested.get(COMPRESS)).trim())
+         && !requested.containsKey(RANGE) && !isCompressed(fileName);
+   } //negotiateCompress()
+
+   /** multicastInterface() method
+    *
+    * Where multicast goes out (server) or is joined (client): -Dtftp.multicast.if=name (JVM option) if it is set,
+    * or else the interface the route to the other end goes through, lo for a server on the same machine
+    * @param peer the other end
+    * @return the interface
+    * @throws SocketException if there is no such interface
+    */
+   public static NetworkInterface multicastInterface(InetAddress peer) throws SocketException {
+      String name = System.getProperty("tftp.multicast.if");
+      NetworkInterface nif;
+      if(name != null) {
+         nif = NetworkInterface.getByName(name);
+      }
+      else {
+         try(DatagramSocket probe = new DatagramSocket()) {
+            probe.connect(peer, TFTP_PORT);   // nothing is sent, it just picks the route
+            nif = NetworkInterface.getByInetAddress(probe.getLocalAddress());
+         }
+      }
+      if(nif == null) {
+         throw new SocketException("No interface for multicast " + (name != null ? name : "to " + peer) + ", set -Dtftp.multicast.if");
+      }
+      return nif;
+   } //multicastInterface()
+
+   /** request() method
+    *
+    * Client side: the options to add to a RRQ/WRQ
+    * @param blksize the block size the client would like, DEFAULT_BLKSIZE to not ask for one
+    * @param windowsize the blocks per ACK the client would like, DEFAULT_WINDOWSIZE to not ask
+    * @param tsize the size of the file for a WRQ, 0 to ask the server for it in a RRQ, -1 to leave it out
+    * @return the options, empty for a plain RFC 1350 request
+    */
+   public static Map<String, String> request(int blksize, int windowsize, long tsize) {
+      Map<String, String> options = new LinkedHashMap<String, String>();
+      if(blksize != DEFAULT_BLKSIZE) {
+         options.put(BLKSIZE, String.valueOf(blksize));
+      }
+      if(windowsize != DEFAULT_WINDOWSIZE) {
+         options.put(WINDOWSIZE, String.valueOf(windowsize));
+      }
+      if(tsize >= 0) {
+         options.put(TSIZE, String.valueOf(tsize));
+      }
+      return options;
+   } //request()
+
+} //class TFTPOptions
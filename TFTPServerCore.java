@@ -0,0 +1,829 @@
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+
+/**
+ * TFTPServerCore - The TFTP server without a window. Made with a Builder, then start() and stop().
+ * Nothing in here needs JavaFX, so a program can run the server on its own:
+ *    TFTPServerCore server = new TFTPServerCore.Builder().rootDir(new File("/srv/tftp")).engine("nio").build();
+ *    server.start();   // listening once it returns, throws if the port can't be had
+ * Build it without the GUI classes from the project folder: javac -sourcepath . Packets.java PacketCodec.java TFTPServerCore.java
+ * TFTPServer is the window on top of it. A Listener hears about the server and its transfers,
+ * and the log goes to the Consumer given to the Builder.
+ * A RRQ/WRQ sent again while its session runs goes to that session (SessionTable), not to a new one.
+ * With multicast() set, RRQs with the multicast option (RFC 2090) for the same file share one
+ * MulticastSender, whichever engine runs the other transfers.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+public class TFTPServerCore implements TFTPConstants {
+
+   /**
+   * Listener
+   * What a program embedding the server hears about. The transfer methods are called on the thread
+   * or event loop running the transfer, so they should return quickly. All of them do nothing unless overridden
+   */
+   public interface Listener {
+      default void started(int port) {}   // listening on port
+      default void transferStarted(InetSocketAddress client, int opcode, String fileName) {}   // a RRQ or WRQ was accepted
+      default void transferEnded(InetSocketAddress client, int opcode, String fileName, long bytes, boolean complete) {}   // complete = the whole file went across
+      default void rejected(InetSocketAddress client) {}   // turned away, the server has maxSessions transfers
+      default void stopped() {}
+   } //Listener
+
+   /**
+   * Builder
+   * INNER CLASS
+   * the server's settings. rootDir is the only one that has to be set
+   */
+   public static class Builder {
+      private File rootDir = null;
+      private InetAddress bindAddress = null;   // null = every address
+      private int port = TFTP_PORT;
+      private String engine = "thread";
+      private String threads = "platform";
+      private int loops = Runtime.getRuntime().availableProcessors();
+      private int maxSessions = 0;
+      private int maxPending = 0;
+      private InetSocketAddress multicast = null;   // null = the multicast option is ignored
+      private Consumer<String> logger = null;
+      private Listener listener = null;
+
+      /** rootDir() method
+       *
+       * @param _rootDir the directory files are served from and uploaded to
+       * @return this builder
+       */
+      public Builder rootDir(File _rootDir) {
+         rootDir = _rootDir;
+         return this;
+      }
+
+      /** bindAddress() method
+       *
+       * @param _bindAddress the address to listen on, null for all of them (the default)
+       * @return this builder
+       */
+      public Builder bindAddress(InetAddress _bindAddress) {
+         bindAddress = _bindAddress;
+         return this;
+      }
+
+      /** port() method
+       *
+       * @param _port the port requests come in on, 69 by default, 0 for any free one (see getPort())
+       * @return this builder
+       */
+      public Builder port(int _port) {
+         port = _port;
+         return this;
+      }
+
+      /** engine() method
+       *
+       * @param _engine "thread" (the default) for one thread per transfer, "nio" for a few event loops
+       *        (a disk read for a block that isn't cached stops every transfer on its loop, see SelectorEngine)
+       * @return this builder
+       */
+      public Builder engine(String _engine) {
+         engine = _engine;
+         return this;
+      }
+
+      /** threads() method
+       *
+       * @param _threads "platform" (the default) or "virtual", the threads the thread engine runs transfers on
+       * @return this builder
+       */
+      public Builder threads(String _threads) {
+         threads = _threads;
+         return this;
+      }
+
+      /** loops() method
+       *
+       * @param _loops event loops for the nio engine, one per core by default
+       * @return this builder
+       */
+      public Builder loops(int _loops) {
+         loops = _loops;
+         return this;
+      }
+
+      /** maxSessions() method
+       *
+       * @param _maxSessions transfers that may run at once, 0 (the default) for no limit
+       * @return this builder
+       */
+      public Builder maxSessions(int _maxSessions) {
+         maxSessions = _maxSessions;
+         return this;
+      }
+
+      /** maxPending() method
+       *
+       * @param _maxPending thread engine: transfers that may wait for one of the maxSessions to finish
+       * @return this builder
+       */
+      public Builder maxPending(int _maxPending) {
+         maxPending = _maxPending;
+         return this;
+      }
+
+      /** multicast() method
+       *
+       * @param _multicast the multicast address and first port for RFC 2090 groups, each file going out
+       *                   at once gets the next port up. null (the default) turns the option down
+       * @return this builder
+       */
+      public Builder multicast(InetSocketAddress _multicast) {
+         multicast = _multicast;
+         return this;
+      }
+
+      /** logger() method
+       *
+       * @param _logger where log messages go, nowhere by default
+       * @return this builder
+       */
+      public Builder logger(Consumer<String> _logger) {
+         logger = _logger;
+         return this;
+      }
+
+      /** listener() method
+       *
+       * @param _listener told about the server and its transfers
+       * @return this builder
+       */
+      public Builder listener(Listener _listener) {
+         listener = _listener;
+         return this;
+      }
+
+      /** build() method
+       *
+       * @return a server with these settings, not started yet
+       * @throws IllegalArgumentException if rootDir isn't a directory or a setting is out of range
+       */
+      public TFTPServerCore build() {
+         if(rootDir == null || !rootDir.isDirectory()) {
+            throw new IllegalArgumentException("rootDir is not a directory: " + rootDir);
+         }
+         if(!engine.equals("thread") && !engine.equals("nio")) {
+            throw new IllegalArgumentException("engine is thread or nio, not " + engine);
+         }
+         if(!threads.equals("platform") && !threads.equals("virtual")) {
+            throw new IllegalArgumentException("threads is platform or virtual, not " + threads);
+         }
+         if(port < 0 || port > 65535 || loops < 1 || maxSessions < 0 || maxPending < 0) {
+            throw new IllegalArgumentException("port, loops, maxSessions or maxPending out of range");
+         }
+         if(multicast != null && (multicast.getAddress() == null || !multicast.getAddress().isMulticastAddress()
+               || multicast.getPort() < 1 || multicast.getPort() + MAX_GROUPS > 65536)) {
+            throw new IllegalArgumentException("multicast is not a multicast address and port: " + multicast);
+         }
+         return new TFTPServerCore(this);
+      } //build()
+   } //Builder
+
+   // Every server shares one timer thread for the thread engine's timeouts. It outlives stop(),
+   // the transfers still running after a stop need it
+   private static ScheduledExecutorService sessionTimer = null;
+
+   // Files going out by multicast at once, each on its own port from the Builder's one up
+   private static final int MAX_GROUPS = 64;
+
+   // Settings
+   private File rootDir;
+   private InetAddress bindAddress;
+   private int port;
+   private String engine;
+   private String threads;
+   private int loops;
+   private int maxSessions;
+   private int maxPending;
+   private InetSocketAddress multicast;
+   private Consumer<String> logger;
+   private Listener listener;
+
+   // Running
+   private UDPServerThread serverThread = null;
+   private DatagramSocket mainSocket = null;
+   private ThreadFactory sessionThreads = null;  //makes the thread each UDPClientThread runs on
+   private volatile TransferPool transferPool = null;     //only when maxSessions is set
+   private volatile SelectorEngine selectorEngine = null;
+   private volatile boolean running = false;
+   private long startupNanos = 0;
+   private Map<String, MulticastSender> groups = new HashMap<String, MulticastSender>();   // by file and block size
+   private SessionTable sessionTable = new SessionTable();   // every conversation running, so a request sent again doesn't start another
+
+   /**
+    * Constructor for TFTPServerCore, from Builder.build()
+    * @param b the settings
+    */
+   private TFTPServerCore(Builder b) {
+      rootDir = b.rootDir;
+      bindAddress = b.bindAddress;
+      port = b.port;
+      engine = b.engine;
+      threads = b.threads;
+      loops = b.loops;
+      maxSessions = b.maxSessions;
+      maxPending = b.maxPending;
+      multicast = b.multicast;
+      logger = b.logger != null ? b.logger :
+         new Consumer<String>() {
+            public void accept(String message) {}
+         };
+      listener = b.listener != null ? b.listener : new Listener() {};
+   }
+
+   /** start() method
+    *
+    * Binds the port and starts the engine. The server is listening once this returns
+    * @throws IOException if the port can't be bound, the server isn't started then
+    */
+   public synchronized void start() throws IOException {
+      if(running) {
+         return;
+      }
+      long t0 = System.nanoTime();
+      mainSocket = new DatagramSocket(new InetSocketAddress(bindAddress, port)); // Binds the socket to the port, first so a port in use fails before anything starts
+
+      if(engine.equals("nio")) {
+         try {
+            selectorEngine = new SelectorEngine(loops, maxSessions, rootDir, logger);
+         }
+         catch(IOException ioe) {
+            mainSocket.close();
+            throw ioe;
+         }
+         selectorEngine.setListener(listener);
+         selectorEngine.start();
+         transferPool = null;
+      }
+      else {
+         selectorEngine = null;
+         synchronized(TFTPServerCore.class) {
+            if(sessionTimer == null) {
+               sessionTimer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("tftp-timer").daemon(true).factory());
+            }
+         }
+         if(threads.equals("virtual")) {
+            sessionThreads = Thread.ofVirtual().name("tftp-session-", 0).factory();
+         }
+         else {
+            sessionThreads = Thread.ofPlatform().name("tftp-session-", 0).factory();
+         }
+         transferPool = maxSessions > 0 ? new TransferPool(maxSessions, maxPending, sessionThreads) : null;
+      }
+
+      running = true;
+      serverThread = new UDPServerThread();
+      serverThread.start();
+      startupNanos = System.nanoTime() - t0;
+      TFTPMetrics.server().setServer(this); // the pool and engine numbers below come from this one
+      TFTPMetrics.publish(); // on JMX as tftp:type=Server soon, without holding up the start
+
+      String how;
+      if(selectorEngine != null) {
+         how = "nio engine, " + selectorEngine.getLoopCount() + " event loops";
+      }
+      else if(transferPool != null) {
+         how = threads + " threads, at most " + maxSessions + " transfers + " + maxPending + " waiting";
+      }
+      else {
+         how = threads + " thread per transfer";
+      }
+      if(multicast != null) {
+         how += ", multicast on " + multicast.getAddress().getHostAddress() + ":" + multicast.getPort() + "+";
+      }
+      log("Server Started! (" + how + ", listening on port " + getPort() + " after " + String.format("%.1f", startupNanos / 1e6) + "ms)\n");
+      listener.started(getPort());
+   } //start()
+
+   /** stop() method
+    *
+    * Stops taking new transfers. Transfers already running finish. Logs the server's stats
+    */
+   public synchronized void stop() {
+      if(!running) {
+         return;
+      }
+      running = false;
+      serverThread.stopServer();
+      if(transferPool != null) {
+         log("Transfer pool: " + transferPool + "\n");
+      }
+      if(selectorEngine != null) {
+         log("NIO engine: " + getEngineSessionCount() + " sessions still running, " + getEngineRejected() + " rejected\n");
+      }
+      log("Session table: " + sessionTable + "\n");
+      log(TFTPMetrics.server() + "\n");
+      if(BlockCache.shared().isEnabled()) {
+         log(BlockCache.shared() + "\n");
+      }
+      for(BufferPool pool : new BufferPool[] {BufferPool.shared(), BufferPool.forSize(MAX_DATAGRAM)}) {
+         log(pool + "\n");
+         if(pool.getOutstanding() > 0) {
+            pool.reportLeaks(logger);
+         }
+      }
+      log("Server Stopped!\n");
+      listener.stopped();
+   } //stop()
+
+   /** isRunning() method
+    *
+    * @return true between start() and stop()
+    */
+   public boolean isRunning() {
+      return running;
+   }
+
+   /** getPort() method
+    *
+    * @return the port requests come in on, the one picked if the Builder said 0
+    */
+   public int getPort() {
+      DatagramSocket s = mainSocket;
+      return s != null ? s.getLocalPort() : port;
+   }
+
+   /** getRootDir() method
+    *
+    * @return the directory files are served from and uploaded to
+    */
+   public File getRootDir() {
+      return rootDir;
+   }
+
+   /** getStartupNanos() method
+    *
+    * @return how long the last start() took to be listening, in nanoseconds
+    */
+   public long getStartupNanos() {
+      return startupNanos;
+   }
+
+   /** getPoolQueueDepth() method
+    *
+    * @return transfers waiting for a slot in the transfer pool, 0 without one
+    */
+   public int getPoolQueueDepth() {
+      TransferPool p = transferPool;
+      return p != null ? p.getQueueDepth() : 0;
+   }
+
+   /** getPoolRejected() method
+    *
+    * @return transfers the transfer pool turned away with "server busy", 0 without one
+    */
+   public long getPoolRejected() {
+      TransferPool p = transferPool;
+      return p != null ? p.getRejected() : 0;
+   }
+
+   /** getPoolAverageWaitMillis() method
+    *
+    * @return the average time a transfer waited in the pool's queue, 0 without a pool
+    */
+   public double getPoolAverageWaitMillis() {
+      TransferPool p = transferPool;
+      return p != null ? p.getAverageWaitMillis() : 0;
+   }
+
+   /** getPoolMaxWaitMillis() method
+    *
+    * @return the longest time a transfer waited in the pool's queue, 0 without a pool
+    */
+   public double getPoolMaxWaitMillis() {
+      TransferPool p = transferPool;
+      return p != null ? p.getMaxWaitMillis() : 0;
+   }
+
+   /** getEngineSessionCount() method
+    *
+    * @return sessions running on the nio engine's event loops, 0 with the thread engine
+    */
+   public int getEngineSessionCount() {
+      SelectorEngine e = selectorEngine;
+      return e != null ? e.getSessionCount() : 0;
+   }
+
+   /** getEngineRejected() method
+    *
+    * @return sessions the nio engine turned away with "server busy", 0 with the thread engine
+    */
+   public long getEngineRejected() {
+      SelectorEngine e = selectorEngine;
+      return e != null ? e.getRejected() : 0;
+   }
+
+   /** getMetrics() method
+    *
+    * @return the transfer counters, also on JMX as tftp:type=Server
+    */
+   public TFTPMetrics getMetrics() {
+      return TFTPMetrics.server();
+   }
+
+   /**
+   * UDPServerThread
+   * extends Thread
+   * INNER CLASS
+   * contains run(), which waits on the port for new clients and gives each one a session
+   */
+   class UDPServerThread extends Thread {
+      public UDPServerThread() {
+         super("tftp-server");
+      }
+
+      public void run() {
+         // wait for a packet from a new client, then start a client thread
+         while (true) {
+            // Socket for the client
+            // The socket for the client is created in the client thread
+            // packet for 1st packet from a client, borrowed from the pool - whoever runs the session gives it back
+            DatagramPacket pkt = BufferPool.shared().acquire();
+
+            try {
+               // Wait for a connection and set up IO
+               // We get a DatagramPacket, instead of a Socket, in the UDP case
+               mainSocket.receive(pkt); // Wait for 1st packet
+            }
+            catch(IOException ioe) {
+               // Happens when mainSocket is closed while waiting to receive - This is how we stop the server.
+               BufferPool.shared().release(pkt);
+               return;
+            }
+            // Multicast: a RRQ for a file that is going out already joins its group
+            if(multicast != null && joinMulticast(pkt)) {
+               BufferPool.shared().release(pkt);
+               continue;
+            }
+            // A request sent again goes to the session already running for it
+            SessionTable.Handle handle = sessionTable.open(pkt);
+            if(handle == null) {
+               BufferPool.shared().release(pkt);
+               continue;
+            }
+            // NIO: hand the 1st packet to an event loop
+            if(selectorEngine != null) {
+               if(!selectorEngine.accept(pkt, handle)) {
+                  handle.close();
+                  sendBusy(pkt);
+                  BufferPool.shared().release(pkt);
+               }
+               continue;
+            }
+
+            // Create a thread for the client
+            // Instead of passing a Socket to the client thread, we pass the 1st packet
+            UDPClientThread ct = new UDPClientThread(pkt, handle);
+            if(transferPool == null) {
+               sessionThreads.newThread(ct).start();
+            }
+            else if(!transferPool.submit(ct)) {
+               handle.close();
+               sendBusy(pkt);
+               BufferPool.shared().release(pkt);
+            }
+
+         } // of while loop
+      } // of run
+
+      /**
+      * sendBusy()
+      * Turns a new client away from the port without starting a session for it
+      * @param pkt the client's first packet
+      */
+      private void sendBusy(DatagramPacket pkt) {
+         try {
+            ERRORPacket errorPkt = new ERRORPacket(pkt.getAddress(), pkt.getPort(), UNDEF, "Server busy, try again later");
+            mainSocket.send(errorPkt.build());
+            TFTPMetrics.server().errorSent(UNDEF);
+         }
+         catch(IOException ioe) {
+            log(TFTPLog.ERROR, "IOException sending busy ERROR... " + ioe + "\n");
+         }
+         try {
+            listener.rejected((InetSocketAddress)pkt.getSocketAddress());
+         }
+         catch(RuntimeException re) {
+            log(TFTPLog.ERROR, "Listener failed... " + re + "\n");
+         }
+      } //sendBusy()
+
+      /**
+      * joinMulticast()
+      * A RRQ with the multicast option joins the group for its file, or starts one. Anything else (a range of the file too),
+      * a file that isn't there (the session sends the error) or one too big for 16 bit block numbers,
+      * goes to a session as usual, and the session leaves the option out of its OACK
+      * @param pkt the client's first packet
+      * @return true if a MulticastSender took the client
+      */
+      private boolean joinMulticast(DatagramPacket pkt) {
+         PacketView view = new PacketView().wrap(pkt);
+         if(view.getLength() < 2 || view.getOpCode() != RRQ) {
+            return false;
+         }
+         RRQPacket rrqPkt = new RRQPacket();
+         rrqPkt.dissect(pkt);
+         Map<String, String> requested = rrqPkt.getOptions();
+         if(rrqPkt.getFileName() == null || !requested.containsKey(TFTPOptions.MULTICAST) || requested.containsKey(TFTPOptions.RANGE)) {
+            return false;
+         }
+         File file = new File(rootDir, rrqPkt.getFileName());
+         int blksize = TFTPOptions.negotiateBlksize(requested, MAX_BLKSIZE);
+         if(blksize < 0) {
+            blksize = DEFAULT_BLKSIZE;
+         }
+         if(!file.isFile() || file.length() / blksize + 1 > 65535) {
+            return false;
+         }
+         InetSocketAddress client = (InetSocketAddress)pkt.getSocketAddress();
+         String key = file.getPath() + "/" + blksize;
+
+         synchronized(groups) {
+            MulticastSender sender = groups.get(key);
+            if(sender != null && sender.join(client, requested)) {
+               return true;
+            }
+            int groupPort = freeGroupPort();
+            if(groupPort < 0) {
+               log("Multicast: " + MAX_GROUPS + " files going out already, " + rrqPkt.getFileName() + " gets a session of its own\n");
+               return false;
+            }
+            try {
+               sender = new MulticastSender(file, rrqPkt.getFileName(), blksize, new InetSocketAddress(multicast.getAddress(), groupPort),
+                  TFTPOptions.multicastInterface(client.getAddress()), logger, listener,
+                  new Consumer<MulticastSender>() {
+                     public void accept(MulticastSender done) {
+                        synchronized(groups) {
+                           groups.values().remove(done);
+                        }
+                     }
+                  });
+            }
+            catch(IOException ioe) {
+               log(TFTPLog.ERROR, "Multicast: could not send " + rrqPkt.getFileName() + " to a group... " + ioe + "\n");
+               return false;
+            }
+            groups.put(key, sender);
+            sender.join(client, requested);
+            sender.start();
+            return true;
+         }
+      } //joinMulticast()
+
+      /**
+      * freeGroupPort()
+      * @return the lowest group port no file is using, -1 if all MAX_GROUPS are
+      */
+      private int freeGroupPort() {
+         for(int groupPort = multicast.getPort(); groupPort < multicast.getPort() + MAX_GROUPS; groupPort++) {
+            boolean used = false;
+            for(MulticastSender sender : groups.values()) {
+               used |= sender.getGroup().getPort() == groupPort;
+            }
+            if(!used) {
+               return groupPort;
+            }
+         }
+         return -1;
+      } //freeGroupPort()
+
+      /**
+      * stopServer()
+      * Stops the server
+      * Stops any new incoming connections, clients already connected can continue to work
+      */
+      public void stopServer() {
+         try {
+            mainSocket.close();
+            if(selectorEngine != null) {
+               selectorEngine.shutdown();
+            }
+            if(transferPool != null) {
+               transferPool.shutdown();
+            }
+         }
+         catch(Exception e) {
+            log(TFTPLog.ERROR, "Exception has occurred... " + e + "\n");
+         }
+      } //stopServer()
+
+   }  //UDPServerThread class
+
+
+   /**
+   * UDPClientThread
+   * implements Runnable
+   * INNER CLASS
+   * contains a constructor which contains @param _pkt which achieves port switching
+   * contains run(), blocks on its own channel and feeds every packet to a TFTPSession
+   * Runs on a platform or a virtual thread (sessionThreads). It uses a blocking DatagramChannel and not
+   * a DatagramSocket: DatagramSocket.receive() holds the packet's monitor while it waits, which pins a
+   * virtual thread to its carrier. TFTPSession has no synchronized code either.
+   * A blocking channel read can't time out, so the sessionTimer thread calls onTimeout() instead,
+   * and closes the channel to wake this thread up if the session gives up. The lock keeps the two apart.
+   */
+   class UDPClientThread implements Runnable {
+      // Since attributes are per-object items, each ClientThread has its OWN channel, unique to that client
+      private DatagramChannel cChannel = null;
+      private DatagramPacket firstPkt = null;
+      private BufferPool pool = BufferPool.shared();   // where firstPkt goes back to
+      private int port = 0;
+      private TFTPSession session = null;
+      private SessionTable.Handle handle = null;         // the request's entry in the sessionTable
+      private ReentrantLock lock = new ReentrantLock();  // this thread and the sessionTimer both drive the session
+      private long acceptedAt = System.nanoTime();       // made when the request came in, maybe long before run()
+
+      // Constructor for ClientThread
+      // Nothing is opened here - a transfer waiting in the TransferPool queue holds no socket
+      public UDPClientThread(DatagramPacket _pkt, SessionTable.Handle _handle) {
+         firstPkt = _pkt;
+         handle = _handle;
+         port = firstPkt.getPort();
+      } //constructor
+
+      // main program for a ClientThread
+      public void run() {
+         try {
+            // So - the new DatagramChannel is on a DIFFERENT port, chosen by the OS. If we use cChannel from now on, then port switching has been achieved.
+            // Connecting it to the client means we only hear from that client
+            cChannel = DatagramChannel.open();
+            cChannel.bind(null);
+            cChannel.connect(firstPkt.getSocketAddress());
+            log("New port: " + port + "\n");
+         }
+         catch(IOException ioe) {
+            log(TFTPLog.ERROR, "IOException in UDPClientThread... " + ioe + "\n");
+            BufferPool.shared().release(firstPkt);
+            handle.close();
+            return;
+         }
+
+         // When a client connects
+         log("Client connected\n");
+
+         // The RRQ/WRQ logic lives in TFTPSession so the SelectorEngine can drive it too
+         session = new TFTPSession(firstPkt, rootDir,
+            new TFTPSession.Output() {
+               public void send(ByteBuffer pkt) throws IOException {
+                  try {
+                     cChannel.write(pkt);
+                  }
+                  catch(PortUnreachableException pue) {
+                     cChannel.write(pkt); // the ICMP error was for an earlier packet and is cleared now
+                  }
+               }
+            }, logger);
+         session.setAcceptedAt(acceptedAt); // time waiting in the TransferPool counts
+         session.setListener(listener);
+         session.setHandle(handle);
+
+         try {
+            lock.lock();
+            try {
+               session.start();
+            }
+            finally {
+               lock.unlock();
+            }
+            handle.setResend(   // UDPServerThread, when the request comes again
+               new Runnable() {
+                  public void run() {
+                     lock.lock();
+                     try {
+                        session.requestAgain();
+                     }
+                     finally {
+                        lock.unlock();
+                     }
+                  }
+               });
+            armTimer();
+
+            // The session is done with the first packet, so it becomes the receive buffer for the rest of the transfer,
+            // unless the client negotiated blocks too big for it
+            if(session.getPacketSize() > firstPkt.getData().length) {
+               BufferPool.shared().release(firstPkt);
+               pool = BufferPool.forSize(session.getPacketSize());
+               firstPkt = pool.acquire();
+            }
+            DatagramPacket incoming = firstPkt;
+            ByteBuffer inBuf = ByteBuffer.wrap(incoming.getData());
+            while(!session.isDone()) {
+               inBuf.clear();
+               int n = 0;
+               try {
+                  n = cChannel.read(inBuf); // wait for the client
+               }
+               catch(PortUnreachableException pue) {
+                  continue; // ICMP error for an earlier packet, the sessionTimer decides if the client is gone
+               }
+               incoming.setLength(n);
+               lock.lock();
+               try {
+                  session.handle(incoming);
+               }
+               finally {
+                  lock.unlock();
+               }
+            }
+         } //try
+         catch(ClosedChannelException cce) {
+            // the sessionTimer closed the channel, the client stopped answering
+         }
+         catch(IOException ioe) {
+            log(TFTPLog.ERROR, "IO Exception (3): " + ioe + "\n");
+         }
+         finally {
+            lock.lock();
+            try {
+               session.close();
+            }
+            finally {
+               lock.unlock();
+            }
+            pool.release(firstPkt);
+            try {
+               cChannel.close();
+            }
+            catch(IOException ioe) {}
+         }
+      } //run()
+
+      /**
+      * armTimer()
+      * asks the sessionTimer to call checkTimeout() at the session's deadline
+      */
+      private void armTimer() {
+         sessionTimer.schedule(
+            new Runnable() {
+               public void run() {
+                  checkTimeout();
+               }
+            }, Math.max(0, session.getDeadline() - System.nanoTime()), TimeUnit.NANOSECONDS);
+      } //armTimer()
+
+      /**
+      * checkTimeout()
+      * runs on the sessionTimer thread. The deadline may have moved since the timer was set, then it is just set again
+      */
+      private void checkTimeout() {
+         boolean gaveUp = false;
+         lock.lock();
+         try {
+            if(session.isDone()) {
+               return;
+            }
+            if(System.nanoTime() >= session.getDeadline()) {
+               session.onTimeout();
+            }
+            gaveUp = session.isDone();
+            if(!gaveUp) {
+               armTimer();
+            }
+         }
+         finally {
+            lock.unlock();
+         }
+         if(gaveUp) {
+            try {
+               cChannel.close(); // wakes run() up out of read()
+            }
+            catch(IOException ioe) {}
+         }
+      } //checkTimeout()
+
+   } // End of inner class
+
+   /**
+   * log(String message)
+   * @param gets the message to log
+   * utility method "log" to log a message through the Builder's logger
+   */
+   private void log(String message) {
+      log(TFTPLog.INFO, message);
+   } // of log
+
+   /**
+   * log(int msgLevel, String message)
+   * @param msgLevel TFTPLog.ERROR for what went wrong
+   * @param gets the message to log
+   */
+   private void log(int msgLevel, String message) {
+      TFTPLog.logTo(logger, msgLevel, message);
+   } // of log
+
+} //class TFTPServerCore
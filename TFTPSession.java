@@ -0,0 +1,839 @@
+import java.net.*;
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.util.function.*;
+
+/**
+ * TFTPSession - one RRQ/WRQ conversation with a client, written as a state machine.
+ * The session never receives on its own. Whoever owns the socket (a UDPClientThread
+ * blocking in receive(), or a SelectorEngine event loop) hands it every packet through
+ * handle(), and the session answers through its Output.
+ * The block size is per session (RFC 2348 blksize option), so whoever receives for it
+ * needs a buffer of at least getPacketSize() bytes once start() returns.
+ * The session has no clock either. The owner calls onTimeout() once System.nanoTime() passes
+ * getDeadline(), and the session sends again from the last acknowledged block (RFC 7440 windowsize).
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/9/2021
+ */
+
+class TFTPSession implements TFTPConstants {
+   // Disk space the uploads running now said they need (tsize) and haven't written yet.
+   // Setting a file's length doesn't hold its blocks on most file systems, so this is what keeps
+   // two uploads that each fit alone from both being accepted and both running out part way
+   private static final AtomicLong promised = new AtomicLong();
+
+   /**
+   * Output
+   * Where a session sends its packets - a DatagramChannel connected to the client.
+   * send() gets the packet between the buffer's position and limit.
+   */
+   interface Output {
+      void send(ByteBuffer pkt) throws IOException;
+   }
+
+   // Attributes
+   private DatagramPacket firstPkt = null;
+   private File rootDir = null;
+   private Output out = null;
+   private Consumer<String> logger = null;
+   private InetAddress toAddress = null;
+   private int port = 0;
+   private int opcode = 0;
+   private String fileName = null;
+
+   // Transfer state
+   private int blksize = DEFAULT_BLKSIZE;         // negotiated with the client, a block shorter than this is the last one
+   private int windowsize = DEFAULT_WINDOWSIZE;   // negotiated with the client, blocks per ACK
+   private Map<String, String> oack = null;       // the accepted options, kept to send the OACK again if it is lost
+   private SendWindow sendWindow = null;          // RRQ
+   private ReceiveWindow recvWindow = null;       // WRQ
+   private int size = 0;           // bytes in the last DATA block sent/received
+   private boolean done = false;
+   private boolean dallying = false;              // WRQ: the last ACK is out, waiting in case it got lost
+   private BlockReader reader = null;             // RRQ: reads any block by its position, for windows sent again too
+   private long rangeStart = 0;                   // RRQ: where block 1 starts in the file, and where the bytes sent end,
+   private long rangeEnd = Long.MAX_VALUE;        //      the whole file unless the client asked for a range
+   private BlockWriter writer = null;             // WRQ: writes each block at its own position
+   private boolean compress = false;              // the blocks are one deflate stream (the compress option)
+   private DeflateReader deflater = null;         // RRQ with compress: the file compressed, read by position like reader
+   private InflateWriter inflater = null;         // WRQ with compress: inflates each block in order into writer
+   private long expected = 0;                     // WRQ: the size the client said the file is (tsize)
+   private long reserved = 0;                     // WRQ: the part of expected not written yet, counted in promised
+
+   // Retransmission
+   private RetransmitTimer timer = new RetransmitTimer();   // adapts to the client's round trip time
+   private long deadline = Long.MAX_VALUE;
+   private long highestSent = 0;                  // RRQ: blocks up to this one were sent before, sending one again is a retransmit
+
+   // Metrics (JMX)
+   private long acceptedAt = System.nanoTime();   // when the request came in, for the latency to the first DATA
+   private TFTPMetrics.Transfer transfer = null;
+
+   // Told when the transfer starts and ends, for a program running TFTPServerCore
+   private TFTPServerCore.Listener listener = null;
+   private boolean announced = false;             // transferStarted() was called, so transferEnded() is owed
+
+   // This conversation's entry in the server's SessionTable, taken out on close()
+   private SessionTable.Handle handle = null;
+
+   // Packets are encoded into one reusable buffer and read through one reusable view,
+   // so a DATA or ACK costs no allocation. Grown once if a bigger block size is negotiated
+   private ByteBuffer sendBuf = ByteBuffer.allocateDirect(DEFAULT_BLKSIZE + 4);
+   private PacketView view = new PacketView();
+
+   /**
+    * Parameterized constructor for TFTPSession
+    * @param _firstPkt the RRQ/WRQ that started the conversation
+    * @param _rootDir the directory files are served from and uploaded to
+    * @param _out where packets for the client are sent
+    * @param _logger where log messages go
+    */
+   public TFTPSession(DatagramPacket _firstPkt, File _rootDir, Output _out, Consumer<String> _logger) {
+      firstPkt = _firstPkt;
+      rootDir = _rootDir;
+      out = _out;
+      logger = _logger;
+      toAddress = firstPkt.getAddress();
+      port = firstPkt.getPort();
+   }
+
+   /** start() method
+    *
+    * Figures out if the first packet is a RRQ or WRQ and sends the first reply.
+    * Once start() returns the session is done with the first packet, and the caller may reuse it.
+    */
+   public void start() {
+      transfer = TFTPMetrics.server().begin(acceptedAt, toAddress.getHostAddress() + ":" + port);
+      opcode = view.wrap(firstPkt).getOpCode(); //read the opcode
+
+      switch(opcode) {
+         case RRQ: //read request
+            log("First Packet is a Read Request!, opcode: " + opcode + "\n");
+            log("Using Port: " + port + " " + "\n");
+            doRRQ();
+            break;
+
+         case WRQ: //write request
+            log("First Packet is a Write Request!, opcode: " + opcode + "\n");
+            doWRQ();
+            break;
+
+         default:
+            sendError(ILLOP, "Illegal Opcode! Looking for OPCODE-1 or OPCODE-2. Recieved: " + opcode);
+            done = true;
+            break;
+      } //switch
+      firstPkt = null;
+      if(done) {
+         close();
+      }
+   } //start()
+
+   /** setAcceptedAt() method
+    *
+    * For an owner that queued the request before the session was made, so the wait counts in the latency
+    * @param _acceptedAt System.nanoTime() the request came in
+    */
+   public void setAcceptedAt(long _acceptedAt) {
+      acceptedAt = _acceptedAt;
+   }
+
+   /** setListener() method
+    *
+    * @param _listener told about the transfer once the request is read, and when it ends
+    */
+   public void setListener(TFTPServerCore.Listener _listener) {
+      listener = _listener;
+   }
+
+   /** setHandle() method
+    *
+    * @param _handle the session's entry in the server's SessionTable, closed with the session
+    */
+   public void setHandle(SessionTable.Handle _handle) {
+      handle = _handle;
+   }
+
+   /** handle() method
+    *
+    * Feeds the next packet from the client into the conversation
+    * @param pkt the packet received on this session's socket
+    */
+   public void handle(DatagramPacket pkt) {
+      if(done) {
+         return;
+      }
+      if(opcode == RRQ) {
+         onACK(pkt);
+      }
+      else {
+         onDATA(pkt);
+      }
+      if(done) {
+         close();
+      }
+   } //handle()
+
+   /** onTimeout() method
+    *
+    * Nothing came from the client before the deadline. Sends the window (RRQ) or the last ACK (WRQ)
+    * again, and gives up once the RetransmitTimer's retry budget is used up
+    */
+   public void onTimeout() {
+      if(done) {
+         return;
+      }
+      if(!dallying) {
+         transfer.timeout();
+      }
+      if(dallying) {
+         done = true;   // the client never sent the last block again, so it got our last ACK
+      }
+      else if(timer.timedOut()) {
+         log(TFTPLog.ERROR, "Client stopped answering, giving up on " + fileName + " after " + timer.getRetries() + " retries\n");
+         done = true;
+      }
+      else if(opcode == RRQ) {
+         log("Timeout, sending again from Blk#: " + (sendWindow.getLastAcked() + 1) + "\n");
+         sendWindow.rewind();
+         sendWindow();
+      }
+      else {
+         log("Timeout, sending ACK again... Blk#: " + recvWindow.getAckNo() + "\n");
+         if(recvWindow.getLastInOrder() == 0 && oack != null) {
+            sendOACK(oack);   // the OACK stands for ACK 0
+         }
+         else {
+            sendACK(recvWindow.getAckNo());
+         }
+         armTimeout();
+      }
+      if(done) {
+         close();
+      }
+   } //onTimeout()
+
+   /** requestAgain() method
+    *
+    * The client sent its RRQ/WRQ again: it never got our first reply (the OACK, ACK 0, or the first
+    * window), so that is sent again. A copy that comes after the client answered is an old one and is dropped.
+    * The next answer gives no round trip sample, like after a timeout (Karn)
+    */
+   public void requestAgain() {
+      if(done || dallying) {
+         return;
+      }
+      if(opcode == RRQ && sendWindow != null && sendWindow.getLastAcked() < (oack != null ? 0 : 1)) {
+         log("RRQ again from the client, sending from Blk#: " + (sendWindow.getLastAcked() + 1) + " again\n");
+         timer.timedOut();
+         sendWindow.rewind();
+         sendWindow();
+      }
+      else if(opcode == WRQ && recvWindow != null && recvWindow.getLastInOrder() == 0) {
+         log("WRQ again from the client, sending " + (oack != null ? "OACK" : "ACK 0") + " again\n");
+         timer.timedOut();
+         if(oack != null) {
+            sendOACK(oack);
+         }
+         else {
+            sendACK(0);
+         }
+         armTimeout();
+      }
+      if(done) {
+         close();
+      }
+   } //requestAgain()
+
+   /** getDeadline() method
+    *
+    * @return the System.nanoTime() at which onTimeout() should be called, Long.MAX_VALUE once done
+    */
+   public long getDeadline() {
+      return done ? Long.MAX_VALUE : deadline;
+   }
+
+   /** getPacketSize() method
+    *
+    * @return the biggest packet this session sends or expects, the block size + 4 header bytes
+    */
+   public int getPacketSize() {
+      return blksize + 4;
+   }
+
+   /** isDone() method
+    *
+    * @return true once the transfer finished or was aborted
+    */
+   public boolean isDone() {
+      return done;
+   }
+
+   /** isComplete() method
+    *
+    * @return true if the whole file went across: the last block of a RRQ was ACKed, or a WRQ's file is written
+    */
+   public boolean isComplete() {
+      return opcode == RRQ ? sendWindow != null && sendWindow.isComplete() : dallying;
+   }
+
+   /** close() method
+    *
+    * Closes the file streams
+    */
+   public void close() {
+      done = true;
+      if(handle != null) {
+         handle.close();
+         handle = null;
+      }
+      if(transfer != null) {
+         transfer.end();
+      }
+      if(announced) {
+         announced = false;
+         try {
+            listener.transferEnded(new InetSocketAddress(toAddress, port), opcode, fileName, transfer.getBytes(), isComplete());
+         }
+         catch(RuntimeException re) {
+            log(TFTPLog.ERROR, "Listener failed... " + re + "\n");
+         }
+      }
+      try {
+         if(deflater != null) {
+            log("Sent " + deflater.getBytesIn() + " bytes of " + fileName + " as " + deflater.getBytesOut() + " compressed\n");
+            deflater.close(); // and the reader with it
+         }
+         else if(reader != null) {
+            reader.close();
+         }
+         if(inflater != null) {
+            inflater.close(); // and the writer with it
+         }
+         else if(writer != null) {
+            writer.close(); // an upload that stopped part way keeps only what came, not the preallocated rest
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException closing session files... " + ioe + "\n");
+      }
+      reader = null;
+      writer = null;
+      deflater = null;
+      inflater = null;
+      promised.addAndGet(-reserved);
+      reserved = 0;
+   } //close()
+
+   /**
+   * doRRQ()
+   * TFTP Read Request
+   * opens the requested file and sends the first window
+   */
+   private void doRRQ() { // AKA DOWNLOAD
+      // Create an RRQPacket & Dissect the first packet
+      RRQPacket rrqPkt = new RRQPacket();
+      rrqPkt.dissect(firstPkt);
+      fileName = rrqPkt.getFileName(); // get the file name
+      transfer.request(RRQ, fileName);
+      announce();
+      Map<String, String> accepted = negotiate(rrqPkt.getOptions());
+
+      File downFile = new File(rootDir, fileName);                    // get the file in it's directory
+      try {
+         reader = new BlockReader(downFile, BlockCache.shared());     // open the file, or find it in the cache
+      }
+      catch(FileNotFoundException fnfe) {
+         log(TFTPLog.ERROR, "FileNotFoundException occurred in doRRQ()... Sending error packet! - " + fnfe + "\n");
+         sendError(NOTFD, fnfe.toString());
+         done = true;
+         return;
+      } //catch fnfe
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException occurred in doRRQ()... " + ioe + "\n");
+         sendError(ACCESS, ioe.toString());
+         done = true;
+         return;
+      }
+
+      // The client sends 0 and gets the real size back. Left out for an empty file, some clients (curl) take tsize 0 as an error
+      if(rrqPkt.getOptions().containsKey(TFTPOptions.TSIZE) && downFile.length() > 0) {
+         accepted.put(TFTPOptions.TSIZE, String.valueOf(downFile.length()));
+      }
+
+      // Only part of the file: block 1 starts at the offset, and the range ends with a short block. tsize is still the whole file's
+      long[] range = TFTPOptions.negotiateRange(rrqPkt.getOptions(), downFile.length());
+      if(range != null) {
+         rangeStart = range[0];
+         rangeEnd = range[0] + range[1];
+         accepted.put(TFTPOptions.RANGE, TFTPOptions.formatRange(range[0], range[1]));
+         log("Negotiated range: " + range[1] + " bytes from " + range[0] + "\n");
+      }
+
+      if(!accepted.isEmpty()) {
+         oack = accepted;
+         sendWindow = new SendWindow(1, -1);   // block 0 is the OACK, alone until the client ACKs it, blocks sent before that would be strays to it
+      }
+      else {
+         sendWindow = new SendWindow(1, 0);
+      }
+      if(compress) {
+         deflater = new DeflateReader(reader, blksize, windowsize);
+      }
+      sendWindow();
+   } //doRRQ()
+
+   /**
+   * sendWindow()
+   * sends every block the window allows, then waits for an ACK
+   */
+   private void sendWindow() {
+      while(!done && sendWindow.hasNext()) {
+         long block = sendWindow.next();
+         if(block == 0) {
+            sendOACK(oack);
+         }
+         else {
+            sendBlock(block);
+         }
+      }
+      timer.sent();
+      armTimeout();
+   } //sendWindow()
+
+   /**
+   * sendBlock()
+   * reads a block of the file (of the range, if there is one) and sends it as a DATAPacket
+   * @param block which block, counting from 1
+   */
+   private void sendBlock(long block) {
+      long pos = rangeStart + (block - 1) * blksize;
+      int len = (int)Math.max(0, Math.min(blksize, rangeEnd - pos));
+      try {
+         if(len == 0) {
+            size = 0;
+         }
+         else if(deflater != null) {
+            size = deflater.read(pos, sendBuf, 4, len); // the next piece of the compressed stream
+         }
+         else {
+            size = reader.read(pos, sendBuf, 4, len); // straight into the packet after the 4 header bytes
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException occurred in doRRQ()..." + ioe + "\n");
+         sendError(UNDEF, ioe.toString());
+         done = true;
+         return;
+      }
+      if(size < blksize) {
+         sendWindow.setLastBlock(block);
+      }
+
+      try {
+         PacketCodec.encodeDATA(sendBuf, (int)block, size); //make the DATA packet around the data
+         if(TFTPLog.isEnabled(TFTPLog.TRACE)) {
+            logBlock((int)block, sendBuf, size);
+         }
+         out.send(sendBuf);
+         transfer.sent(size, block <= highestSent);
+         highestSent = Math.max(highestSent, block);
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException sending DATAPacket in doRRQ()..." + ioe + "\n");
+         done = true;
+      }
+   } //sendBlock()
+
+   /**
+   * onACK()
+   * RRQ: the client acknowledged a block, send the next window
+   */
+   private void onACK(DatagramPacket pkt) {
+      if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+         log("Received ACK Packet!" + "\n");
+      }
+      if(!readACKPacket(pkt)) {
+         return;
+      }
+
+      timer.progress();
+      sendWindow.setWindowSize(windowsize);   // full size from ACK 0 on
+      if(sendWindow.isComplete()) {
+         log("Client completed their task!\n"); //the short block at the end of the file was ACKed
+         done = true;
+         return;
+      }
+      sendWindow();
+   } //onACK()
+
+   /**
+   * doWRQ()
+   * TFTP Write Request
+   * creates the file and acknowledges block 0. If the client sent tsize, a file that won't fit
+   * beside what the other uploads still have to write is turned down with DSKFUL before any data comes
+   */
+   private void doWRQ() {
+      // Dissect the first packet
+      WRQPacket wrqPkt = new WRQPacket();
+      wrqPkt.dissect(firstPkt);
+      fileName = wrqPkt.getFileName();
+      transfer.request(WRQ, fileName);
+      announce();
+      Map<String, String> accepted = negotiate(wrqPkt.getOptions());
+
+      File upFile = new File(rootDir, fileName);
+      long tsize = TFTPOptions.parseTsize(wrqPkt.getOptions().get(TFTPOptions.TSIZE)); // -1 if the client didn't say
+      File upDir = upFile.getParentFile();
+      if(tsize > 0 && upDir.isDirectory() && !reserve(tsize, upDir.getUsableSpace() + upFile.length())) {
+         log(TFTPLog.ERROR, "No room for " + fileName + ", " + tsize + " bytes, " + upDir.getUsableSpace() + " free, " + promised.get() + " promised to other uploads\n");
+         sendError(DSKFUL, "Disk full: " + tsize + " bytes won't fit");
+         done = true;
+         return;
+      }
+
+      //create the block writer
+      try {
+         writer = new BlockWriter(upFile, blksize);
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException occurred in doWRQ()... " + ioe + "\n");
+         sendError(ACCESS, ioe.toString());
+         done = true;
+         return;
+      }
+
+      if(tsize >= 0) {
+         try {
+            writer.preallocate(tsize);
+         }
+         catch(IOException ioe) {
+            log(TFTPLog.ERROR, "Could not make room for " + fileName + "... " + ioe + "\n");
+            sendError(DSKFUL, ioe.toString());
+            done = true;
+            return;
+         }
+         accepted.put(TFTPOptions.TSIZE, String.valueOf(tsize));
+      }
+
+      if(compress) {
+         inflater = new InflateWriter(writer);
+      }
+      recvWindow = new ReceiveWindow(windowsize);
+      if(!accepted.isEmpty()) {
+         oack = accepted;
+         sendOACK(oack);   // takes the place of ACK 0
+      }
+      else {
+         sendACK(0);
+      }
+      timer.sent();
+      armTimeout();
+   } //doWRQ()
+
+   /**
+   * reserve()
+   * promises an upload its tsize, if it fits in what is free less what the other uploads were promised
+   * @param tsize the size the client said the file is
+   * @param free the space there is for it
+   * @return false if it doesn't fit
+   */
+   private boolean reserve(long tsize, long free) {
+      long before;
+      do {
+         before = promised.get();
+         if(tsize > free - before) {
+            return false;
+         }
+      } while(!promised.compareAndSet(before, before + tsize));
+      expected = tsize;
+      reserved = tsize;
+      return true;
+   } //reserve()
+
+   /**
+   * written()
+   * gives back the part of the promise that is in the file now, the disk's free space counts it from here on
+   */
+   private void written() {
+      if(reserved == 0) {
+         return;
+      }
+      long left = Math.max(0, expected - writer.getSize());
+      if(left < reserved) {
+         promised.addAndGet(left - reserved);
+         reserved = left;
+      }
+   } //written()
+
+   /**
+   * onDATA()
+   * WRQ: write the block the client sent, and acknowledge the window when it is full
+   */
+   private void onDATA(DatagramPacket incoming) {
+      try {
+         int pktOpcode = view.wrap(incoming).getOpCode(); //read in the opcode
+
+         //if the opcode is an error...
+         if (pktOpcode == ERROR) { //opcode == 5
+            log(TFTPLog.ERROR, "Error recieved from client:\n     [ERRORNUM:" + view.getErrorNo() + "] ... " + view.getErrorMsg() + "\n");
+            transfer.errorReceived(view.getErrorNo());
+            done = true;
+            return;
+         }
+         else if (pktOpcode != DATA) {
+            log(TFTPLog.ERROR, "Illegal Opcode! Looking for OPCODE-3 or OPCODE-5. Recieved: " + pktOpcode + "\n");
+            sendError(ILLOP, "Illegal Opcode! Looking for OPCODE-3 or OPCODE-5. Recieved: " + pktOpcode);
+            done = true;
+            return;
+         }
+
+         // GET ATTRIBUTES: read in place, the data never leaves the receive buffer
+         int blockNo = view.getBlockNo();
+         size = view.getPayloadLength();
+         if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+            log("DATAPacket: blockNo: " + blockNo + ", port: " + incoming.getPort() + ", Length of Data: " + (size + 1) + "\n"); //log the DATAPacket
+         }
+
+         boolean progress = recvWindow.accept(blockNo, size < blksize);
+         if(progress) {
+            if(inflater != null) {
+               inflater.write(incoming.getData(), view.getPayloadOffset(), size); //inflate it into the file, the blocks come in order
+            }
+            else {
+               writer.write(recvWindow.getLastInOrder(), incoming.getData(), view.getPayloadOffset(), size); //write the data
+            }
+            written();
+            timer.progress();
+            transfer.received(size);
+         }
+         else if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+            log("Blk# " + blockNo + " out of order, have up to " + recvWindow.getAckNo() + "\n");
+         }
+
+         if(recvWindow.isComplete() && !dallying) {
+            if(inflater != null) {
+               log("Took " + inflater.getBytesIn() + " compressed bytes of " + fileName + " as " + inflater.getBytesOut() + "\n");
+               inflater.finish(); // the deflate stream has to end here too, then the same as below
+               inflater = null;
+            }
+            else {
+               writer.finish(); // the file is written (and synced, if -Dtftp.sync says so) before the last ACK, and cut in case tsize said more than the client sent
+            }
+            writer = null;
+            log("Successfuly uploaded file..." + fileName + "\n"); //the short block at the end of the file is in
+            dallying = true;   // stay a while in case the last ACK is lost and the client sends the block again
+         }
+
+         if(recvWindow.takeAckDue()) {
+            sendACK(recvWindow.getAckNo());
+            timer.sent();
+            progress = true;
+         }
+         if(progress) {
+            armTimeout();   // stray blocks that get no answer don't put the timeout off
+         }
+      } //try
+      catch(IOException ioe){
+         log(TFTPLog.ERROR, "IOException occurred..." + ioe + "\n");
+         sendError(UNDEF, ioe.toString());
+         done = true;
+      }
+   } //onDATA()
+
+   /**
+   * negotiate()
+   * picks the options from the request this server accepts and sets the session up for them
+   * @param requested the options after the mode in the RRQ/WRQ
+   * @return the accepted options for the OACK, empty to answer like plain RFC 1350
+   */
+   private Map<String, String> negotiate(Map<String, String> requested) {
+      Map<String, String> accepted = new LinkedHashMap<String, String>();
+      int size = TFTPOptions.negotiateBlksize(requested, MAX_BLKSIZE);
+      if(size > 0) {
+         blksize = size;
+         accepted.put(TFTPOptions.BLKSIZE, String.valueOf(blksize));
+         if(sendBuf.capacity() < blksize + 4) {
+            sendBuf = ByteBuffer.allocateDirect(blksize + 4);
+         }
+         log("Negotiated blksize: " + blksize + "\n");
+      }
+      int timeout = TFTPOptions.negotiateTimeout(requested);
+      if(timeout > 0) {
+         timer = new RetransmitTimer(timeout);   // the most to wait, it still adapts below that
+         accepted.put(TFTPOptions.TIMEOUT, String.valueOf(timeout));
+         log("Negotiated timeout: " + timeout + "s\n");
+      }
+      if(TFTPOptions.negotiateCompress(requested, fileName)) {
+         compress = true;
+         accepted.put(TFTPOptions.COMPRESS, TFTPOptions.DEFLATE);
+         log("Negotiated compress: " + TFTPOptions.DEFLATE + "\n");
+      }
+      int window = TFTPOptions.negotiateWindowsize(requested, MAX_WINDOWSIZE);
+      if(window > 0) {
+         windowsize = window;
+         accepted.put(TFTPOptions.WINDOWSIZE, String.valueOf(windowsize));
+         log("Negotiated windowsize: " + windowsize + "\n");
+      }
+      return accepted;
+   } //negotiate()
+
+   /**
+   * readACKPacket()
+   * For reading the ACKPackets
+   * @param pkt of DatagramPacket
+   * @return true if the ACK confirmed a block that wasn't confirmed yet
+   */
+   private boolean readACKPacket(DatagramPacket pkt) {
+      try {
+         int pktOpcode = view.wrap(pkt).getOpCode(); //read in the opcode
+
+         //if the opcode is an ACKPacket..
+         if (pktOpcode == ACK) {
+            if(sendWindow.ack(view.getBlockNo())) {
+               if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+                  log("readACKPacket()..." + "Blk#: " + view.getBlockNo() +  ", ACK!, all good." + "\n"); //all good
+               }
+               return true;
+            }
+            // A duplicate or old ACK - answering it would send the window twice, so it is dropped
+            transfer.duplicateAck();
+            if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+               log("Old ACK dropped, Blk#: " + view.getBlockNo() + ", have up to " + sendWindow.getLastAcked() + "\n");
+            }
+            return false;
+         } //if opcode == ACK
+
+         else if (pktOpcode == ERROR) {
+            //log the error
+            log(TFTPLog.ERROR, "Error recieved from client:\n     [ERRORNUM:" + view.getErrorNo() + "] ... " + view.getErrorMsg() + "\n");
+            transfer.errorReceived(view.getErrorNo());
+         } //else if opcode == ERROR
+
+         else{
+            log(TFTPLog.ERROR, "Illegal Opcode! Looking for OPCODE-4 or OPCODE-5. Recieved: " + pktOpcode + "\n"); // Exception has occurred...send error packet
+            sendError(ILLOP, "Illegal Opcode! Looking for OPCODE-4 or OPCODE-5. Recieved: " + pktOpcode);
+         }
+      } //try
+      catch(Exception e) {
+         log(TFTPLog.ERROR, "Error occured in readACKPacket(): " + e + "\n");
+      }
+
+      done = true;
+      return false;
+   } //readACKPacket()
+
+   /**
+   * announce()
+   * tells the listener, if there is one, that the request was read
+   */
+   private void announce() {
+      if(listener == null) {
+         return;
+      }
+      announced = true;
+      try {
+         listener.transferStarted(new InetSocketAddress(toAddress, port), opcode, fileName);
+      }
+      catch(RuntimeException re) {
+         log(TFTPLog.ERROR, "Listener failed... " + re + "\n");   // a bad listener must not stop the transfer
+      }
+   } //announce()
+
+   /**
+   * armTimeout()
+   * starts the clock for the packets just sent
+   */
+   private void armTimeout() {
+      deadline = System.nanoTime() + (dallying ? timer.getDallyTime() : timer.getTimeout());
+   }
+
+   /**
+   * sendACK()
+   * @param ackNo the block number to acknowledge
+   */
+   private void sendACK(int ackNo) {
+      try {
+         PacketCodec.encodeACK(sendBuf, ackNo);                    // make the ACK
+         out.send(sendBuf);                                        // send it
+         if(TFTPLog.isEnabled(TFTPLog.DEBUG)) {
+            log("Sent ACK Packet! Blk#: " + ackNo + "\n");            // log it
+         }
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException sending ACK... " + ioe + "\n");
+         done = true;
+      }
+   } //sendACK()
+
+   /**
+   * sendOACK()
+   * @param accepted the options to acknowledge
+   */
+   private void sendOACK(Map<String, String> accepted) {
+      try {
+         PacketCodec.encodeOACK(sendBuf, accepted);
+         out.send(sendBuf);
+         log("Sent OACK Packet! " + accepted + "\n");
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException sending OACK... " + ioe + "\n");
+         done = true;
+      }
+   } //sendOACK()
+
+   /**
+   * sendError()
+   * @param errorNo the error code
+   * @param errorMsg the message for the client
+   */
+   private void sendError(int errorNo, String errorMsg) {
+      try {
+         PacketCodec.encodeERROR(sendBuf, errorNo, errorMsg);                       // build the error packet
+         out.send(sendBuf);                                                         // send the error packet
+         transfer.errorSent(errorNo);
+         log("ERROR sent to client...\n");
+      }
+      catch(IOException ioe) {
+         log(TFTPLog.ERROR, "IOException sending ERROR... " + ioe + "\n");
+      }
+   } //sendError()
+
+   /**
+   * logBlock()
+   * logs a few bytes from the front and back of a DATA block
+   * @param pkt the DATA packet, data starts at index 4
+   */
+   private void logBlock(int blockNo, ByteBuffer pkt, int size) {
+      if (size >= 8) {
+         log("Sending DATAPacket: blockNo: " + blockNo + " - [0]" + pkt.get(4) + "  [1]" + pkt.get(5) + "  [2]" + pkt.get(6) + "  [3]" + pkt.get(7) +
+            "  ...[" + (size -3) + "]" +  pkt.get(4 + size -3) + "  [" + (size -2) + "]" + pkt.get(4 + size -2) + "  [" + (size -1)  + "]" + pkt.get(4 + size -1) + "\n");
+      }
+      else if (size >= 3) {
+         log("Sending DATAPacket: blockNo: " + blockNo + " - [0]" + pkt.get(4) + "  [1]" + pkt.get(5) + "  [2]" + pkt.get(6) + "\n");
+      }
+      else {
+         log("Sending DATAPacket: blockNo: " + blockNo + ", " + size + " bytes\n");
+      }
+   } //logBlock()
+
+   /**
+   * log()
+   * @param message passed on to whoever owns this session, at INFO
+   */
+   private void log(String message) {
+      log(TFTPLog.INFO, message);
+   }
+
+   /**
+   * log()
+   * @param msgLevel TFTPLog.ERROR for what went wrong, so -Dtftp.log=error still shows it
+   * @param message passed on to whoever owns this session
+   */
+   private void log(int msgLevel, String message) {
+      TFTPLog.logTo(logger, msgLevel, message);
+   }
+
+} //class TFTPSession
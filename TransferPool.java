@@ -0,0 +1,141 @@
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * TransferPool - Bounded executor for transfer sessions with admission control.
+ * At most maxSessions transfers run at once and at most maxPending wait for a slot.
+ * When both are full submit() says no right away, so the caller can answer "server busy"
+ * without opening a socket or a file for the request.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/9/2021
+ */
+
+class TransferPool {
+   // Attributes
+   private ThreadPoolExecutor executor;
+   private int maxSessions, maxPending;
+
+   // Stats
+   private LongAdder accepted = new LongAdder();
+   private LongAdder rejected = new LongAdder();
+   private LongAdder waitNanos = new LongAdder();   // total time tasks spent queued
+   private LongAdder started = new LongAdder();
+   private AtomicLong maxWaitNanos = new AtomicLong();
+
+   /**
+    * Parameterized constructor for TransferPool
+    * @param _maxSessions how many transfers may run at the same time
+    * @param _maxPending how many transfers may wait for a free slot
+    * @param _factory makes the threads (platform or virtual) the transfers run on
+    */
+   public TransferPool(int _maxSessions, int _maxPending, ThreadFactory _factory) {
+      maxSessions = _maxSessions;
+      maxPending = _maxPending;
+
+      BlockingQueue<Runnable> queue;
+      if(maxPending > 0) {
+         queue = new ArrayBlockingQueue<Runnable>(maxPending);
+      }
+      else {
+         queue = new SynchronousQueue<Runnable>(); // no waiting room at all
+      }
+      executor = new ThreadPoolExecutor(maxSessions, maxSessions, 30, TimeUnit.SECONDS, queue, _factory, new ThreadPoolExecutor.AbortPolicy());
+      executor.allowCoreThreadTimeOut(true);
+   }
+
+   /** submit() method
+    *
+    * Runs the transfer now, queues it, or turns it away
+    * @param task the transfer
+    * @return false if the pool and the queue are both full
+    */
+   public boolean submit(Runnable task) {
+      final long queuedAt = System.nanoTime();
+      final Runnable transfer = task;
+      try {
+         executor.execute(
+            new Runnable() {
+               public void run() {
+                  long waited = System.nanoTime() - queuedAt;
+                  waitNanos.add(waited);
+                  started.increment();
+                  maxWaitNanos.accumulateAndGet(waited, Math::max);
+                  transfer.run();
+               }
+            });
+      }
+      catch(RejectedExecutionException ree) {
+         rejected.increment();
+         return false;
+      }
+      accepted.increment();
+      return true;
+   } //submit()
+
+   /** shutdown() method
+    *
+    * Stops taking transfers, the ones already running or queued finish
+    */
+   public void shutdown() {
+      executor.shutdown();
+   }
+
+   /** getActiveCount() method
+    *
+    * @return transfers running right now
+    */
+   public int getActiveCount() {
+      return executor.getActiveCount();
+   }
+
+   /** getQueueDepth() method
+    *
+    * @return transfers waiting for a slot
+    */
+   public int getQueueDepth() {
+      return executor.getQueue().size();
+   }
+
+   /** getAccepted() method
+    *
+    * @return transfers taken since the pool was made
+    */
+   public long getAccepted() {
+      return accepted.sum();
+   }
+
+   /** getRejected() method
+    *
+    * @return transfers turned away with "server busy"
+    */
+   public long getRejected() {
+      return rejected.sum();
+   }
+
+   /** getAverageWaitMillis() method
+    *
+    * @return the average time a transfer waited in the queue before it started
+    */
+   public double getAverageWaitMillis() {
+      long n = started.sum();
+      return n == 0 ? 0 : waitNanos.sum() / (double)n / 1000000.0;
+   }
+
+   /** getMaxWaitMillis() method
+    *
+    * @return the longest time a transfer waited in the queue
+    */
+   public double getMaxWaitMillis() {
+      return maxWaitNanos.get() / 1000000.0;
+   }
+
+   /** toString() method
+    *
+    * @return one line of stats for the log
+    */
+   public String toString() {
+      return String.format("sessions %d/%d, queued %d/%d, accepted %d, rejected %d, wait avg %.2f ms max %.2f ms",
+         getActiveCount(), maxSessions, getQueueDepth(), maxPending, getAccepted(), getRejected(), getAverageWaitMillis(), getMaxWaitMillis());
+   }
+
+} //class TransferPool
@@ -0,0 +1,92 @@
+import java.io.*;
+import java.lang.management.*;
+import java.nio.*;
+import java.util.*;
+
+/**
+ * BlockReaderBench - How fast a file turns into DATA blocks, in bytes per CPU second (one core).
+ * Compares the old readByte() loop with BlockReader reading and memory-mapped.
+ * Every mode reads the whole file into one direct packet buffer, block by block, for a few seconds.
+ * Build and run from the project folder:
+ *    javac -d bench/out BlockReader.java bench/BlockReaderBench.java
+ *    java -cp bench/out BlockReaderBench [fileMB] [blksize] [seconds]
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+public class BlockReaderBench {
+   private static ThreadMXBean cpu = ManagementFactory.getThreadMXBean();
+
+   public static void main(String[] args) throws Exception {
+      int fileMB = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+      int blksize = args.length > 1 ? Integer.parseInt(args[1]) : 1428;
+      int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+      File file = File.createTempFile("blockbench", ".bin");
+      file.deleteOnExit();
+      byte[] chunk = new byte[1 << 20];
+      new Random(1).nextBytes(chunk);
+      try(FileOutputStream fos = new FileOutputStream(file)) {
+         for(int i = 0; i < fileMB; i++) {
+            fos.write(chunk);
+         }
+      }
+      ByteBuffer sendBuf = ByteBuffer.allocateDirect(blksize + 4);
+      System.out.println(fileMB + "MB file, blksize " + blksize + ", " + seconds + "s per mode (file is in the page cache)");
+
+      run("readByte", file, sendBuf, blksize, seconds, 0);
+      run("BlockReader", file, sendBuf, blksize, seconds, 1);
+      run("BlockReader mmap", file, sendBuf, blksize, seconds, 2);
+   } //main()
+
+   /**
+   * run()
+   * reads the file over and over for the given time and prints the rate
+   * @param mode 0 = readByte loop, 1 = BlockReader, 2 = BlockReader mapped
+   */
+   private static void run(String name, File file, ByteBuffer sendBuf, int blksize, int seconds, int mode) throws IOException {
+      long bytes = 0;
+      long cpuStart = cpu.getCurrentThreadCpuTime();
+      long end = System.nanoTime() + seconds * 1000000000L;
+      while(System.nanoTime() < end) {
+         bytes += readFile(file, sendBuf, blksize, mode);
+      }
+      double cpuSeconds = (cpu.getCurrentThreadCpuTime() - cpuStart) / 1e9;
+      System.out.printf("%-18s %10.1f MB/s per core%n", name, bytes / cpuSeconds / (1 << 20));
+   } //run()
+
+   /**
+   * readFile()
+   * one pass over the file, a block at a time, the way a session sends it
+   * @return the bytes read
+   */
+   private static long readFile(File file, ByteBuffer sendBuf, int blksize, int mode) throws IOException {
+      long total = 0;
+      if(mode == 0) {
+         try(DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            int size = blksize;
+            while(size == blksize) {
+               size = 0;
+               try {
+                  for (int i = 0; i < blksize; i++) {
+                     sendBuf.put(4 + i, dis.readByte());
+                     size++;
+                  }
+               }
+               catch(EOFException eofe) {}
+               total += size;
+            }
+         }
+         return total;
+      }
+      try(BlockReader reader = new BlockReader(file, mode == 2)) {
+         int size = blksize;
+         for(long block = 1; size == blksize; block++) {
+            size = reader.read((block - 1) * blksize, sendBuf, 4, blksize);
+            total += size;
+         }
+      }
+      return total;
+   } //readFile()
+
+} //class BlockReaderBench
@@ -0,0 +1,532 @@
+import java.io.*;
+import java.net.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * TFTPLoad - Load generator: how many clients can one server keep busy, and how fast.
+ * N simulated clients (virtual threads, every transfer on its own socket like a PXE ROM) run RRQs or
+ * WRQs back to back for a few seconds, for every combination of operation, file size and client count
+ * asked for. Each combination prints one JSON line on stdout with MB/s, transfers/s, and p50/p99/p999 of
+ * the transfer time and of the time to the first block (the first DATA of a RRQ, the server's go ahead
+ * for a WRQ), so the results of two commits can be diffed or loaded into a spreadsheet. A table for
+ * people goes to stderr. Transfers count if they end inside the measured seconds, after the warmup.
+ * Without --target the nio engine (SelectorEngine) runs in this JVM on 127.0.0.1, serving a temp folder.
+ * With --target=host:port it loads a server that is already running, with any engine. Either way the
+ * files the RRQs read are uploaded first (load_SIZE), and the WRQs write load_wCLIENT_SIZE.
+ * Build and run from the project folder:
+ *    javac -d bench/out -sourcepath . Packets.java PacketCodec.java bench/TFTPLoad.java
+ *    java -cp bench/out TFTPLoad [--target=host:port] [--loops=N] [--clients=1,16,64] [--sizes=1K,64K,1M]
+ *       [--ops=rrq,wrq] [--seconds=10] [--warmup=2] [--blksize=1428] [--windowsize=1] [--label=text]
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+public class TFTPLoad implements TFTPConstants {
+   // Settings
+   private static InetSocketAddress target;
+   private static int blksize = 1428;
+   private static int windowsize = DEFAULT_WINDOWSIZE;
+   private static String label = "";
+   private static String serverName;
+
+   // In this JVM, without --target
+   private static SelectorEngine engine = null;
+   private static SessionTable sessions = new SessionTable();
+   private static DatagramSocket mainSocket = null;
+   private static File rootDir = null;
+
+   public static void main(String[] args) throws Exception {
+      Map<String, String> named = new HashMap<String, String>();
+      for(String arg : args) {
+         int eq = arg.indexOf('=');
+         if(!arg.startsWith("--") || eq < 0) {
+            System.err.println("TFTPLoad: arguments are --name=value, not " + arg);
+            System.exit(1);
+         }
+         named.put(arg.substring(2, eq), arg.substring(eq + 1));
+      }
+      int[] clientCounts = parseInts(named.getOrDefault("clients", "1,16,64"));
+      long[] sizes = parseSizes(named.getOrDefault("sizes", "1K,64K,1M"));
+      String[] ops = named.getOrDefault("ops", "rrq,wrq").toLowerCase().split(",");
+      int seconds = Integer.parseInt(named.getOrDefault("seconds", "10"));
+      int warmup = Integer.parseInt(named.getOrDefault("warmup", "2"));
+      blksize = Integer.parseInt(named.getOrDefault("blksize", "1428"));
+      windowsize = Integer.parseInt(named.getOrDefault("windowsize", String.valueOf(DEFAULT_WINDOWSIZE)));
+      label = named.getOrDefault("label", "");
+
+      if(named.containsKey("target")) {
+         String t = named.get("target");
+         int colon = t.lastIndexOf(':');
+         target = colon < 0 ? new InetSocketAddress(t, TFTP_PORT) : new InetSocketAddress(t.substring(0, colon), Integer.parseInt(t.substring(colon + 1)));
+         serverName = "target " + t;
+      }
+      else {
+         int loops = Integer.parseInt(named.getOrDefault("loops", String.valueOf(Runtime.getRuntime().availableProcessors())));
+         startServer(loops);
+         serverName = "in-process nio, " + engine.getLoopCount() + " loops";
+      }
+      System.err.println("TFTPLoad: " + serverName + ", blksize " + blksize + ", windowsize " + windowsize + ", " + warmup + "s warmup + " + seconds + "s per run");
+
+      try {
+         // the files to read
+         for(String op : ops) {
+            if(op.equals("rrq")) {
+               for(long size : sizes) {
+                  if(!new SimClient(-1, null).transfer(WRQ, "load_" + size, size)) {
+                     System.err.println("TFTPLoad: couldn't upload load_" + size + " for the RRQs");
+                     System.exit(1);
+                  }
+               }
+            }
+         }
+         System.err.printf("%-4s %10s %7s %10s %9s %7s %10s %10s %10s %10s %10s %10s%n", "op", "size", "clients", "MB/s", "xfers/s", "failed",
+            "p50 ms", "p99 ms", "p999 ms", "1st p50", "1st p99", "1st p999");
+         for(String op : ops) {
+            for(long size : sizes) {
+               for(int clients : clientCounts) {
+                  run(op.equals("wrq") ? WRQ : RRQ, size, clients, warmup, seconds);
+               }
+            }
+         }
+      }
+      finally {
+         stopServer();
+      }
+   } //main()
+
+   /**
+   * run()
+   * one combination: the clients transfer back to back until the time is up, then its line is printed
+   */
+   private static void run(int op, long size, int clients, int warmup, int seconds) throws InterruptedException {
+      long measureFrom = System.nanoTime() + warmup * 1000000000L;
+      long end = measureFrom + seconds * 1000000000L;
+      Results results = new Results();
+      Thread[] threads = new Thread[clients];
+      for(int i = 0; i < clients; i++) {
+         final SimClient client = new SimClient(i, results);
+         threads[i] = Thread.ofVirtual().name("tftpload-client-" + i).start(new Runnable() {
+            public void run() {
+               client.runUntil(op, size, measureFrom, end);
+            }
+         });
+      }
+      for(Thread t : threads) {
+         t.join();
+      }
+
+      int n = results.latency.size();
+      double mbPerSec = n * (double)size / seconds / (1 << 20);
+      double perSec = n / (double)seconds;
+      System.err.printf(Locale.ROOT, "%-4s %10d %7d %10.2f %9.1f %7d %10.3f %10.3f %10.3f %10.3f %10.3f %10.3f%n", op == RRQ ? "RRQ" : "WRQ", size, clients,
+         mbPerSec, perSec, results.failed, results.latency.percentile(0.5), results.latency.percentile(0.99), results.latency.percentile(0.999),
+         results.firstBlock.percentile(0.5), results.firstBlock.percentile(0.99), results.firstBlock.percentile(0.999));
+      System.out.println(String.format(Locale.ROOT, "{\"label\":\"%s\",\"server\":\"%s\",\"op\":\"%s\",\"size\":%d,\"clients\":%d,\"blksize\":%d,\"windowsize\":%d,"
+         + "\"seconds\":%d,\"transfers\":%d,\"failed\":%d,\"mbPerSec\":%.3f,\"transfersPerSec\":%.3f,"
+         + "\"latencyP50Ms\":%.3f,\"latencyP99Ms\":%.3f,\"latencyP999Ms\":%.3f,\"firstBlockP50Ms\":%.3f,\"firstBlockP99Ms\":%.3f,\"firstBlockP999Ms\":%.3f}",
+         json(label), json(serverName), op == RRQ ? "RRQ" : "WRQ", size, clients, blksize, windowsize, seconds, n, results.failed, mbPerSec, perSec,
+         results.latency.percentile(0.5), results.latency.percentile(0.99), results.latency.percentile(0.999),
+         results.firstBlock.percentile(0.5), results.firstBlock.percentile(0.99), results.firstBlock.percentile(0.999)));
+   } //run()
+
+   /**
+   * startServer()
+   * the nio engine in this JVM, on 127.0.0.1 and a free port, serving a temp folder
+   */
+   private static void startServer(int loops) throws IOException {
+      rootDir = Files.createTempDirectory("tftpload").toFile();
+      engine = new SelectorEngine(loops, 0, rootDir, new java.util.function.Consumer<String>() {
+         public void accept(String message) {}   // the log would cost more than the transfers
+      });
+      engine.start();
+      mainSocket = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+      target = new InetSocketAddress(InetAddress.getLoopbackAddress(), mainSocket.getLocalPort());
+      Thread listener = new Thread("tftpload-server") {
+         public void run() {
+            while(true) {
+               DatagramPacket pkt = BufferPool.shared().acquire();
+               try {
+                  mainSocket.receive(pkt);
+               }
+               catch(IOException ioe) {
+                  BufferPool.shared().release(pkt);
+                  return; //stopServer() closed the socket
+               }
+               SessionTable.Handle handle = sessions.open(pkt);
+               if(handle == null) {
+                  BufferPool.shared().release(pkt); //sent again, its session has it
+               }
+               else if(!engine.accept(pkt, handle)) {
+                  handle.close();
+                  BufferPool.shared().release(pkt);
+               }
+            }
+         }
+      };
+      listener.setDaemon(true);
+      listener.start();
+   } //startServer()
+
+   /**
+   * stopServer()
+   * stops the engine started by startServer() and deletes its folder
+   */
+   private static void stopServer() {
+      if(engine == null) {
+         return;
+      }
+      mainSocket.close();
+      engine.shutdown();
+      File[] files = rootDir.listFiles();
+      if(files != null) {
+         for(File f : files) {
+            f.delete();
+         }
+      }
+      rootDir.delete();
+   } //stopServer()
+
+   /**
+   * parseInts()
+   * @return "1,16,64" as numbers
+   */
+   private static int[] parseInts(String list) {
+      String[] parts = list.split(",");
+      int[] values = new int[parts.length];
+      for(int i = 0; i < parts.length; i++) {
+         values[i] = Integer.parseInt(parts[i].trim());
+      }
+      return values;
+   }
+
+   /**
+   * parseSizes()
+   * @return "0,512,64K,1M" in bytes, K and M are 1024 and 1024 * 1024
+   */
+   private static long[] parseSizes(String list) {
+      String[] parts = list.split(",");
+      long[] values = new long[parts.length];
+      for(int i = 0; i < parts.length; i++) {
+         String s = parts[i].trim().toUpperCase();
+         long unit = s.endsWith("K") ? 1024 : s.endsWith("M") ? 1024 * 1024 : 1;
+         values[i] = Long.parseLong(unit > 1 ? s.substring(0, s.length() - 1) : s) * unit;
+      }
+      return values;
+   } //parseSizes()
+
+   /**
+   * json()
+   * @return s with its quotes and backslashes escaped for a JSON string
+   */
+   private static String json(String s) {
+      return s.replace("\\", "\\\\").replace("\"", "\\\"");
+   }
+
+   /**
+   * Results
+   * INNER CLASS
+   * what the clients measured in one combination, each client adds its own at the end
+   */
+   private static class Results {
+      private Samples latency = new Samples();
+      private Samples firstBlock = new Samples();
+      private int failed = 0;
+
+      public synchronized void add(Samples _latency, Samples _firstBlock, int _failed) {
+         latency.addAll(_latency);
+         firstBlock.addAll(_firstBlock);
+         failed += _failed;
+      }
+   } //Results
+
+   /**
+   * Samples
+   * INNER CLASS
+   * a growing list of times in nanoseconds, no boxing so the clients don't make garbage
+   */
+   private static class Samples {
+      private long[] values = new long[256];
+      private int size = 0;
+
+      public void add(long value) {
+         if(size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+         }
+         values[size++] = value;
+      }
+
+      public void addAll(Samples other) {
+         for(int i = 0; i < other.size; i++) {
+            add(other.values[i]);
+         }
+      }
+
+      public int size() {
+         return size;
+      }
+
+      /** percentile() method
+       *
+       * @param p 0.5, 0.99, ...
+       * @return the sample p of the way up, in ms, 0 if there are none
+       */
+      public double percentile(double p) {
+         if(size == 0) {
+            return 0;
+         }
+         long[] sorted = Arrays.copyOf(values, size);
+         Arrays.sort(sorted);
+         int index = (int)Math.ceil(p * size) - 1;
+         return sorted[Math.max(0, Math.min(size - 1, index))] / 1e6;
+      } //percentile()
+   } //Samples
+
+   /**
+   * SimClient
+   * INNER CLASS
+   * one simulated client. A transfer has its own socket, and so its own port, like a new client would
+   */
+   private static class SimClient {
+      private int id;
+      private Results results;
+      private DatagramSocket socket = null;
+      private byte[] requestBuf = new byte[MAX_PACKET];
+      private byte[] ackBuf = new byte[4];
+      private DatagramPacket incoming = new DatagramPacket(new byte[MAX_DATAGRAM], MAX_DATAGRAM);
+      private PacketView view = new PacketView();
+      private RetransmitTimer timer;
+      private int tid;                 // the server's port for this transfer, -1 until it answers
+      private long firstBlock;         // nanoseconds from the request to the first block
+
+      public SimClient(int _id, Results _results) {
+         id = _id;
+         results = _results;
+      }
+
+      /** runUntil() method
+       *
+       * Transfers back to back until end. Times the ones that end after measureFrom, then adds them to the results
+       */
+      public void runUntil(int op, long size, long measureFrom, long end) {
+         Samples latency = new Samples();
+         Samples first = new Samples();
+         int failed = 0;
+         String fileName = op == RRQ ? "load_" + size : "load_w" + id + "_" + size;
+         while(System.nanoTime() < end) {
+            long start = System.nanoTime();
+            boolean ok;
+            try {
+               ok = transfer(op, fileName, size);
+            }
+            catch(IOException ioe) {
+               ok = false;
+            }
+            long done = System.nanoTime();
+            if(done < measureFrom || done > end) {
+               continue;
+            }
+            if(ok) {
+               latency.add(done - start);
+               first.add(firstBlock);
+            }
+            else {
+               failed++;
+            }
+         } //while
+         results.add(latency, first, failed);
+      } //runUntil()
+
+      /** transfer() method
+       *
+       * @param op RRQ or WRQ
+       * @param fileName the file on the server
+       * @param size how big the file is, or is to be
+       * @return true if the whole file went across
+       */
+      public boolean transfer(int op, String fileName, long size) throws IOException {
+         socket = new DatagramSocket();
+         timer = new RetransmitTimer();
+         tid = -1;
+         firstBlock = -1;
+         try {
+            ByteBuffer req = ByteBuffer.wrap(requestBuf);
+            PacketCodec.encodeRequest(req, op, fileName, "octet", TFTPOptions.request(blksize, windowsize, op == WRQ ? size : -1));
+            DatagramPacket request = new DatagramPacket(requestBuf, req.limit(), target);
+            long start = System.nanoTime();
+            socket.send(request);
+            timer.sent();
+            return op == RRQ ? receiveFile(request, start, size) : sendFile(request, start, size);
+         }
+         finally {
+            socket.close();
+         }
+      } //transfer()
+
+      /**
+      * receiveFile()
+      * RRQ: takes DATA in order through a ReceiveWindow and ACKs it, checks the size at the end
+      */
+      private boolean receiveFile(DatagramPacket request, long start, long size) throws IOException {
+         int blk = DEFAULT_BLKSIZE;
+         ReceiveWindow window = null;   // made once the OACK or the first DATA says how big it is
+         DatagramPacket last = request;   // what to send again after a timeout
+         long received = 0;
+         long deadline = System.nanoTime() + timer.getTimeout();
+         while(true) {
+            if(!receive(deadline)) {
+               if(timer.timedOut()) {
+                  return false;
+               }
+               socket.send(last);
+               deadline = System.nanoTime() + timer.getTimeout();
+               continue;
+            }
+            view.wrap(incoming);
+            int opcode = view.getOpCode();
+            if(opcode == ERROR) {
+               return false;
+            }
+            if(opcode == OACK && window == null) {
+               Map<String, String> options = view.getOptions();
+               blk = Integer.parseInt(options.getOrDefault(TFTPOptions.BLKSIZE, String.valueOf(DEFAULT_BLKSIZE)));
+               window = new ReceiveWindow(Integer.parseInt(options.getOrDefault(TFTPOptions.WINDOWSIZE, String.valueOf(DEFAULT_WINDOWSIZE))));
+               timer.progress();
+               last = ack(0);
+               socket.send(last);
+               timer.sent();
+               deadline = System.nanoTime() + timer.getTimeout();
+            }
+            else if(opcode == DATA) {
+               if(window == null) {
+                  window = new ReceiveWindow(DEFAULT_WINDOWSIZE);   // no OACK, the server went with the defaults
+               }
+               if(firstBlock < 0) {
+                  firstBlock = System.nanoTime() - start;
+               }
+               int len = view.getPayloadLength();
+               if(window.accept(view.getBlockNo(), len < blk)) {
+                  received += len;
+                  timer.progress();
+                  deadline = System.nanoTime() + timer.getTimeout();
+               }
+               if(window.takeAckDue()) {
+                  last = ack(window.getAckNo());
+                  socket.send(last);
+                  if(window.isComplete()) {
+                     return received == size;
+                  }
+                  timer.sent();
+               }
+            }
+         } //while
+      } //receiveFile()
+
+      /**
+      * sendFile()
+      * WRQ: sends size bytes through a SendWindow once the server says go ahead. The bytes are whatever is in the buffer
+      */
+      private boolean sendFile(DatagramPacket request, long start, long size) throws IOException {
+         int blk = DEFAULT_BLKSIZE;
+         SendWindow window = null;   // made once the OACK or ACK 0 comes back
+         ByteBuffer dataBuf = null;
+         DatagramPacket dataPkt = null;
+         long deadline = System.nanoTime() + timer.getTimeout();
+         while(true) {
+            if(window != null && window.hasNext()) {
+               while(window.hasNext()) {
+                  long block = window.next();
+                  long pos = (block - 1) * blk;
+                  int len = (int)Math.min(blk, size - pos);
+                  if(len < blk) {
+                     window.setLastBlock(block);
+                  }
+                  PacketCodec.encodeDATA(dataBuf, (int)(block & 0xFFFF), len);
+                  dataPkt.setLength(4 + len);
+                  socket.send(dataPkt);
+               }
+               timer.sent();
+               deadline = System.nanoTime() + timer.getTimeout();
+            }
+
+            if(!receive(deadline)) {
+               if(timer.timedOut()) {
+                  return false;
+               }
+               if(window == null) {
+                  socket.send(request);
+               }
+               else {
+                  window.rewind();
+               }
+               deadline = System.nanoTime() + timer.getTimeout();
+               continue;
+            }
+            view.wrap(incoming);
+            int opcode = view.getOpCode();
+            if(opcode == ERROR) {
+               return false;
+            }
+            if(window == null && (opcode == OACK || (opcode == ACK && view.getBlockNo() == 0))) {
+               int ws = DEFAULT_WINDOWSIZE;
+               if(opcode == OACK) {
+                  Map<String, String> options = view.getOptions();
+                  blk = Integer.parseInt(options.getOrDefault(TFTPOptions.BLKSIZE, String.valueOf(DEFAULT_BLKSIZE)));
+                  ws = Integer.parseInt(options.getOrDefault(TFTPOptions.WINDOWSIZE, String.valueOf(DEFAULT_WINDOWSIZE)));
+               }
+               firstBlock = System.nanoTime() - start;
+               timer.progress();
+               window = new SendWindow(ws, 0);
+               dataBuf = ByteBuffer.allocate(blk + 4);
+               dataPkt = new DatagramPacket(dataBuf.array(), 0, incoming.getAddress(), tid);
+            }
+            else if(window != null && opcode == ACK && window.ack(view.getBlockNo())) {
+               timer.progress();
+               if(window.isComplete()) {
+                  return true;
+               }
+            }
+         } //while
+      } //sendFile()
+
+      /**
+      * receive()
+      * waits for a packet from the server until deadline. The first answer fixes the server's port,
+      * packets from anywhere else are ignored
+      * @return false if the time ran out
+      */
+      private boolean receive(long deadline) throws IOException {
+         while(true) {
+            long wait = (deadline - System.nanoTime()) / 1000000;
+            if(wait <= 0) {
+               return false;
+            }
+            socket.setSoTimeout((int)wait);
+            try {
+               incoming.setLength(MAX_DATAGRAM);
+               socket.receive(incoming);
+            }
+            catch(SocketTimeoutException ste) {
+               return false;
+            }
+            if(tid < 0) {
+               tid = incoming.getPort();
+            }
+            if(incoming.getPort() == tid) {
+               return true;
+            }
+         } //while
+      } //receive()
+
+      /**
+      * ack()
+      * @return an ACK for blockNo to the server's port
+      */
+      private DatagramPacket ack(int blockNo) {
+         PacketCodec.encodeACK(ByteBuffer.wrap(ackBuf), blockNo);
+         return new DatagramPacket(ackBuf, 4, target.getAddress(), tid);
+      }
+   } //SimClient
+
+} //class TFTPLoad
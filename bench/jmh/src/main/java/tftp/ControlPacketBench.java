@@ -0,0 +1,108 @@
+package tftp;
+
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * ControlPacketBench - build() and dissect() for the packets without a data payload:
+ * RRQ and WRQ with the options the client asks for, OACK, ACK and ERROR.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ControlPacketBench {
+   private RRQPacket rrq;
+   private WRQPacket wrq;
+   private OACKPacket oack;
+   private ACKPacket ack;
+   private ERRORPacket error;
+   private DatagramPacket rrqIn, wrqIn, oackIn, ackIn, errorIn;
+   private RRQPacket rrqOut = new RRQPacket();
+   private WRQPacket wrqOut = new WRQPacket();
+   private OACKPacket oackOut = new OACKPacket();
+   private ACKPacket ackOut = new ACKPacket();
+   private ERRORPacket errorOut = new ERRORPacket();
+
+   @Setup
+   public void setup() {
+      InetAddress address = InetAddress.getLoopbackAddress();
+      Map<String, String> options = new LinkedHashMap<String, String>();
+      options.put("blksize", "1428");
+      options.put("windowsize", "8");
+      options.put("tsize", "104857600");
+      rrq = new RRQPacket(address, 69, "pxelinux.0", "octet", options);
+      wrq = new WRQPacket(address, 69, "uploads/config-backup.txt", "octet", options);
+      oack = new OACKPacket(address, 69, options);
+      ack = new ACKPacket(address, 69, 1234);
+      error = new ERRORPacket(address, 69, 1, "File not found: pxelinux.0");
+      rrqIn = rrq.build();
+      wrqIn = wrq.build();
+      oackIn = oack.build();
+      ackIn = ack.build();
+      errorIn = error.build();
+   }
+
+   @Benchmark
+   public DatagramPacket rrqBuild() {
+      return rrq.build();
+   }
+
+   @Benchmark
+   public String rrqDissect() {
+      rrqOut.dissect(rrqIn);
+      return rrqOut.getFileName();
+   }
+
+   @Benchmark
+   public DatagramPacket wrqBuild() {
+      return wrq.build();
+   }
+
+   @Benchmark
+   public String wrqDissect() {
+      wrqOut.dissect(wrqIn);
+      return wrqOut.getFileName();
+   }
+
+   @Benchmark
+   public DatagramPacket oackBuild() {
+      return oack.build();
+   }
+
+   @Benchmark
+   public Map<String, String> oackDissect() {
+      oackOut.dissect(oackIn);
+      return oackOut.getOptions();
+   }
+
+   @Benchmark
+   public DatagramPacket ackBuild() {
+      return ack.build();
+   }
+
+   @Benchmark
+   public int ackDissect() {
+      ackOut.dissect(ackIn);
+      return ackOut.getBlockNo();
+   }
+
+   @Benchmark
+   public DatagramPacket errorBuild() {
+      return error.build();
+   }
+
+   @Benchmark
+   public String errorDissect() {
+      errorOut.dissect(errorIn);
+      return errorOut.getErrorMsg();
+   }
+
+} //class ControlPacketBench
@@ -0,0 +1,70 @@
+package tftp;
+
+import java.net.*;
+import java.nio.*;
+import java.util.concurrent.*;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * DataPacketBench - DATAPacket build() and dissect() for payloads from empty to 8192 bytes,
+ * next to the allocation-free PacketCodec/PacketView path the sessions send and receive with.
+ * 511 is a short last block, 512 the default block size, 1428 the blksize that fits an Ethernet frame.
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DataPacketBench {
+   @Param({"0", "511", "512", "1428", "8192"})
+   public int size;
+
+   private InetAddress address;
+   private byte[] data;
+   private DATAPacket outgoing;
+   private DatagramPacket incoming;
+   private DATAPacket dissected = new DATAPacket();
+   private ByteBuffer sendBuf;
+   private ByteBuffer receiveBuf;
+   private PacketView view = new PacketView();
+
+   @Setup
+   public void setup() throws Exception {
+      address = InetAddress.getLoopbackAddress();
+      data = new byte[size];
+      ThreadLocalRandom.current().nextBytes(data);
+      outgoing = new DATAPacket(address, 69, 1234, data, size);
+      incoming = outgoing.build();
+      sendBuf = ByteBuffer.allocateDirect(size + 4);
+      receiveBuf = ByteBuffer.allocateDirect(size + 4);
+      receiveBuf.put(incoming.getData(), 0, incoming.getLength()).flip();
+   }
+
+   @Benchmark
+   public DatagramPacket build() {
+      return outgoing.build();
+   }
+
+   @Benchmark
+   public int dissect() {
+      dissected.dissect(incoming);
+      return dissected.getDataLen();
+   }
+
+   @Benchmark
+   public ByteBuffer encode() {
+      PacketCodec.encodeDATA(sendBuf, 1234, data, 0, size);
+      return sendBuf;
+   }
+
+   @Benchmark
+   public int decode() {
+      view.wrap(receiveBuf, 0, receiveBuf.limit());
+      return view.getOpCode() + view.getBlockNo() + view.getPayloadLength();
+   }
+
+} //class DataPacketBench
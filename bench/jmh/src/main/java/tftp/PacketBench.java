@@ -0,0 +1,27 @@
+package tftp;
+
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * PacketBench - Main class of benchmarks.jar. Runs the packet benchmarks with the GC profiler on,
+ * so next to ns/op every result has gc.alloc.rate.norm, the bytes allocated per op.
+ * Takes the usual JMH options, like a benchmark name to run just that one:
+ *    java -jar target/benchmarks.jar DataPacketBench.dissect -p size=1428
+ * @author  Garrett Maury, Josh R, Alex R (RIP JOSH)
+ * @version 4/15/2021
+ */
+
+public class PacketBench {
+
+   public static void main(String[] args) throws Exception {
+      CommandLineOptions cmd = new CommandLineOptions(args);
+      ChainedOptionsBuilder opts = new OptionsBuilder().parent(cmd).addProfiler(GCProfiler.class);
+      if(cmd.getIncludes().isEmpty()) {
+         opts.include("tftp\\..*PacketBench\\.");
+      }
+      new Runner(opts.build()).run();
+   } //main()
+
+} //class PacketBench